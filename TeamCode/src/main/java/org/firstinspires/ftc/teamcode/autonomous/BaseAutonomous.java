@@ -8,11 +8,14 @@ import org.firstinspires.ftc.teamcode.common.sensors.vision.CameraStream;
 import org.firstinspires.ftc.teamcode.common.sensors.vision.WebcamStream;
 import org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger;
 import org.firstinspires.ftc.teamcode.common.util.TelemetryWrapper;
+import org.firstinspires.ftc.teamcode.common.util.Trace;
 import org.firstinspires.ftc.teamcode.common.Robot;
 import org.firstinspires.ftc.teamcode.common.util.Config;
+import org.firstinspires.ftc.teamcode.common.util.LogRetention;
 import org.firstinspires.ftc.teamcode.common.util.Logger;
 import org.firstinspires.ftc.teamcode.common.util.Persistent;
 import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.OverflowPolicy;
 import org.opencv.android.OpenCVLoader;
 
 import java.io.IOException;
@@ -69,6 +72,7 @@ public abstract class BaseAutonomous extends LinearOpMode
     
     // Switch for GlobalDataLogger
     private static final boolean LOGGING_ENABLED = true;
+    private static final int TRACE_CAPACITY = 32768;
     
     /**
      * Get the current instance of BaseAutonomous. This is set when the OpMode is initialized and
@@ -170,6 +174,9 @@ public abstract class BaseAutonomous extends LinearOpMode
             //Run initialization operations here
             //Create our latest.log file
             Logger.init();
+            Logger.startAsync(4096, OverflowPolicy.DROP_OLDEST);
+            Trace.enable(TRACE_CAPACITY);
+            Trace.begin("OpMode init");
             log = new Logger("BaseAutonomous");
             //Initialize the configuration file
             config = new Config(Config.configFile);
@@ -181,20 +188,28 @@ public abstract class BaseAutonomous extends LinearOpMode
             interrupterThread.start();
             
             // Create our global thread pool for future threads
-            GlobalThreadPool.initialize(16, this);
+            GlobalThreadPool.initialize(this);
             
             //Clear the persistent objects since this would be a new round in competition
             Persistent.clear();
             
-            GlobalDataLogger.initialize(Config.storageDir + "autonomous_" + getClass().getSimpleName() + ".log.gz");
+            Trace.begin("GlobalDataLogger init");
+            GlobalDataLogger.initialize(Config.storageDir + "logs/" + Logger.getSession() + "_autonomous_"
+                    + getClass().getSimpleName() + ".gdl");
             if (LOGGING_ENABLED) GlobalDataLogger.instance().start(1);
+            Trace.end();
             
             //Set the current instance
             instance = this;
 
+            Trace.begin("Robot.initialize");
             Robot.initialize(hardwareMap, config);
             Robot.instance().drivetrain.enableAsyncLoop();
+            Trace.end();
+            Trace.begin("initialize()");
             initialize();
+            Trace.end();
+            Trace.end(); // OpMode init
             
             //Must wait for start, otherwise the robot will run as soon as it is initialized, which can
             //be incredibly annoying. We could also simply override start(), but we also want to
@@ -202,10 +217,13 @@ public abstract class BaseAutonomous extends LinearOpMode
             waitForStart();
 
             if (!opModeIsActive()) return;
+            Trace.instant("Start");
             Logger.startTimer();
             long start = System.currentTimeMillis();
             // Run the robot code
+            Trace.begin("run()");
             run();
+            Trace.end();
             log.i("Finished main robot thread; waiting for OpMode to finish");
             telemetry.addData("Completion Time", (double)(System.currentTimeMillis() - start) / 1000);
             telemetry.update();
@@ -217,6 +235,8 @@ public abstract class BaseAutonomous extends LinearOpMode
         }
         finally
         {
+            Trace.begin("Shutdown");
+            GlobalDataLogger dataLogger = GlobalDataLogger.instance();
             finish();
             if (Robot.instance() != null) Robot.instance().uninitialize();
             instance = null;
@@ -225,23 +245,35 @@ public abstract class BaseAutonomous extends LinearOpMode
                 stream.stop();
                 stream = null;
             }
+            Trace.end();
+            Trace.stop();
             if (exc != null)
             {
                 //We can't just throw any Throwables; we need to throw either unchecked exceptions
                 //(RuntimeException and Error) or InterruptedException, which it is declared to be
                 //able to throw.
                 log.e(exc);
-                Logger.close();
-                if (exc instanceof Error) throw (Error) exc;
-                else if (exc instanceof RuntimeException) throw (RuntimeException) exc;
-                else if (exc instanceof IOException) log.e(exc);
-                else throw (InterruptedException) exc;
+                if (!(exc instanceof IOException))
+                {
+                    closeLogs(dataLogger);
+                    if (exc instanceof Error) throw (Error) exc;
+                    else if (exc instanceof RuntimeException) throw (RuntimeException) exc;
+                    else throw (InterruptedException) exc;
+                }
             }
             GlobalThreadPool.instance().stopAll();
-            Logger.close();
+            closeLogs(dataLogger);
             System.gc();
         }
     }
+
+    private void closeLogs(GlobalDataLogger dataLogger)
+    {
+        dataLogger.stop();
+        dataLogger.awaitClose(1000); // Before its file is compressed
+        Logger.close();
+        LogRetention.finishSession(Logger.getSession(), getClass().getSimpleName());
+    }
     
     /**
      * Executed when the robot is initializing. Implementation is optional; does nothing by default.
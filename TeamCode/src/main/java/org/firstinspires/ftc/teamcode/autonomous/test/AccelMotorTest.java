@@ -9,6 +9,7 @@ import org.firstinspires.ftc.teamcode.common.motor_control.AccelMotor;
 import org.firstinspires.ftc.teamcode.common.motor_control.PIDMotor;
 import org.firstinspires.ftc.teamcode.common.util.Logger;
 import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
 
 import java.util.Objects;
 
@@ -21,7 +22,7 @@ public class AccelMotorTest extends BaseAutonomous
     {
         Logger log = new Logger("AccelMotorTest");
         PIDMotor motor = Robot.instance().drivetrain.leftFront;
-        GlobalThreadPool.instance().start(() ->
+        GlobalThreadPool.instance().start(Lane.IO, "Telemetry", () ->
         {
             while (true)
             {
@@ -65,7 +65,7 @@ public class DistanceTest extends BaseAutonomous
         drivetrain = robot.drivetrain;
         senseWheel = drivetrain.leftBack;
         
-        GlobalDataLogger.instance().addChannel("Test Status", () -> status);
+        GlobalDataLogger.instance().addInternedChannel("Test Status", () -> status);
         status = "Curve Turn";
         curveTurn(0.3, 250);
         
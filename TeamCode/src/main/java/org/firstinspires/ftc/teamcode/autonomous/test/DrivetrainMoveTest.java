@@ -7,6 +7,7 @@ import org.firstinspires.ftc.teamcode.common.Robot;
 import org.firstinspires.ftc.teamcode.common.actuators.Drivetrain;
 import org.firstinspires.ftc.teamcode.common.util.Logger;
 import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
 
 import java.util.Arrays;
 
@@ -21,7 +22,7 @@ public class DrivetrainMoveTest extends BaseAutonomous
         Robot.instance().fwdEnc.resetEncoder();
         Robot.instance().strafeEnc.resetEncoder();
     
-        GlobalThreadPool.instance().start(() ->
+        GlobalThreadPool.instance().start(Lane.IO, "Telemetry", () ->
         {
            while (true)
            {
@@ -6,6 +6,7 @@ import org.firstinspires.ftc.teamcode.autonomous.BaseAutonomous;
 import org.firstinspires.ftc.teamcode.common.Robot;
 import org.firstinspires.ftc.teamcode.common.actuators.Drivetrain;
 import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
 import org.firstinspires.ftc.teamcode.teleop.BaseTeleOp;
 
 @Autonomous(name="Turn Test")
@@ -20,7 +21,7 @@ public class TurnTest extends BaseAutonomous
         robot.imu.initialize();
         robot.imu.waitForInit(telemetry);
         robot.imu.start();
-        GlobalThreadPool.instance().start(() ->
+        GlobalThreadPool.instance().start(Lane.IO, "Telemetry", () ->
         {
             while (true)
             {
@@ -9,6 +9,7 @@ import org.firstinspires.ftc.teamcode.common.util.Config;
 import org.firstinspires.ftc.teamcode.common.util.DataStorage;
 import org.firstinspires.ftc.teamcode.common.util.TelemetryWrapper;
 import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
 import org.firstinspires.ftc.teamcode.teleop.BaseTeleOp;
 import org.firstinspires.ftc.teamcode.teleop.util.ButtonHelper;
 
@@ -255,7 +256,7 @@ public class AutoDesigner extends BaseTeleOp
                 if (!running)
                 {
                     running = true;
-                    daemon = GlobalThreadPool.instance().start(() -> executeOp(1));
+                    daemon = GlobalThreadPool.instance().start(Lane.CONTROL, "AutoDesigner", () -> executeOp(1));
                 }
                 else if (daemon.isDone())
                 {
@@ -299,7 +300,7 @@ public class AutoDesigner extends BaseTeleOp
                     
                     fetchOp();
                     running = true;
-                    daemon = GlobalThreadPool.instance().start(() -> executeOp(-1));
+                    daemon = GlobalThreadPool.instance().start(Lane.CONTROL, "AutoDesigner", () -> executeOp(-1));
                 }
                 else if (daemon.isDone())
                 {
@@ -2,6 +2,9 @@ package org.firstinspires.ftc.teamcode.autonomous.vision;
 
 import org.firstinspires.ftc.teamcode.common.sensors.vision.CameraStream;
 import org.firstinspires.ftc.teamcode.common.util.Logger;
+import org.firstinspires.ftc.teamcode.common.util.Trace;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
@@ -21,6 +24,7 @@ import org.opencv.tracking.TrackerMOSSE;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * Shape-based mineral detector and tracker. This is being kept in the repository as a sample
@@ -68,7 +72,7 @@ public class ShapeGoldDetector implements CameraStream.CameraListener, CameraStr
     private Worker worker;
     private Point lastGoldCenter;
     private boolean seen = false;
-    private Thread workerThread;
+    private Future<?> workerTask;
 
     private static final double ASPECT_TOLERANCE = 0.4;
     private static final int MIN_Y = 100;
@@ -89,8 +93,7 @@ public class ShapeGoldDetector implements CameraStream.CameraListener, CameraStr
     {
         this.onWebcam = onWebcam;
         worker = new Worker();
-        workerThread = new Thread(worker, "ShapeGoldDetector Worker");
-        workerThread.start();
+        workerTask = GlobalThreadPool.instance().start(Lane.VISION, "ShapeGoldDetector Worker", worker);
     }
 
     @Override
@@ -205,7 +208,7 @@ public class ShapeGoldDetector implements CameraStream.CameraListener, CameraStr
     @Override
     public void stop()
     {
-        if (workerThread.isAlive()) workerThread.interrupt();
+        if (workerTask != null) workerTask.cancel(true);
     }
 
     private class Worker implements Runnable
@@ -332,6 +335,14 @@ public class ShapeGoldDetector implements CameraStream.CameraListener, CameraStr
         }
 
         private void process(Mat image)
+        {
+            try (Trace.Scope s = Trace.scope("ShapeGold process"))
+            {
+                detect(image);
+            }
+        }
+
+        private void detect(Mat image)
         {
             Mat blurry = new Mat();
             Imgproc.blur(image, blurry, new Size(4, 4));
@@ -2,6 +2,9 @@ package org.firstinspires.ftc.teamcode.autonomous.vision;
 
 import org.firstinspires.ftc.teamcode.common.sensors.vision.CameraStream;
 import org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger;
+import org.firstinspires.ftc.teamcode.common.util.Trace;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
@@ -9,8 +12,6 @@ import org.opencv.core.Rect;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 public class SkystoneDetector implements CameraStream.CameraListener, CameraStream.OutputModifier
@@ -22,40 +23,36 @@ public class SkystoneDetector implements CameraStream.CameraListener, CameraStre
     
     private Future<DetectResult> currentWorker;
     
-    private ExecutorService worker;
-    
     private DetectResult currentResult;
     
     private boolean enabled;
     
     public SkystoneDetector()
     {
-        worker = Executors.newSingleThreadExecutor();
-    
-        GlobalDataLogger.instance().addChannel("Skystone detected", () -> found() ? "1" : "0");
+        GlobalDataLogger.instance().addChannel("Skystone detected", () -> found());
         GlobalDataLogger.instance().addChannel("Skystone width", () -> {
             if (found())
-                return Integer.toString(getArea().width);
+                return getArea().width;
             else
-                return "0";
+                return 0;
         });
         GlobalDataLogger.instance().addChannel("Skystone height", () -> {
             if (found())
-                return Integer.toString(getArea().height);
+                return getArea().height;
             else
-                return "0";
+                return 0;
         });
         GlobalDataLogger.instance().addChannel("Skystone center X", () -> {
             if (found())
-                return Integer.toString((int)getCenter().x);
+                return (int)getCenter().x;
             else
-                return "0";
+                return 0;
         });
         GlobalDataLogger.instance().addChannel("Skystone center Y", () -> {
             if (found())
-                return Integer.toString((int)getCenter().y);
+                return (int)getCenter().y;
             else
-                return "0";
+                return 0;
         });
         
         enabled = true;
@@ -76,7 +73,7 @@ public class SkystoneDetector implements CameraStream.CameraListener, CameraStre
         }
         if ((currentWorker == null || currentWorker.isDone()) && enabled)
         {
-            currentWorker = worker.submit(new Worker(bgr));
+            currentWorker = GlobalThreadPool.instance().start(Lane.VISION, "Skystone Worker", new Worker(bgr));
         }
         bgr.release();
     }
@@ -134,8 +131,10 @@ public class SkystoneDetector implements CameraStream.CameraListener, CameraStre
         @Override
         public DetectResult call()
         {
+            Trace.begin("Skystone detect");
             int status = submit(bgr.nativeObj);
             bgr.release();
+            Trace.end();
             if (status < 0)
             {
                 return null;
@@ -6,6 +6,7 @@ import com.qualcomm.hardware.rev.Rev2mDistanceSensor;
 import com.qualcomm.robotcore.hardware.DcMotor;
 import com.qualcomm.robotcore.hardware.DcMotorSimple;
 import com.qualcomm.robotcore.hardware.DigitalChannel;
+import com.qualcomm.robotcore.hardware.HardwareDevice;
 import com.qualcomm.robotcore.hardware.HardwareMap;
 import com.qualcomm.robotcore.hardware.Servo;
 
@@ -15,11 +16,15 @@ import org.firstinspires.ftc.teamcode.common.actuators.FoundationHook;
 import org.firstinspires.ftc.teamcode.common.actuators.Intake;
 import org.firstinspires.ftc.teamcode.common.actuators.IntakeLinkage;
 import org.firstinspires.ftc.teamcode.common.actuators.Lift;
+import org.firstinspires.ftc.teamcode.common.actuators.MonitoredServo;
 import org.firstinspires.ftc.teamcode.common.actuators.MotorArm;
+import org.firstinspires.ftc.teamcode.common.actuators.WriteBuffer;
+import org.firstinspires.ftc.teamcode.common.motor_control.CachedMotor;
 import org.firstinspires.ftc.teamcode.common.motor_control.PIDMotor;
 // import org.firstinspires.ftc.teamcode.common.actuators.SwerveWheel;
 import org.firstinspires.ftc.teamcode.common.sensors.AMSEncoder;
 import org.firstinspires.ftc.teamcode.common.sensors.AndyMarkEncoder;
+import org.firstinspires.ftc.teamcode.common.sensors.HubCache;
 import org.firstinspires.ftc.teamcode.common.sensors.IMU;
 import org.firstinspires.ftc.teamcode.common.sensors.Odometry;
 import org.firstinspires.ftc.teamcode.common.sensors.OdometryEncoder;
@@ -28,10 +33,16 @@ import org.firstinspires.ftc.teamcode.common.sensors.Switch;
 import org.firstinspires.ftc.teamcode.common.util.Config;
 import org.firstinspires.ftc.teamcode.common.util.DataStorage;
 import org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger;
+import org.firstinspires.ftc.teamcode.common.util.HubExecutor;
 import org.firstinspires.ftc.teamcode.common.util.Logger;
 import org.firstinspires.ftc.teamcode.common.util.Persistent;
 import org.firstinspires.ftc.teamcode.common.util.RevHubLED;
+import org.firstinspires.ftc.teamcode.common.util.Trace;
 import org.firstinspires.ftc.teamcode.common.util.Utils;
+import org.firstinspires.ftc.teamcode.common.util.metrics.BusMonitor;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PeriodicTask;
 
 import java.io.File;
 
@@ -76,11 +87,18 @@ public class Robot
     public final HardwareMap hardwareMap;
     
     public final LynxModule leftHub, rightHub;
+    public final HubCache hubCache;
+    public final WriteBuffer writeBuffer;
+    public final HubExecutor leftIO, rightIO;
     
     public final RevHubLED leftLed, rightLed;
 
     // Internal
     private final Logger log = new Logger("Robot");
+    // Service each hub on its own I/O thread. If false, one CONTROL task services both hubs in
+    // turn, which is how it was done before; the "<hub> I/O latency" metrics compare the two.
+    private static final boolean HUB_THREADS = true;
+    private PeriodicTask hubTask;
 
 ////////////////////////////////////////////////////////////////////////////////////////////////////
 //  Initialization and Lifecycle                                                                  //
@@ -98,9 +116,35 @@ public class Robot
         instance = this; // Pre-set the instance so other classes can see this
         this.hardwareMap = hardwareMap;
         this.config = config;
+        leftHub = hardwareMap.get(LynxModule.class, "Expansion Hub left");
+        rightHub = hardwareMap.get(LynxModule.class, "Expansion Hub right");
+        // Before the devices are created, so their calls are counted on the right hub
+        BusMonitor.addHub(leftHub, "Left hub");
+        BusMonitor.addHub(rightHub, "Right hub");
+        hubCache = new HubCache(hardwareMap, leftHub, rightHub);
+        hubCache.setMaxAge(15);
+        writeBuffer = new WriteBuffer(hardwareMap, leftHub, rightHub);
+        leftIO = new HubExecutor("Left hub", leftHub, hubCache.getHubs()[0], writeBuffer.getHub(leftHub));
+        rightIO = new HubExecutor("Right hub", rightHub, hubCache.getHubs()[1], writeBuffer.getHub(rightHub));
+        if (HUB_THREADS)
+        {
+            leftIO.start(10);
+            rightIO.start(10);
+        }
+        else
+        {
+            hubTask = GlobalThreadPool.instance().scheduleAtFixedRate(Lane.CONTROL, "Hub I/O", 10, true, () ->
+            {
+                long due = System.nanoTime();
+                leftIO.runCycle(due);
+                rightIO.runCycle(due);
+            });
+        }
+
+        Trace.begin("Robot: actuators");
         // Motors
-        DcMotor leftIntake = hardwareMap.dcMotor.get("l intake");
-        DcMotor rightIntake = hardwareMap.dcMotor.get("r intake");
+        DcMotor leftIntake = getMotor("l intake");
+        DcMotor rightIntake = getMotor("r intake");
         intake = new Intake(leftIntake, rightIntake);
 
 
@@ -110,36 +154,43 @@ public class Robot
         // Servos
         DataStorage servo_positions = new DataStorage(new File(Config.storageDir + "servo_positions.json"));
     
-        Servo hookL = hardwareMap.servo.get("hook l");
-        Servo hookR = hardwareMap.servo.get("hook r");
+        Servo hookL = new MonitoredServo(hardwareMap.servo.get("hook l"), "Hook position write");
+        Servo hookR = new MonitoredServo(hardwareMap.servo.get("hook r"), "Hook position write");
         foundationhook = new FoundationHook(hookL, hookR, servo_positions);
 
-        Servo intake_l = hardwareMap.servo.get("intake l");
-        Servo intake_r = hardwareMap.servo.get("intake r");
+        Servo intake_l = new MonitoredServo(hardwareMap.servo.get("intake l"), "Intake linkage write");
+        Servo intake_r = new MonitoredServo(hardwareMap.servo.get("intake r"), "Intake linkage write");
         
         intakelinkage = new IntakeLinkage(intake_l, intake_r, servo_positions);
 
         // Actuators
-        DcMotor slidemotor = hardwareMap.dcMotor.get("slide lift");
+        DcMotor slidemotor = getMotor("slide lift");
         slidemotor.setDirection(DcMotorSimple.Direction.REVERSE);
-        DigitalChannel bottomswitch = hardwareMap.digitalChannel.get("bottom limit");
+        DigitalChannel bottomswitch = hubCache.wrap(hardwareMap.digitalChannel.get("bottom limit"));
         PIDMotor lift = new PIDMotor(slidemotor);
         bottomlimit = new Switch(bottomswitch);
         slide = new Lift(lift, bottomlimit);
 
-        DcMotor motorArm = hardwareMap.dcMotor.get("motor arm");
+        DcMotor motorArm = getMotor("motor arm");
         motorArm.setDirection(DcMotorSimple.Direction.REVERSE);
-        DigitalChannel backLimit = hardwareMap.digitalChannel.get("back limit");
+        DigitalChannel backLimit = hubCache.wrap(hardwareMap.digitalChannel.get("back limit"));
         backSwitch = new Switch(backLimit);
         newarm = new MotorArm(motorArm, backSwitch);
+        Trace.end();
 
 
+        Trace.begin("Robot: IMU");
         IMU imu_ = (IMU)Persistent.get("imu");
         if (imu_ == null) imu_ = new IMU(hardwareMap.get(BNO055IMU.class, "imu 1"));
         imu = imu_;
+        if (imu.getInternalImu() instanceof HardwareDevice)
+            imu.setExecutor(getHubExecutor((HardwareDevice)imu.getInternalImu()));
+        Trace.end();
         
         // fwdEnc = hardwareMap.get(AMSEncoder.class, "fwd enc");
         // strafeEnc = hardwareMap.get(AMSEncoder.class, "strafe enc");
+        // ((AMSEncoder)fwdEnc).startPolling(2); // 500 Hz
+        // ((AMSEncoder)strafeEnc).startPolling(2);
         fwdEnc = new AndyMarkEncoder(leftIntake);
         strafeEnc = new AndyMarkEncoder(rightIntake);
         
@@ -157,18 +208,21 @@ public class Robot
         */
         
         // Non-AccelMotor drivetrain
+        Trace.begin("Robot: drivetrain");
         odometry = new Odometry(fwdEnc, strafeEnc, imu);
-        drivetrain = new Drivetrain(new PIDMotor(hardwareMap.dcMotor.get("lf")),
-                                    new PIDMotor(hardwareMap.dcMotor.get("rf")),
-                                    new PIDMotor(hardwareMap.dcMotor.get("lb")),
-                                    new PIDMotor(hardwareMap.dcMotor.get("rb")), imu, odometry);
+        drivetrain = new Drivetrain(new PIDMotor(getMotor("lf")),
+                                    new PIDMotor(getMotor("rf")),
+                                    new PIDMotor(getMotor("lb")),
+                                    new PIDMotor(getMotor("rb")), imu, odometry);
     
-        claw = new Claw(hardwareMap.servo.get("claw"), servo_positions);
+        claw = new Claw(new MonitoredServo(hardwareMap.servo.get("claw"), "Claw position write"), servo_positions);
+        Trace.end();
         
         // Swerve wheels
         
         
         // Sensors
+        Trace.begin("Robot: sensors");
         // leftRange = new RangeSensor(hardwareMap.get(Rev2mDistanceSensor.class, "l distance"));
         leftRange = null;
         centerRange = new RangeSensor(hardwareMap.get(Rev2mDistanceSensor.class, "c distance"));
@@ -179,31 +233,61 @@ public class Robot
 
         
         // Other
-        leftHub = hardwareMap.get(LynxModule.class, "Expansion Hub left");
-        rightHub = hardwareMap.get(LynxModule.class, "Expansion Hub right");
-        leftLed = new RevHubLED(leftHub);
-        rightLed = new RevHubLED(rightHub);
+        leftLed = new RevHubLED(leftHub, writeBuffer);
+        rightLed = new RevHubLED(rightHub, writeBuffer);
+        Trace.end();
         
         // Reverse motors as necessary
         
         
         // Logging
         
-        GlobalDataLogger.instance().addChannel("Forward Distance", () -> "" + odometry.getForwardDistance());
-        GlobalDataLogger.instance().addChannel("Strafe Distance", () -> "" + odometry.getStrafeDistance());
+        GlobalDataLogger.instance().addChannel("Forward Distance", odometry.getPublishedForward());
+        GlobalDataLogger.instance().addChannel("Strafe Distance", odometry.getPublishedStrafe());
         
         // GlobalDataLogger.instance().addChannel("Left Range", () -> String.format("%.4f", leftRange.getDistance()));
-        GlobalDataLogger.instance().addChannel("Center Range", () -> String.format("%.4f", centerRange.getDistance()));
+        GlobalDataLogger.instance().addChannel("Center Range", centerRange.getPublishedDistance());
         // GlobalDataLogger.instance().addChannel("Right Range", () -> String.format("%.4f", rightRange.getDistance()));
 
         
         // Reset encoders
+        Trace.begin("Robot: reset encoders");
         for (String name : Utils.allDeviceNames(hardwareMap.dcMotor))
         {
+            Trace.begin(name);
             DcMotor motor = hardwareMap.dcMotor.get(name);
             motor.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER);
             motor.setMode(DcMotor.RunMode.RUN_USING_ENCODER);
+            Trace.end();
+        }
+        hubCache.invalidate(); // The motors above aren't the cached ones
+        Trace.end();
+        
+    }
+    
+    /**
+     * Get the I/O thread for the hub a device is connected to
+     * @return The hub's executor, or null if the device isn't on either hub
+     */
+    public HubExecutor getHubExecutor(HardwareDevice device)
+    {
+        String info = device.getConnectionInfo();
+        for (HubExecutor io : new HubExecutor[] {leftIO, rightIO})
+        {
+            String hub = io.getModule().getConnectionInfo();
+            if (info.equals(hub) || info.startsWith(hub + ";")) return io;
         }
+        return null;
+    }
+    
+    /**
+     * Get a motor that reads through the hub cache and writes through the write buffer
+     */
+    private DcMotor getMotor(String name)
+    {
+        DcMotor motor = hubCache.wrap(hardwareMap.dcMotor.get(name));
+        if (motor instanceof CachedMotor) ((CachedMotor)motor).setWriteBuffer(writeBuffer);
+        return motor;
     }
 
     public static Robot initialize(HardwareMap hardwareMap, Config config)
@@ -221,9 +305,16 @@ public class Robot
     public void uninitialize()
     {
         // Stop all motors
+        // Also cancels the drivetrain's speed controller and motor ramps. Its zero powers go into
+        // the write buffer, so this has to come before the final flush.
+        if (drivetrain != null) drivetrain.close();
 
         // Stop external threads and close open files (if any) here
         if (imu != null) imu.stop();
+        if (hubTask != null) hubTask.cancel();
+        leftIO.stop();
+        rightIO.stop();
+        writeBuffer.flush();
     }
 
 ////////////////////////////////////////////////////////////////////////////////////////////////////
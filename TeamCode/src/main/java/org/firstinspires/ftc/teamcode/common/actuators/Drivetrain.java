@@ -5,6 +5,7 @@ import com.qualcomm.robotcore.hardware.DcMotorSimple;
 import com.qualcomm.robotcore.util.Range;
 
 import org.firstinspires.ftc.teamcode.common.Robot;
+import org.firstinspires.ftc.teamcode.common.motor_control.AccelMotor;
 import org.firstinspires.ftc.teamcode.common.motor_control.PIDMotor;
 import org.firstinspires.ftc.teamcode.common.sensors.AMSEncoder;
 import org.firstinspires.ftc.teamcode.common.sensors.IMU;
@@ -13,8 +14,16 @@ import org.firstinspires.ftc.teamcode.common.sensors.OdometryEncoder;
 import org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger;
 import org.firstinspires.ftc.teamcode.common.util.Logger;
 import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PeriodicTask;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedDouble;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.TaskScope;
+import org.firstinspires.ftc.teamcode.common.util.metrics.LoopTimer;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Metrics;
 
 import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The mecanum drivetrain
@@ -30,9 +39,12 @@ public class Drivetrain
     
     private volatile String state = "Idle";
     private volatile double angleOffset = 0;
+    private final PublishedDouble power = new PublishedDouble(0);
     
     private SpeedController controller;
     private boolean controllerEnabled;
+    private PeriodicTask controllerTask;
+    private final TaskScope scope;
     private boolean correctAngle;
     
     /**
@@ -63,15 +75,18 @@ public class Drivetrain
         GlobalDataLogger.instance().addChannel("Left Rear position", () -> Integer.toString(this.leftBack.getCurrentPosition()));
         GlobalDataLogger.instance().addChannel("Right Rear position", () -> Integer.toString(this.rightBack.getCurrentPosition()));
          */
-        GlobalDataLogger.instance().addChannel("Drivetrain Power", () ->
-        {
-            double power = Math.abs(this.leftFront.getPower()) + Math.abs(this.rightFront.getPower())
-                            + Math.abs(this.leftBack.getPower()) + Math.abs(this.rightBack.getPower());
-            return String.format("%.4f", power/4);
-        });
+        GlobalDataLogger.instance().addChannel("Drivetrain Power", power);
         
-        GlobalDataLogger.instance().addChannel("Drivetrain State", () -> state);
+        GlobalDataLogger.instance().addInternedChannel("Drivetrain State", () -> state);
         controller = new SpeedController(imu, odometry);
+        
+        // The speed controller and the motor ramps are cancelled together by close()
+        scope = GlobalThreadPool.instance().newScope("Drivetrain");
+        TaskScope ramps = scope.child("Ramps");
+        for (PIDMotor motor : new PIDMotor[] {leftFront, rightFront, leftBack, rightBack})
+        {
+            if (motor.getMotor() instanceof AccelMotor) ((AccelMotor)motor.getMotor()).setScope(ramps);
+        }
     }
     
     /**
@@ -191,10 +206,11 @@ public class Drivetrain
         {
             if (powers[i] != 0)
             {
-                motors[i].getMotor().setPower(powers[i] * Math.signum(distance));
+                motors[i].setMotorPower(powers[i] * Math.signum(distance));
             }
             Thread.sleep(6);
         }
+        power.set((Math.abs(powers[0]) + Math.abs(powers[1]) + Math.abs(powers[2]) + Math.abs(powers[3])) / 4);
     
         double angleOrig;
         if (imu != null)
@@ -238,10 +254,10 @@ public class Drivetrain
                 {
                     prevPowerOff = powerOffset;
                     log.d("Angle offset: %.2f (add %.3f power)", angleError, powerOffset);
-                    motors[0].getMotor().setPower(Math.abs(powers[0]) + powerOffset);
-                    motors[1].getMotor().setPower(Math.abs(powers[1]) - powerOffset);
-                    motors[2].getMotor().setPower(Math.abs(powers[2]) + powerOffset);
-                    motors[3].getMotor().setPower(Math.abs(powers[3]) - powerOffset);
+                    motors[0].setMotorPower(Math.abs(powers[0]) + powerOffset);
+                    motors[1].setMotorPower(Math.abs(powers[1]) - powerOffset);
+                    motors[2].setMotorPower(Math.abs(powers[2]) + powerOffset);
+                    motors[3].setMotorPower(Math.abs(powers[3]) - powerOffset);
                 }
 
                 angleOffset = angleError; // For logging
@@ -256,10 +272,11 @@ public class Drivetrain
 //                    motors[3].getCurrentPosition());
             Thread.sleep(10);
         }
-        motors[0].getMotor().setPower(0);
-        motors[1].getMotor().setPower(0);
-        motors[2].getMotor().setPower(0);
-        motors[3].getMotor().setPower(0);
+        motors[0].setMotorPower(0);
+        motors[1].setMotorPower(0);
+        motors[2].setMotorPower(0);
+        motors[3].setMotorPower(0);
+        power.set(0);
         angleOffset = 0;
         state = "Idle";
     }
@@ -268,6 +285,37 @@ public class Drivetrain
         drive(0, 0, 0);
     }
     
+    /**
+     * Stop the drivetrain and cancel everything it runs in the background: the asynchronous speed
+     * controller and any motor ramps in progress. The motors are stopped once a run of the speed
+     * controller that is in progress has finished. enableAsyncLoop() can be called again afterwards.
+     */
+    public void close()
+    {
+        PIDMotor[] motors = {leftFront, rightFront, leftBack, rightBack};
+        CountDownLatch stopped = new CountDownLatch(1);
+        if (controllerTask != null)
+        {
+            // A run in progress still writes its powers after cancel() returns
+            controllerTask.setOnCancel(stopped::countDown);
+            controllerTask = null;
+        }
+        else stopped.countDown();
+        scope.cancel();
+        controllerEnabled = false;
+        boolean interrupted = Thread.interrupted(); // Wait even if the OpMode is being stopped
+        try
+        {
+            stopped.await(100, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            interrupted = true;
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        for (PIDMotor motor : motors) motor.setMotorPower(0);
+    }
+    
     
     ////////////////////////////////////
     // Angle Correction
@@ -299,8 +347,11 @@ public class Drivetrain
         
         private final double efficiency = 0.9023; // How much slower the drivetrain strafes
         
-        private int updateCount;
-        private long lastLog;
+        private final LoopTimer loopTimer = Metrics.loop("SpeedController", 10);
+        
+        private final PublishedDouble targetAnglePub = new PublishedDouble();
+        private final PublishedDouble fwdTargetPub = new PublishedDouble();
+        private final PublishedDouble strafeTargetPub = new PublishedDouble();
         
         public SpeedController(IMU imu, Odometry odometry)
         {
@@ -316,9 +367,9 @@ public class Drivetrain
             this.odometry = odometry;
             acceleration = 1;
             
-            GlobalDataLogger.instance().addChannel("Target Angle", () -> "" + targetAngle);
-            GlobalDataLogger.instance().addChannel("Forward Target", () -> "" + fwdTarget);
-            GlobalDataLogger.instance().addChannel("Strafe Target", () -> "" + strafeTarget);
+            GlobalDataLogger.instance().addChannel("Target Angle", targetAnglePub);
+            GlobalDataLogger.instance().addChannel("Forward Target", fwdTargetPub);
+            GlobalDataLogger.instance().addChannel("Strafe Target", strafeTargetPub);
         }
         
         public synchronized void setAngle(double angle)
@@ -389,22 +440,24 @@ public class Drivetrain
             return new double[] {fwdOff, strafeOff};
         }
     
+        /**
+         * Prepare to be run periodically
+         */
+        public synchronized void reset()
+        {
+            lastTick = System.nanoTime();
+            loopTimer.reset();
+        }
+        
+        /**
+         * Run one iteration of the control loop; scheduled every 10 ms by enableAsyncLoop()
+         */
         @Override
         public void run()
         {
-            lastTick = System.nanoTime();
-            while (true)
-            {
-                loop();
-                try
-                {
-                    Thread.sleep(10);
-                } catch (InterruptedException e)
-                {
-                    log.d("Interrupted");
-                    break;
-                }
-            }
+            loopTimer.start();
+            loop();
+            loopTimer.end();
         }
         
         public synchronized void loop()
@@ -485,21 +538,18 @@ public class Drivetrain
                 prevStrafe = strafe;
                 prevTurn = turn;
             
-                leftFront.getMotor().setPower ( forward + strafe - turn);
-                rightBack.getMotor().setPower ( forward + strafe + turn);
-                rightFront.getMotor().setPower( forward - strafe + turn);
-                leftBack.getMotor().setPower  ( forward - strafe - turn);
+                leftFront.setMotorPower ( forward + strafe - turn);
+                rightBack.setMotorPower ( forward + strafe + turn);
+                rightFront.setMotorPower( forward - strafe + turn);
+                leftBack.setMotorPower  ( forward - strafe - turn);
+                power.set((Math.abs(forward + strafe - turn) + Math.abs(forward + strafe + turn)
+                        + Math.abs(forward - strafe + turn) + Math.abs(forward - strafe - turn)) / 4);
             }
             
-            /*
-            updateCount++;
-            if (System.currentTimeMillis() - lastLog > 1000)
-            {
-                log.d("FPS: %d", updateCount);
-                updateCount = 0;
-                lastLog = System.currentTimeMillis();
-            }
-             */
+            // Publish for the data logger so it doesn't have to ask the hardware
+            targetAnglePub.set(targetAngle);
+            fwdTargetPub.set(fwdTarget);
+            strafeTargetPub.set(strafeTarget);
         }
     
     }
@@ -522,7 +572,9 @@ public class Drivetrain
     public void enableAsyncLoop()
     {
         if (controllerEnabled) return;
-        GlobalThreadPool.instance().start(controller);
+        controller.reset();
+        // Coalesced with odometry, so each iteration runs right after a fresh position update
+        controllerTask = scope.scheduleAtFixedRate(Lane.CONTROL, "SpeedController", 10, true, controller);
         controllerEnabled = true;
     }
     
@@ -10,6 +10,8 @@ import org.firstinspires.ftc.teamcode.common.util.Config;
 import org.firstinspires.ftc.teamcode.common.util.DataStorage;
 import org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger;
 import org.firstinspires.ftc.teamcode.common.util.Logger;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedDouble;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedLong;
 
 import java.io.File;
 
@@ -21,6 +23,12 @@ public class Lift {
 
     private Logger log;
 
+    // Values published as the lift reads and writes the hardware, so logging doesn't add USB traffic
+    private final PublishedLong position = new PublishedLong();
+    private final PublishedLong target = new PublishedLong();
+    private final PublishedDouble power = new PublishedDouble(0);
+    private final PublishedLong limit = new PublishedLong();
+
     public Lift(PIDMotor slidemotor, Switch bottomswitch){
         this.slidemotor = slidemotor;
         this.bottomswitch = bottomswitch;
@@ -28,10 +36,10 @@ public class Lift {
         toplimit = topswitch.getInt("Highest Position", 0);
         slidemotor.getMotor().setZeroPowerBehavior(DcMotor.ZeroPowerBehavior.FLOAT);
     
-        GlobalDataLogger.instance().addChannel("Lift Position", () -> Integer.toString(this.slidemotor.getCurrentPosition()));
-        GlobalDataLogger.instance().addChannel("Lift Target", () -> Integer.toString(this.slidemotor.getTargetPosition()));
-        GlobalDataLogger.instance().addChannel("Lift Power", () -> Double.toString(this.slidemotor.getPower()));
-        GlobalDataLogger.instance().addChannel("Lift Limit State", () -> this.bottomswitch.pressed() ? "1" : "0");
+        GlobalDataLogger.instance().addChannel("Lift Position", position);
+        GlobalDataLogger.instance().addChannel("Lift Target", target);
+        GlobalDataLogger.instance().addChannel("Lift Power", power);
+        GlobalDataLogger.instance().addChannel("Lift Limit State", limit);
 
         slidemotor.setRunMode(DcMotor.RunMode.RUN_USING_ENCODER);
         
@@ -47,76 +55,101 @@ public class Lift {
     }
 
     public void raiseLift(double power, boolean fast_down){
-        if (power < 0 && !bottomswitch.pressed()) {
+        int pos = readPosition(); // Every cycle, so the logged position doesn't freeze
+        if (power < 0 && !readLimit()) {
             if (fast_down){
-                slidemotor.getMotor().setPower(0);
+                setMotorPower(0);
             }else{
-                slidemotor.getMotor().setPower(0.4 * power);
+                setMotorPower(0.4 * power);
             }
-        }else if (power > 0 && slidemotor.getCurrentPosition() <= toplimit){
-            slidemotor.getMotor().setPower(power);
+        }else if (power > 0 && pos <= toplimit){
+            setMotorPower(power);
         }else{
-            slidemotor.getMotor().setPower(0.2);
+            setMotorPower(0.2);
         }
     }
 
     public void raiseLift(double power, int direction){
-        if (direction < 0 && !bottomswitch.pressed()) {
+        int pos = readPosition(); // Every cycle, so the logged position doesn't freeze while holding
+        if (direction < 0 && !readLimit()) {
             if (slidemotor.isHolding()) {
                 slidemotor.stopHolding();
                 slidemotor.getMotor().setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
             }
-            slidemotor.getMotor().setPower(power);
-        } else if (direction > 0 && slidemotor.getCurrentPosition() <= toplimit){
+            setMotorPower(power);
+        } else if (direction > 0 && pos <= toplimit){
             if (slidemotor.isHolding()){
                 slidemotor.stopHolding();
             }
-            slidemotor.getMotor().setPower(power);
+            setMotorPower(power);
         } else {
             if (!slidemotor.isHolding()) {
-                slidemotor.getMotor().setPower(0.0001);
-                slidemotor.setPower(0.6);
-                if (bottomswitch.pressed())
-                {
-                    slidemotor.hold(slidemotor.getCurrentPosition());
-                }
-                else
-                {
-                    slidemotor.hold((int) (slidemotor.getCurrentPosition()));
-                }
+                setMotorPower(0.0001);
+                setHoldPower(0.6);
+                hold(pos);
             }
         }
     }
 
     public void raiseLiftEnc(double power, int dist) throws InterruptedException {
         slidemotor.setRunMode(DcMotor.RunMode.RUN_USING_ENCODER);
-        slidemotor.setPower(power);
-        slidemotor.runToPosition(slidemotor.getCurrentPosition() + dist, true);
+        setHoldPower(power);
+        int pos = readPosition() + dist;
+        target.set(pos);
+        slidemotor.runToPosition(pos, true);
     }
     
     public void raiseLiftAsync(double power, int dist)
     {
-        slidemotor.setPower(power);
-        slidemotor.hold(slidemotor.getCurrentPosition() + dist);
+        setHoldPower(power);
+        hold(readPosition() + dist);
     }
 
     public void resetLift() throws InterruptedException {
         slidemotor.setRunMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
-        while(!bottomswitch.pressed()){
-            slidemotor.setPower(0.1);
+        while(!readLimit()){
+            setHoldPower(0.1);
             Thread.sleep(100);
         }
         slidemotor.setRunMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER);
-        slidemotor.setPower(0);
+        setHoldPower(0);
     }
 
     public double getCurrentPos(){
-        return slidemotor.getCurrentPosition();
+        return readPosition();
     }
 
     public double getTopLimit(){
         return toplimit;
     }
 
+    private int readPosition(){
+        int pos = slidemotor.getCurrentPosition();
+        position.set(pos);
+        return pos;
+    }
+
+    private boolean readLimit(){
+        boolean pressed = bottomswitch.pressed();
+        limit.set(pressed ? 1 : 0);
+        return pressed;
+    }
+
+    private void setMotorPower(double power){
+        slidemotor.setMotorPower(power);
+        this.power.set(power);
+    }
+
+    // The power the PIDMotor uses when it holds or runs to a position
+    private void setHoldPower(double power){
+        slidemotor.setPower(power);
+        this.power.set(power);
+    }
+
+    private void hold(int pos){
+        slidemotor.hold(pos);
+        target.set(pos);
+    }
+
 
 }
@@ -0,0 +1,119 @@
+package org.firstinspires.ftc.teamcode.common.actuators;
+
+import com.qualcomm.robotcore.hardware.Servo;
+import com.qualcomm.robotcore.hardware.ServoController;
+
+import org.firstinspires.ftc.teamcode.common.util.metrics.BusMonitor;
+
+/**
+ * A servo whose position writes are measured by the {@link BusMonitor}. Everything else is passed
+ * straight to the wrapped servo.
+ */
+public class MonitoredServo implements Servo
+{
+    private final Servo servo;
+    private final BusMonitor.Probe write;
+
+    /**
+     * @param command The name of the writes, e.g. "Hook position write"
+     */
+    public MonitoredServo(Servo servo, String command)
+    {
+        this.servo = servo;
+        this.write = BusMonitor.probe(servo, command);
+    }
+
+    /**
+     * @return The servo from the hardware map that this one wraps
+     */
+    public Servo getServo()
+    {
+        return servo;
+    }
+
+    @Override
+    public void setPosition(double position)
+    {
+        long start = write.start();
+        try
+        {
+            servo.setPosition(position);
+        }
+        finally
+        {
+            write.end(start);
+        }
+    }
+
+    @Override
+    public double getPosition()
+    {
+        return servo.getPosition();
+    }
+
+    @Override
+    public ServoController getController()
+    {
+        return servo.getController();
+    }
+
+    @Override
+    public int getPortNumber()
+    {
+        return servo.getPortNumber();
+    }
+
+    @Override
+    public void setDirection(Direction direction)
+    {
+        servo.setDirection(direction);
+    }
+
+    @Override
+    public Direction getDirection()
+    {
+        return servo.getDirection();
+    }
+
+    @Override
+    public void scaleRange(double min, double max)
+    {
+        servo.scaleRange(min, max);
+    }
+
+    @Override
+    public Manufacturer getManufacturer()
+    {
+        return servo.getManufacturer();
+    }
+
+    @Override
+    public String getDeviceName()
+    {
+        return servo.getDeviceName();
+    }
+
+    @Override
+    public String getConnectionInfo()
+    {
+        return servo.getConnectionInfo();
+    }
+
+    @Override
+    public int getVersion()
+    {
+        return servo.getVersion();
+    }
+
+    @Override
+    public void resetDeviceConfigurationForOpMode()
+    {
+        servo.resetDeviceConfigurationForOpMode();
+    }
+
+    @Override
+    public void close()
+    {
+        servo.close();
+    }
+}
@@ -5,6 +5,7 @@ import com.qualcomm.robotcore.hardware.DcMotor;
 import com.qualcomm.robotcore.hardware.DigitalChannel;
 
 import org.firstinspires.ftc.teamcode.common.sensors.Switch;
+import org.firstinspires.ftc.teamcode.common.util.Trace;
 
 public class MotorArm {
     public DcMotor motorArm;
@@ -62,6 +63,7 @@ public class MotorArm {
     }
 
     public void resetArm(){
+        Trace.begin("MotorArm reset");
         while (!backLimit.pressed()){
             motorArm.setPower(-0.3);
             try {
@@ -73,5 +75,6 @@ public class MotorArm {
         motorArm.setPower(0);
         motorArm.setMode(DcMotor.RunMode.STOP_AND_RESET_ENCODER);
         motorArm.setMode(DcMotor.RunMode.RUN_WITHOUT_ENCODER);
+        Trace.end();
     }
 }
@@ -0,0 +1,327 @@
+package org.firstinspires.ftc.teamcode.common.actuators;
+
+import com.qualcomm.hardware.lynx.LynxModule;
+import com.qualcomm.hardware.lynx.LynxNackException;
+import com.qualcomm.hardware.lynx.commands.standard.LynxSetModuleLEDColorCommand;
+import com.qualcomm.robotcore.hardware.DcMotorController;
+import com.qualcomm.robotcore.hardware.HardwareMap;
+
+import org.firstinspires.ftc.robotcore.external.Telemetry;
+import org.firstinspires.ftc.teamcode.common.util.Logger;
+import org.firstinspires.ftc.teamcode.common.util.Utils;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PeriodicTask;
+import org.firstinspires.ftc.teamcode.common.util.metrics.BusMonitor;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Counter;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Metrics;
+
+import java.util.Arrays;
+
+/**
+ * Write-behind buffer for motor powers and the LED color on the Expansion Hubs. A write only
+ * records the value; {@link #flush()} sends the writes that change something, hub by hub, with the
+ * motors in port order and then the LED. A write that sets the value that was last sent, or that
+ * is replaced by another write before the flush, never goes out.
+ * <p>
+ * Motors write through the buffer once a
+ * {@link org.firstinspires.ftc.teamcode.common.motor_control.CachedMotor CachedMotor} has been
+ * given one with setWriteBuffer(). Changing a motor's run mode sends its pending power first and
+ * then forgets the last sent power, since the controller may change the power itself, e.g. when
+ * the encoder is reset.
+ * </p>
+ */
+public class WriteBuffer
+{
+    private static final int MOTORS = 4;
+    private static final int NO_COLOR = -1;
+
+    /**
+     * The buffered writes for one hub
+     */
+    public final class Hub
+    {
+        private final LynxModule module;
+        private final String name;
+        private final String connectionInfo;
+        private final Object flushLock = new Object(); // Keeps flushes in order; taken before this
+
+        // Guarded by this
+        private final DcMotorController[] controllers = new DcMotorController[MOTORS];
+        private final double[] power = new double[MOTORS];
+        private final double[] sentPower = new double[MOTORS];
+        private int dirtyMotors; // Bit per port
+        private int color = NO_COLOR, sentColor = NO_COLOR;
+
+        // Copies of the writes being sent; guarded by flushLock
+        private final DcMotorController[] sending = new DcMotorController[MOTORS];
+        private final double[] sendingPower = new double[MOTORS];
+
+        private final Counter requests;
+        private final Counter sent;
+        private final BusMonitor.Probe powerWrite, ledWrite;
+
+        private Hub(LynxModule module, String name)
+        {
+            this.module = module;
+            this.name = name;
+            this.connectionInfo = module.getConnectionInfo();
+            Arrays.fill(sentPower, Double.NaN);
+            requests = Metrics.counter(name + " write requests");
+            sent = Metrics.counter(name + " writes sent");
+            powerWrite = BusMonitor.probe(module, "WriteBuffer power write");
+            ledWrite = BusMonitor.probe(module, "WriteBuffer LED write");
+        }
+
+        /**
+         * Buffer a motor power. Sent on the next flush unless it is the power that was last sent.
+         * @param controller The motor's controller
+         * @param port       The motor's port
+         * @param power      The power as the controller takes it, i.e. already adjusted for the
+         *                   motor's direction
+         */
+        public synchronized void setMotorPower(DcMotorController controller, int port, double power)
+        {
+            requests.increment();
+            controllers[port] = controller;
+            this.power[port] = power;
+            if (power == sentPower[port]) dirtyMotors &= ~(1 << port);
+            else dirtyMotors |= 1 << port;
+        }
+
+        /**
+         * @return The power waiting to be sent to a motor, or NaN if there is none
+         */
+        public synchronized double getPendingPower(int port)
+        {
+            return (dirtyMotors & (1 << port)) != 0 ? power[port] : Double.NaN;
+        }
+
+        /**
+         * Send a motor's pending power now, and forget the power that was last sent so the next
+         * write goes out whatever its value. Call when the controller is about to change the power
+         * on its own, as it does when the run mode changes.
+         */
+        public void flushMotor(int port)
+        {
+            synchronized (flushLock)
+            {
+                DcMotorController controller;
+                double p;
+                synchronized (this)
+                {
+                    controller = controllers[port];
+                    p = power[port];
+                    boolean dirty = (dirtyMotors & (1 << port)) != 0;
+                    dirtyMotors &= ~(1 << port);
+                    sentPower[port] = Double.NaN;
+                    if (!dirty) return;
+                }
+                sendMotorPower(controller, port, p);
+            }
+        }
+
+        /**
+         * Buffer the LED color. Sent on the next flush unless it is the color that was last sent.
+         */
+        public synchronized void setLedColor(int red, int green, int blue)
+        {
+            requests.increment();
+            color = (red & 0xFF) << 16 | (green & 0xFF) << 8 | (blue & 0xFF);
+        }
+
+        /**
+         * Send this hub's pending writes
+         */
+        public void flush()
+        {
+            synchronized (flushLock)
+            {
+                int dirty;
+                int color;
+                synchronized (this)
+                {
+                    dirty = dirtyMotors;
+                    for (int port = 0; port < MOTORS; port++)
+                    {
+                        if ((dirty & (1 << port)) == 0) continue;
+                        sending[port] = controllers[port];
+                        sendingPower[port] = power[port];
+                        sentPower[port] = power[port];
+                    }
+                    dirtyMotors = 0;
+                    color = this.color != sentColor ? this.color : NO_COLOR;
+                    sentColor = this.color;
+                }
+
+                for (int port = 0; port < MOTORS; port++)
+                {
+                    if ((dirty & (1 << port)) == 0) continue;
+                    sendMotorPower(sending[port], port, sendingPower[port]);
+                }
+                if (color != NO_COLOR) sendLedColor(color);
+            }
+        }
+
+        private void sendMotorPower(DcMotorController controller, int port, double power)
+        {
+            long start = powerWrite.start();
+            try
+            {
+                controller.setMotorPower(port, power);
+            }
+            finally
+            {
+                powerWrite.end(start);
+            }
+            sent.increment();
+        }
+
+        private void sendLedColor(int color)
+        {
+            LynxSetModuleLEDColorCommand cmd = new LynxSetModuleLEDColorCommand(module,
+                    (byte)(color >> 16), (byte)(color >> 8), (byte)color);
+            long start = ledWrite.start();
+            try
+            {
+                cmd.send();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            catch (LynxNackException e)
+            {
+                log.w(e);
+            }
+            finally
+            {
+                ledWrite.end(start);
+            }
+            sent.increment();
+        }
+
+        public LynxModule getModule()
+        {
+            return module;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return The number of commands sent to the hub
+         */
+        public long getSent()
+        {
+            return sent.get();
+        }
+
+        /**
+         * @return The number of writes that did not need a command, because they did not change
+         *         anything or were replaced before being sent
+         */
+        public long getSuppressed()
+        {
+            long pending;
+            synchronized (this)
+            {
+                pending = Integer.bitCount(dirtyMotors) + (color != sentColor ? 1 : 0);
+            }
+            return requests.get() - sent.get() - pending;
+        }
+
+        private boolean owns(String info)
+        {
+            return info.startsWith(connectionInfo + ";") || info.equals(connectionInfo);
+        }
+    }
+
+    private final Hub[] hubs;
+    private PeriodicTask flushTask;
+    private Logger log = new Logger("WriteBuffer");
+
+    public WriteBuffer(HardwareMap hardwareMap, LynxModule... modules)
+    {
+        hubs = new Hub[modules.length];
+        for (int i = 0; i < modules.length; i++)
+        {
+            hubs[i] = new Hub(modules[i], Utils.lookupConfigName(modules[i], hardwareMap));
+        }
+    }
+
+    /**
+     * Send the pending writes for every hub, in the order the hubs were given
+     */
+    public void flush()
+    {
+        for (Hub hub : hubs) hub.flush();
+    }
+
+    /**
+     * Flush every hub once per control cycle on the {@link Lane#CONTROL} lane. Start this after
+     * the control loops that write to the buffer, so that it runs last in each cycle.
+     * @param periodMillis The control cycle period
+     */
+    public synchronized void startFlushing(int periodMillis)
+    {
+        if (flushTask != null) return;
+        flushTask = GlobalThreadPool.instance().scheduleAtFixedRate(Lane.CONTROL, "WriteBuffer",
+                periodMillis, true, this::flush);
+    }
+
+    /**
+     * Stop the periodic flush and send whatever is still pending
+     */
+    public synchronized void stopFlushing()
+    {
+        if (flushTask != null)
+        {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        flush();
+    }
+
+    public Hub[] getHubs()
+    {
+        return hubs.clone();
+    }
+
+    /**
+     * Find the hub a device is connected to
+     * @param connectionInfo The device's connection info
+     * @return The hub, or null if the device isn't on one of the buffered hubs
+     */
+    public Hub getHub(String connectionInfo)
+    {
+        for (Hub hub : hubs)
+        {
+            if (hub.owns(connectionInfo)) return hub;
+        }
+        return null;
+    }
+
+    /**
+     * @return The buffer for a hub, or null if the hub isn't one of the buffered ones
+     */
+    public Hub getHub(LynxModule module)
+    {
+        for (Hub hub : hubs)
+        {
+            if (hub.module == module) return hub;
+        }
+        return null;
+    }
+
+    public void addTelemetry(Telemetry telemetry)
+    {
+        for (Hub hub : hubs)
+        {
+            telemetry.addData(hub.name, "%d commands sent, %d suppressed",
+                    hub.getSent(), hub.getSuppressed());
+        }
+    }
+}
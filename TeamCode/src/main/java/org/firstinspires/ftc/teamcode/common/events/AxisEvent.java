@@ -2,6 +2,8 @@ package org.firstinspires.ftc.teamcode.common.events;
 
 public class AxisEvent extends GamepadEvent
 {
+    private static final EventPool<AxisEvent> pool = new EventPool<>(32, AxisEvent::new);
+    
     public static final int left_stick_x  = 0,
                             left_stick_y  = 1,
                             right_stick_x = 2,
@@ -11,9 +13,9 @@ public class AxisEvent extends GamepadEvent
                             dpad_x        = 6,
                             dpad_y        = 7;
     
-    public final int axis;
-    public final double value;
-    public final String mapping;
+    public int axis;
+    public double value;
+    public String mapping;
     
     public AxisEvent(int gamepad, int axis, double value, String map)
     {
@@ -22,4 +24,23 @@ public class AxisEvent extends GamepadEvent
         this.value = value;
         this.mapping = map;
     }
+    
+    private AxisEvent()
+    {
+        super("AxisEvent", 0);
+    }
+    
+    /**
+     * Get a reused event from a pool. It goes back to the pool once the {@link EventBus} has
+     * delivered it, so listeners must not keep it.
+     */
+    public static AxisEvent obtain(int gamepad, int axis, double value, String map)
+    {
+        AxisEvent ev = pool.obtain();
+        ev.gamepad = gamepad;
+        ev.axis = axis;
+        ev.value = value;
+        ev.mapping = map;
+        return ev;
+    }
 }
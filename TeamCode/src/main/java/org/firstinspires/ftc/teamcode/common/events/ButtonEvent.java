@@ -2,6 +2,8 @@ package org.firstinspires.ftc.teamcode.common.events;
 
 public class ButtonEvent extends GamepadEvent
 {
+    private static final EventPool<ButtonEvent> pool = new EventPool<>(32, ButtonEvent::new);
+    
     /**
      * Valid button ID for this event
      */
@@ -21,13 +23,13 @@ public class ButtonEvent extends GamepadEvent
     /**
      * Button ID
      */
-    public final int button;
+    public int button;
     /**
      * Button state (true = pressed)
      */
-    public final boolean state;
+    public boolean state;
     
-    public final String mapping;
+    public String mapping;
     
     public ButtonEvent(int gamepad, int button, boolean state, String mapping)
     {
@@ -36,4 +38,23 @@ public class ButtonEvent extends GamepadEvent
         this.state = state;
         this.mapping = mapping;
     }
+    
+    private ButtonEvent()
+    {
+        super("ButtonEvent", 0);
+    }
+    
+    /**
+     * Get a reused event from a pool. It goes back to the pool once the {@link EventBus} has
+     * delivered it, so listeners must not keep it.
+     */
+    public static ButtonEvent obtain(int gamepad, int button, boolean state, String mapping)
+    {
+        ButtonEvent ev = pool.obtain();
+        ev.gamepad = gamepad;
+        ev.button = button;
+        ev.state = state;
+        ev.mapping = mapping;
+        return ev;
+    }
 }
@@ -4,8 +4,27 @@ public abstract class Event
 {
     public final String name;
     
+    // Set while the event is out of its pool
+    private EventPool<?> pool;
+    
     public Event(String name)
     {
         this.name = name;
     }
+    
+    void setPool(EventPool<?> pool)
+    {
+        this.pool = pool;
+    }
+    
+    /**
+     * Return the event to the pool it came from, if any, once every listener has seen it
+     */
+    void release()
+    {
+        EventPool<?> pool = this.pool;
+        if (pool == null) return;
+        this.pool = null;
+        pool.recycle(this);
+    }
 }
@@ -2,68 +2,250 @@ package org.firstinspires.ftc.teamcode.common.events;
 
 import org.firstinspires.ftc.teamcode.common.events.handler.EventHandler;
 import org.firstinspires.ftc.teamcode.common.events.listener.EventListener;
+import org.firstinspires.ftc.teamcode.common.util.Logger;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.MpmcRing;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.OverflowPolicy;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.TaskHandle;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Collects events from handlers and delivers each one to the listeners for its exact class.
+ * <p>
+ * Listeners are kept in a table from event class to an array of listeners, which is copied when a
+ * listener subscribes or unsubscribes, so delivering an event is one lookup and does not allocate.
+ * Handlers add their events to a buffer that is reused on every loop, and events from an
+ * {@link EventPool} go back to their pool once they have been delivered.
+ * </p>
+ * <p>
+ * By default, {@link #loop()} delivers events on the calling thread. After {@link #startAsync(int)},
+ * loop() only collects events and hands them to a thread on the {@link Lane#EVENT} lane, which
+ * delivers them in order; listeners then run on that thread.
+ * </p>
+ */
 public class EventBus
 {
-    private List<EventHandler> eventHandlers;
-    private List<EventListener> subscribers;
-    
+    private static final EventListener[] NO_LISTENERS = new EventListener[0];
+
+    private static final class Slot
+    {
+        Event event;
+    }
+
+    private volatile EventHandler[] eventHandlers = new EventHandler[0];
+    private final Map<Class<?>, EventListener[]> subscribers = new ConcurrentHashMap<>();
+    private final List<Event> buffer = new ArrayList<>();
+    private Logger log = new Logger("EventBus");
+
+    // Async mode
+    private volatile MpmcRing<Slot> ring;
+    private volatile boolean asyncRunning;
+    private volatile Thread dispatcher;
+    private TaskHandle<?> dispatchTask;
+
     public EventBus()
     {
-        eventHandlers = new ArrayList<>();
-        subscribers = new ArrayList<>();
     }
-    
-    public void addEventHandler(EventHandler handler)
+
+    public synchronized void addEventHandler(EventHandler handler)
     {
-        eventHandlers.add(handler);
+        EventHandler[] handlers = Arrays.copyOf(eventHandlers, eventHandlers.length + 1);
+        handlers[handlers.length - 1] = handler;
+        eventHandlers = handlers;
     }
-    
-    public void removeEventHandler(EventHandler handler)
+
+    public synchronized void removeEventHandler(EventHandler handler)
     {
-        eventHandlers.remove(handler);
+        eventHandlers = without(eventHandlers, handler);
     }
-    
-    public void subscribe(EventListener subscriber)
+
+    public synchronized void subscribe(EventListener subscriber)
     {
-        subscribers.add(subscriber);
+        EventListener[] listeners = subscribers.get(subscriber.getEventType());
+        if (listeners == null) listeners = NO_LISTENERS;
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = subscriber;
+        subscribers.put(subscriber.getEventType(), listeners);
     }
-    
-    public void unsubscribe(EventListener subscriber)
+
+    public synchronized void unsubscribe(EventListener subscriber)
     {
-        subscribers.remove(subscriber);
+        EventListener[] listeners = subscribers.get(subscriber.getEventType());
+        if (listeners == null) return;
+        listeners = without(listeners, subscriber);
+        if (listeners.length == 0) subscribers.remove(subscriber.getEventType());
+        else subscribers.put(subscriber.getEventType(), listeners);
     }
-    
+
+    private static <T> T[] without(T[] array, T item)
+    {
+        for (int i = 0; i < array.length; i++)
+        {
+            if (array[i] == item)
+            {
+                T[] copy = Arrays.copyOf(array, array.length - 1);
+                System.arraycopy(array, i + 1, copy, i, array.length - i - 1);
+                return copy;
+            }
+        }
+        return array;
+    }
+
+    /**
+     * Collect the events from every handler
+     * @return The events. The list is reused by the next call.
+     */
+    @SuppressWarnings("unchecked")
     public List<Event> processEvents()
     {
-        List<Event> currentEvents = new ArrayList<>();
+        buffer.clear();
         for (EventHandler handler : eventHandlers)
         {
-            currentEvents.addAll(handler.processEvents());
+            handler.processEvents(buffer);
         }
-        return currentEvents;
+        return buffer;
     }
-    
+
+    /**
+     * Deliver events to their listeners on the calling thread
+     */
     public void pushEvents(List<Event> events)
     {
-        for (Event ev : events)
+        for (int i = 0; i < events.size(); i++)
+        {
+            dispatch(events.get(i));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dispatch(Event ev)
+    {
+        try
         {
-            for (EventListener l : subscribers)
+            EventListener[] listeners = subscribers.get(ev.getClass());
+            if (listeners != null)
             {
-                if (ev.getClass() == l.getEventType())
+                for (EventListener l : listeners)
                 {
                     l.processEvent(ev);
                 }
             }
         }
+        finally
+        {
+            ev.release(); // Back to its pool even if a listener threw
+        }
     }
-    
+
     public void loop()
     {
-        pushEvents(processEvents());
+        List<Event> events = processEvents();
+        MpmcRing<Slot> ring = this.ring;
+        if (ring == null)
+        {
+            pushEvents(events);
+            return;
+        }
+        for (int i = 0; i < events.size(); i++)
+        {
+            long pos = ring.claim();
+            if (pos < 0)
+            {
+                events.get(i).release();
+                continue;
+            }
+            ring.get(pos).event = events.get(i);
+            ring.publish(pos);
+        }
+        if (!events.isEmpty()) LockSupport.unpark(dispatcher);
+    }
+
+    /**
+     * Deliver events on a thread on the {@link Lane#EVENT} lane from now until {@link #stopAsync()}
+     * @param capacity The maximum number of events waiting to be delivered. When it is full, new
+     *                 events are dropped.
+     */
+    public synchronized void startAsync(int capacity)
+    {
+        if (ring != null) return;
+        MpmcRing<Slot> ring = new MpmcRing<>(capacity, OverflowPolicy.DROP_NEWEST, Slot::new);
+        asyncRunning = true;
+        dispatchTask = GlobalThreadPool.instance().start(Lane.EVENT, "EventBus", () -> dispatchLoop(ring));
+        if (dispatchTask == null)
+        {
+            asyncRunning = false;
+            log.w("Unable to start the dispatch thread; delivering events synchronously");
+            return;
+        }
+        this.ring = ring;
+    }
+
+    /**
+     * Deliver the events that are waiting and go back to delivering events on the thread that
+     * calls {@link #loop()}
+     */
+    public synchronized void stopAsync()
+    {
+        if (ring == null) return;
+        ring = null;
+        asyncRunning = false;
+        LockSupport.unpark(dispatcher);
+        try
+        {
+            dispatchTask.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception e)
+        {
+            log.e(e);
+        }
+        dispatchTask = null;
+        dispatcher = null;
+    }
+
+    /**
+     * @return The number of events dropped because the async ring was full
+     */
+    public long getDroppedEvents()
+    {
+        MpmcRing<Slot> ring = this.ring;
+        return ring == null ? 0 : ring.getDropped();
+    }
+
+    private void dispatchLoop(MpmcRing<Slot> ring)
+    {
+        dispatcher = Thread.currentThread();
+        while (true)
+        {
+            boolean running = asyncRunning && !Thread.currentThread().isInterrupted();
+            for (long pos = ring.poll(); pos >= 0; pos = ring.poll())
+            {
+                Slot slot = ring.get(pos);
+                Event ev = slot.event;
+                slot.event = null;
+                ring.release(pos);
+                try
+                {
+                    dispatch(ev);
+                }
+                catch (RuntimeException e)
+                {
+                    log.e("Listener failed on %s", ev.name);
+                    log.e(e);
+                }
+            }
+            if (!running) break; // Drained after being stopped
+            LockSupport.parkNanos(10000000);
+        }
     }
 }
@@ -0,0 +1,52 @@
+package org.firstinspires.ftc.teamcode.common.events;
+
+import java.util.function.Supplier;
+
+/**
+ * Reusable events for handlers that produce events on every loop. An event taken from a pool is
+ * returned to it by the {@link EventBus} once every listener has seen it, so listeners must not
+ * keep pooled events; they should copy out anything they need later. Thread-safe.
+ * @param <T> The event type
+ */
+public final class EventPool<T extends Event>
+{
+    private final Supplier<T> factory;
+    private final Event[] free;
+    private int size;
+    
+    /**
+     * Create a pool
+     * @param capacity The most events to keep for reuse; more are created if needed
+     * @param factory  Creates events when the pool is empty
+     */
+    public EventPool(int capacity, Supplier<T> factory)
+    {
+        this.factory = factory;
+        this.free = new Event[capacity];
+    }
+    
+    /**
+     * @return An event to fill in and hand to the bus
+     */
+    @SuppressWarnings("unchecked")
+    public T obtain()
+    {
+        T ev = null;
+        synchronized (this)
+        {
+            if (size > 0)
+            {
+                ev = (T)free[--size];
+                free[size] = null;
+            }
+        }
+        if (ev == null) ev = factory.get();
+        ev.setPool(this);
+        return ev;
+    }
+    
+    synchronized void recycle(Event ev)
+    {
+        if (size < free.length) free[size++] = ev;
+    }
+}
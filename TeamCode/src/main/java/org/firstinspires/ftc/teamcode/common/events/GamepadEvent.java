@@ -2,7 +2,7 @@ package org.firstinspires.ftc.teamcode.common.events;
 
 public abstract class GamepadEvent extends Event
 {
-    public final int gamepad;
+    public int gamepad; // Not final so pooled events can be reused
     
     public GamepadEvent(String name, int gamepad)
     {
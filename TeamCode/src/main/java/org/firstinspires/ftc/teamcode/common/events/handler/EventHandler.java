@@ -7,4 +7,16 @@ import java.util.List;
 public interface EventHandler<T extends Event>
 {
     public List<T> processEvents();
+    
+    /**
+     * Add the events that happened since the last call to a buffer. The {@link
+     * org.firstinspires.ftc.teamcode.common.events.EventBus EventBus} calls this on every loop;
+     * handlers should override it to add their events without creating a list.
+     * @param events The buffer
+     */
+    default void processEvents(List<? super T> events)
+    {
+        List<T> list = processEvents();
+        for (int i = 0; i < list.size(); i++) events.add(list.get(i));
+    }
 }
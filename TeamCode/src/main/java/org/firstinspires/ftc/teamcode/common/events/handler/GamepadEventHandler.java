@@ -12,105 +12,212 @@ import org.firstinspires.ftc.teamcode.common.util.Logger;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Produces a {@link ButtonEvent} when a button is pressed or released and an {@link AxisEvent} when
+ * a stick, trigger or the D-pad moves. The buttons and the D-pad of each gamepad are packed into an
+ * int, so the changed buttons are found with one XOR; the sticks and triggers are kept in reused
+ * arrays. Stick noise can be filtered out with {@link #setAxisFilter(double, double)}.
+ * <p>
+ * When the {@link org.firstinspires.ftc.teamcode.common.events.EventBus EventBus} collects events,
+ * they come from pools after {@link #setPooled(boolean) setPooled(true)}, so nothing is allocated
+ * on a loop. Listeners must then not keep the events.
+ * </p>
+ */
 public class GamepadEventHandler implements EventHandler<GamepadEvent>
 {
-    private Gamepad gamepad1, gamepad2;
+    private static final int BUTTONS = 11;
+    private static final int ANALOG_AXES = 6;
+    // D-pad bits, above the buttons
+    private static final int DPAD_LEFT = 1 << BUTTONS, DPAD_RIGHT = 1 << (BUTTONS + 1),
+            DPAD_UP = 1 << (BUTTONS + 2), DPAD_DOWN = 1 << (BUTTONS + 3);
+    private static final int BUTTON_MASK = (1 << BUTTONS) - 1;
+    
+    private final Gamepad[] gamepads;
     private GamepadMapping mapping;
-    private double[] prev_gp1;
-    private double[] prev_gp2;
+    private final int[] prevButtons = new int[2];
+    private final float[][] prevAxes = new float[2][ANALOG_AXES];
+    private final float[] axes = new float[ANALOG_AXES];
+    private boolean pooled;
+    private float deadband;
+    private float quantum;
+    
+    // Actions looked up from the mapping, refreshed when it changes
+    private final String[][] buttonActions = new String[2][BUTTONS];
+    private final String[][] axisActions = new String[2][ANALOG_AXES + 2];
+    private int mappingVersion = -1;
     
     
     public GamepadEventHandler(Gamepad gamepad1, Gamepad gamepad2, GamepadMapping mapping)
     {
-        this.gamepad1 = gamepad1;
-        this.gamepad2 = gamepad2;
+        this.gamepads = new Gamepad[] {gamepad1, gamepad2};
         this.mapping = mapping;
-        prev_gp1 = new double[19];
-        prev_gp2 = new double[19];
     }
     
-    private double[] parseGamepad(Gamepad g)
+    /**
+     * Take events from pools instead of creating them, when the events are collected by an
+     * EventBus. The events are reused once they are delivered, so listeners must copy out anything
+     * they need later.
+     * @param pooled Whether to use pooled events
+     * @return This handler
+     */
+    public GamepadEventHandler setPooled(boolean pooled)
     {
-        double[] padinfo = new double[19];
-        // Buttons--we have infinite memory
-        if (g.a)                  padinfo[0] = 1;
-        if (g.b)                  padinfo[1] = 1;
-        if (g.x)                  padinfo[2] = 1;
-        if (g.y)                  padinfo[3] = 1;
-        if (g.guide)              padinfo[4] = 1;
-        if (g.start)              padinfo[5] = 1;
-        if (g.back)               padinfo[6] = 1;
-        if (g.left_bumper)        padinfo[7] = 1;
-        if (g.right_bumper)       padinfo[8] = 1;
-        if (g.left_stick_button)  padinfo[9] = 1;
-        if (g.right_stick_button) padinfo[10] = 1;
-        // Joysticks
-        padinfo[11] = g.left_stick_x;
-        padinfo[12] = g.left_stick_y;
-        padinfo[13] = g.right_stick_x;
-        padinfo[14] = g.right_stick_y;
-        padinfo[15] = g.left_trigger;
-        padinfo[16] = g.right_trigger;
-        // D-Pad
-        if (g.dpad_left)       padinfo[17] = -1;
-        else if (g.dpad_right) padinfo[17] = 1;
-        if (g.dpad_up)         padinfo[18] = 1;
-        else if (g.dpad_down)  padinfo[18] = -1;
-        
-        return padinfo;
+        this.pooled = pooled;
+        return this;
+    }
+    
+    /**
+     * Filter the sticks and triggers, so noise doesn't produce an event on every loop
+     * @param deadband Values closer to 0 than this are reported as 0
+     * @param quantum  Values are rounded to a multiple of this; 0 to not round
+     * @return This handler
+     */
+    public GamepadEventHandler setAxisFilter(double deadband, double quantum)
+    {
+        this.deadband = (float)Math.abs(deadband);
+        this.quantum = (float)Math.abs(quantum);
+        return this;
+    }
+    
+    private static int packButtons(Gamepad g)
+    {
+        int bits = 0;
+        if (g.a)                  bits |= 1 << ButtonEvent.a;
+        if (g.b)                  bits |= 1 << ButtonEvent.b;
+        if (g.x)                  bits |= 1 << ButtonEvent.x;
+        if (g.y)                  bits |= 1 << ButtonEvent.y;
+        if (g.guide)              bits |= 1 << ButtonEvent.guide;
+        if (g.start)              bits |= 1 << ButtonEvent.start;
+        if (g.back)               bits |= 1 << ButtonEvent.back;
+        if (g.left_bumper)        bits |= 1 << ButtonEvent.left_bumper;
+        if (g.right_bumper)       bits |= 1 << ButtonEvent.right_bumper;
+        if (g.left_stick_button)  bits |= 1 << ButtonEvent.left_stick_button;
+        if (g.right_stick_button) bits |= 1 << ButtonEvent.right_stick_button;
+        if (g.dpad_left)          bits |= DPAD_LEFT;
+        if (g.dpad_right)         bits |= DPAD_RIGHT;
+        if (g.dpad_up)            bits |= DPAD_UP;
+        if (g.dpad_down)          bits |= DPAD_DOWN;
+        return bits;
+    }
+    
+    private static int dpadX(int bits)
+    {
+        if ((bits & DPAD_LEFT) != 0) return -1;
+        return (bits & DPAD_RIGHT) != 0 ? 1 : 0;
+    }
+    
+    private static int dpadY(int bits)
+    {
+        if ((bits & DPAD_UP) != 0) return 1;
+        return (bits & DPAD_DOWN) != 0 ? -1 : 0;
+    }
+    
+    private void readAxes(Gamepad g)
+    {
+        axes[AxisEvent.left_stick_x]  = g.left_stick_x;
+        axes[AxisEvent.left_stick_y]  = g.left_stick_y;
+        axes[AxisEvent.right_stick_x] = g.right_stick_x;
+        axes[AxisEvent.right_stick_y] = g.right_stick_y;
+        axes[AxisEvent.left_trigger]  = g.left_trigger;
+        axes[AxisEvent.right_trigger] = g.right_trigger;
+        for (int i = 0; i < ANALOG_AXES; i++)
+        {
+            float v = axes[i];
+            if (Math.abs(v) < deadband) v = 0;
+            else if (quantum > 0) v = Math.round(v / quantum) * quantum;
+            axes[i] = v;
+        }
+    }
+    
+    private void updateActions()
+    {
+        if (mapping == null || mapping.version == mappingVersion) return;
+        mappingVersion = mapping.version;
+        for (int gp = 0; gp < 2; gp++)
+        {
+            for (int i = 0; i < BUTTONS; i++)
+            {
+                buttonActions[gp][i] = mapping.getButtonAction(mapping.getButtonId(gp + 1, i));
+            }
+            for (int i = 0; i < ANALOG_AXES + 2; i++)
+            {
+                axisActions[gp][i] = mapping.getAxisAction(mapping.getAxisId(gp + 1, i));
+            }
+        }
+    }
+    
+    private ButtonEvent buttonEvent(int gamepad, int button, boolean state, boolean pooled)
+    {
+        String map = buttonActions[gamepad - 1][button];
+        return pooled ? ButtonEvent.obtain(gamepad, button, state, map) : new ButtonEvent(gamepad, button, state, map);
+    }
+    
+    private AxisEvent axisEvent(int gamepad, int axis, double value, boolean pooled)
+    {
+        String map = axisActions[gamepad - 1][axis];
+        return pooled ? AxisEvent.obtain(gamepad, axis, value, map) : new AxisEvent(gamepad, axis, value, map);
     }
     
     @Override
     public List<GamepadEvent> processEvents()
     {
         List<GamepadEvent> currentEvents = new ArrayList<>();
-        
-        double[] gp1 = parseGamepad(gamepad1);
-        double[] gp2 = parseGamepad(gamepad2);
-        for (int i = 0; i < 11; i++)
+        collect(currentEvents, false);
+        return currentEvents;
+    }
+    
+    @Override
+    public void processEvents(List<? super GamepadEvent> events)
+    {
+        collect(events, pooled);
+    }
+    
+    private void collect(List<? super GamepadEvent> events, boolean pooled)
+    {
+        updateActions();
+        for (int gp = 0; gp < 2; gp++)
         {
-            if (prev_gp1[i] != gp1[i])
+            Gamepad g = gamepads[gp];
+            if (g == null) continue;
+            int gamepad = gp + 1;
+            
+            int buttons = packButtons(g);
+            int changed = buttons ^ prevButtons[gp];
+            prevButtons[gp] = buttons;
+            for (int bits = changed & BUTTON_MASK; bits != 0; bits &= bits - 1)
             {
-                prev_gp1[i] = gp1[i];
-                String map = mapping.getButtonAction(mapping.getButtonId(1, i));
-                boolean state = (gp1[i] == 1);
-                currentEvents.add(new ButtonEvent(1, i, state, map));
+                int button = Integer.numberOfTrailingZeros(bits);
+                events.add(buttonEvent(gamepad, button, (buttons & (1 << button)) != 0, pooled));
             }
             
-            if (prev_gp2[i] != gp2[i])
+            readAxes(g);
+            float[] prev = prevAxes[gp];
+            for (int i = 0; i < ANALOG_AXES; i++)
             {
-                prev_gp2[i] = gp2[i];
-                String map = mapping.getButtonAction(mapping.getButtonId(2, i));
-                boolean state = (gp2[i] == 1);
-                currentEvents.add(new ButtonEvent(2, i, state, map));
+                if (axes[i] != prev[i])
+                {
+                    prev[i] = axes[i];
+                    events.add(axisEvent(gamepad, i, axes[i], pooled));
+                }
             }
-        }
-        
-        for (int i = 11; i < 19; i++)
-        {
-            int ax = i - 11;
-            if (prev_gp1[i] != gp1[i])
+            if ((changed & (DPAD_LEFT | DPAD_RIGHT)) != 0)
             {
-                prev_gp1[i] = gp1[i];
-                String map = mapping.getAxisAction(mapping.getAxisId(1, ax));
-                currentEvents.add(new AxisEvent(1, ax, gp1[i], map));
+                int x = dpadX(buttons);
+                if (x != dpadX(buttons ^ changed)) events.add(axisEvent(gamepad, AxisEvent.dpad_x, x, pooled));
             }
-    
-            if (prev_gp2[i] != gp2[i])
+            if ((changed & (DPAD_UP | DPAD_DOWN)) != 0)
             {
-                prev_gp2[i] = gp2[i];
-                String map = mapping.getAxisAction(mapping.getAxisId(2, ax));
-                currentEvents.add(new AxisEvent(2, ax, gp2[i], map));
+                int y = dpadY(buttons);
+                if (y != dpadY(buttons ^ changed)) events.add(axisEvent(gamepad, AxisEvent.dpad_y, y, pooled));
             }
         }
-        
-        return currentEvents;
     }
     
     public static class GamepadMapping
     {
         private SparseArray<String> buttonMapping;
         private SparseArray<String> axisMapping;
+        private volatile int version; // Changes on every mapping, so handlers can cache the actions
         private Logger log = new Logger("GamepadMapping");
         
         public GamepadMapping()
@@ -141,6 +248,7 @@ public class GamepadEventHandler implements EventHandler<GamepadEvent>
                 log.d("Remapping button %d to '%s' (was '%s')", button, action, buttonMapping.get(button));
             }
             buttonMapping.put(button, action);
+            version++;
         }
         
         public void mapAxis(int gamepad, int axis, String action)
@@ -155,6 +263,7 @@ public class GamepadEventHandler implements EventHandler<GamepadEvent>
                 log.d("Remapping axis %d to '%s' (was '%s')", axis, action, axisMapping.get(axis));
             }
             axisMapping.put(axis, action);
+            version++;
         }
         
         public String getButtonAction(int button)
@@ -1,74 +1,199 @@
 package org.firstinspires.ftc.teamcode.common.events.handler;
 
 import org.firstinspires.ftc.teamcode.common.events.Event;
+import org.firstinspires.ftc.teamcode.common.events.EventPool;
+import org.firstinspires.ftc.teamcode.common.util.Scheduler;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Produces a {@link TimerEvent} each time a timer expires. Timers are kept in a {@link Scheduler}
+ * timing wheel, so adding and cancelling one is O(1) and checking them costs the same however many
+ * are waiting. Register the handler with an {@link org.firstinspires.ftc.teamcode.common.events.EventBus
+ * EventBus}; timers expire during the bus's loop(), with a resolution of 1 ms.
+ * <pre><code>
+ *     timers = new TimeEventHandler();
+ *     eventBus.addEventHandler(timers);
+ *     eventBus.subscribe((TimeEventListener) ev -> { if (ev.getAction().equals("blink")) led.toggle(); });
+ *     blink = timers.addTimer("blink", 0.25, true);
+ *     ...
+ *     blink.cancel();
+ * </code></pre>
+ * Timers can be added and cancelled from any thread.
+ */
 public class TimeEventHandler implements EventHandler<TimeEventHandler.TimerEvent>
 {
-    private class Timer
+    /**
+     * A timer that was added to the handler
+     */
+    public final class Timer
     {
-        long nanos;
-        long end;
-        boolean repeat;
-        boolean dead;
-        int id;
-        
-        Timer(long nanos, boolean repeat)
+        private final int id;
+        private final String action;
+        private final boolean repeat;
+        private Scheduler.TaskCallback callback;
+        private int count;
+
+        private Timer(int id, String action, boolean repeat)
         {
-            id = new Random().nextInt();
-            dead = false;
-            this.nanos = nanos;
-            this.end = System.nanoTime() + nanos;
+            this.id = id;
+            this.action = action;
             this.repeat = repeat;
         }
-        
-        boolean check()
+
+        private void expire()
         {
-            if (System.nanoTime() > end && !dead)
-            {
-                if (repeat)
-                {
-                    end = System.nanoTime() + nanos;
-                }
-                else
-                {
-                    dead = true;
-                }
-                return true;
-            }
-            return false;
+            count++;
+            TimerEvent ev = pool.obtain();
+            ev.set(this);
+            events.add(ev);
+        }
+
+        public int getId()
+        {
+            return id;
+        }
+
+        public String getAction()
+        {
+            return action;
+        }
+
+        public boolean isRepeating()
+        {
+            return repeat;
+        }
+
+        /**
+         * Stop the timer. Events from this timer that have already been produced are still delivered.
+         * @return Whether the timer was still going to expire
+         */
+        public boolean cancel()
+        {
+            return callback.cancel();
+        }
+
+        /**
+         * @return Whether the timer is going to expire (again)
+         */
+        public boolean isPending()
+        {
+            return callback.isPending();
         }
     }
-    
-    public class TimerEvent extends Event
+
+    /**
+     * The event for a timer expiring. Events come from an {@link EventPool}: an event is only valid
+     * while it is being delivered, so listeners should copy out anything they need later.
+     */
+    public static class TimerEvent extends Event
     {
-        public final int id;
-        
-        public TimerEvent(int id)
+        private Timer timer;
+        private int count;
+
+        private TimerEvent()
         {
             super("TimerEvent");
-            this.id = id;
+        }
+
+        private void set(Timer timer)
+        {
+            this.timer = timer;
+            this.count = timer.count;
+        }
+
+        /**
+         * @return The id of the timer, from {@link Timer#getId()}
+         */
+        public int getId()
+        {
+            return timer.id;
+        }
+
+        /**
+         * @return The action the timer was added with, or null
+         */
+        public String getAction()
+        {
+            return timer.action;
+        }
+
+        /**
+         * @return The number of times the timer has expired, counting this one; for a repeating
+         *         timer, i.e. odd for the "on" half of a blink pattern
+         */
+        public int getCount()
+        {
+            return count;
+        }
+
+        public Timer getTimer()
+        {
+            return timer;
         }
     }
-    
-    private List<Timer> timers;
-    
+
+    private final Scheduler scheduler = new Scheduler();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final EventPool<TimerEvent> pool = new EventPool<>(16, TimerEvent::new);
+    // Only used on the thread that calls processEvents()
+    private final List<TimerEvent> events = new ArrayList<>();
+
     public TimeEventHandler()
     {
-        timers = new ArrayList<>();
     }
-    
-    public void addTimer(double seconds)
+
+    /**
+     * Add a timer
+     * @param action  A name for what the timer is for, which its events carry; may be null
+     * @param seconds The time until the timer expires
+     * @param repeat  Whether to expire every {@code seconds} until cancelled. Repeats are spaced
+     *                from when the timer was due, so they don't drift.
+     * @return The timer, which has the next sequential id
+     */
+    public Timer addTimer(String action, double seconds, boolean repeat)
+    {
+        Timer timer = new Timer(nextId.getAndIncrement(), action, repeat);
+        timer.callback = scheduler.add(action, Math.round(seconds * 1000), timer::expire, repeat);
+        return timer;
+    }
+
+    /**
+     * Add a timer that expires once
+     * @param seconds The time until the timer expires
+     * @return The timer
+     */
+    public Timer addTimer(double seconds)
+    {
+        return addTimer(null, seconds, false);
+    }
+
+    /**
+     * @return The number of timers that are going to expire
+     */
+    public int getPendingCount()
     {
-        // TODO
+        return scheduler.getPendingCount();
     }
-    
+
+    /**
+     * Get the events for the timers that have expired since the last call
+     */
     @Override
     public List<TimerEvent> processEvents()
     {
-        return null;
+        List<TimerEvent> list = new ArrayList<>();
+        processEvents(list);
+        return list;
+    }
+
+    @Override
+    public void processEvents(List<? super TimerEvent> out)
+    {
+        events.clear();
+        scheduler.update();
+        for (int i = 0; i < events.size(); i++) out.add(events.get(i));
     }
 }
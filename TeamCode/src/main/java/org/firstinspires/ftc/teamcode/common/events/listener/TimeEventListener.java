@@ -1,5 +1,20 @@
 package org.firstinspires.ftc.teamcode.common.events.listener;
 
-public interface TimeEventListener
+import org.firstinspires.ftc.teamcode.common.events.handler.TimeEventHandler.TimerEvent;
+
+public interface TimeEventListener extends EventListener<TimerEvent>
 {
+    void onTimer(TimerEvent ev);
+
+    @Override
+    default void processEvent(TimerEvent ev)
+    {
+        onTimer(ev);
+    }
+
+    @Override
+    default Class<?> getEventType()
+    {
+        return TimerEvent.class;
+    }
 }
@@ -14,6 +14,10 @@ import org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger;
 import org.firstinspires.ftc.teamcode.common.util.Logger;
 import org.firstinspires.ftc.teamcode.common.util.Utils;
 import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.TaskScope;
+import org.firstinspires.ftc.teamcode.common.util.metrics.LoopTimer;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Metrics;
 import org.slf4j.helpers.Util;
 
 import java.util.concurrent.Future;
@@ -24,9 +28,11 @@ public class AccelMotor extends DcMotorImpl
     private double maxSpeed;
     private Future<?> currentJob;
     private AccelWorker worker;
+    private TaskScope scope;
     private Logger log;
     private final double defaultAcceleration;
     private final long sampleTime = 15; // ms
+    private final LoopTimer loopTimer;
     
     public AccelMotor(DcMotor motor)
     {
@@ -41,10 +47,12 @@ public class AccelMotor extends DcMotorImpl
         this.acceleration = acceleration; // full speed in 1 second
         this.defaultAcceleration = acceleration;
         log = new Logger("AccelMotor " + Utils.lookupConfigName(motor, Robot.instance().hardwareMap));
+        loopTimer = Metrics.loop("AccelMotor " + Utils.lookupConfigName(motor, Robot.instance().hardwareMap),
+                (int)sampleTime);
         
         GlobalDataLogger.instance().addChannel(Utils.lookupConfigName(motor, Robot.instance().hardwareMap) + " speed",
-                () -> String.format("%.3f", getPower()));
-        GlobalDataLogger.instance().addChannel(Utils.lookupConfigName(motor, Robot.instance().hardwareMap) + " state",
+                () -> getPower());
+        GlobalDataLogger.instance().addInternedChannel(Utils.lookupConfigName(motor, Robot.instance().hardwareMap) + " state",
                 () -> isAccelerating() ? "Accelerating" : "Idle");
         
     }
@@ -59,6 +67,16 @@ public class AccelMotor extends DcMotorImpl
         this.acceleration = defaultAcceleration;
     }
     
+    /**
+     * Start ramps in a scope instead of the thread pool's root scope, so they are cancelled with the
+     * scope's owner
+     * @param scope The scope
+     */
+    public void setScope(TaskScope scope)
+    {
+        this.scope = scope;
+    }
+    
     public double getMaxSpped()
     {
         return maxSpeed;
@@ -102,7 +120,9 @@ public class AccelMotor extends DcMotorImpl
         else
         {
             worker = new AccelWorker(v0, vf, step);
-            currentJob = GlobalThreadPool.instance().start(worker);
+            currentJob = scope != null
+                    ? scope.start(Lane.CONTROL, "AccelMotor ramp", worker)
+                    : GlobalThreadPool.instance().start(Lane.CONTROL, "AccelMotor ramp", worker);
         }
     }
     
@@ -130,13 +150,16 @@ public class AccelMotor extends DcMotorImpl
         @Override
         public void run()
         {
+            loopTimer.reset();
             for (double v = v0 + step; ; v += step)
             {
                 if ((step > 0 && v >= vf) || (step < 0 && vf >= v))
                 {
                     break;
                 }
+                loopTimer.start();
                 controller.setMotorPower(portNumber, v / maxSpeed);
+                loopTimer.end();
                 try
                 {
                     Thread.sleep(sampleTime);
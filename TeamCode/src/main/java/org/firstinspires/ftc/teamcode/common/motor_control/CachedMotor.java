@@ -0,0 +1,122 @@
+package org.firstinspires.ftc.teamcode.common.motor_control;
+
+import com.qualcomm.robotcore.hardware.DcMotor;
+import com.qualcomm.robotcore.hardware.DcMotorImpl;
+
+import org.firstinspires.ftc.teamcode.common.actuators.WriteBuffer;
+import org.firstinspires.ftc.teamcode.common.sensors.HubCache;
+
+/**
+ * A motor that reads its position, velocity and busy state from a {@link HubCache} snapshot.
+ * With {@link #setWriteBuffer(WriteBuffer)}, its power is also written through a
+ * {@link WriteBuffer}. Everything else goes to the motor controller as usual. Create with
+ * {@link HubCache#wrap(DcMotor)}.
+ */
+public class CachedMotor extends DcMotorImpl
+{
+    private final DcMotor motor;
+    private final HubCache.Hub hub;
+    private volatile WriteBuffer.Hub writes;
+
+    public CachedMotor(DcMotor motor, HubCache.Hub hub)
+    {
+        super(motor.getController(), motor.getPortNumber(), motor.getDirection(), motor.getMotorType());
+        this.motor = motor;
+        this.hub = hub;
+    }
+
+    /**
+     * Buffer power writes until the buffer is flushed
+     * @param buffer The buffer, or null to write the power immediately again
+     * @return This motor
+     */
+    public CachedMotor setWriteBuffer(WriteBuffer buffer)
+    {
+        WriteBuffer.Hub old = writes;
+        if (old != null) old.flushMotor(portNumber);
+        writes = buffer == null ? null : buffer.getHub(hub.getModule());
+        return this;
+    }
+
+    /**
+     * @return Whether power writes go through a write buffer
+     */
+    public boolean isBuffered()
+    {
+        return writes != null;
+    }
+
+    /**
+     * @return The motor from the hardware map that this one wraps
+     */
+    public DcMotor getMotor()
+    {
+        return motor;
+    }
+
+    @Override
+    public int getCurrentPosition()
+    {
+        return adjustPosition(hub.getData().getMotorCurrentPosition(portNumber));
+    }
+
+    /**
+     * @return The velocity in ticks per second, adjusted for the motor direction like the position
+     */
+    public double getVelocity()
+    {
+        return adjustPosition(getMotorVelocity());
+    }
+
+    /**
+     * @return The velocity in ticks per second as the controller reports it, like
+     *         {@link com.qualcomm.robotcore.hardware.DcMotorControllerEx#getMotorVelocity(int)}
+     */
+    public int getMotorVelocity()
+    {
+        return hub.getData().getMotorVelocity(portNumber);
+    }
+
+    @Override
+    public boolean isBusy()
+    {
+        return hub.getData().isMotorBusy(portNumber);
+    }
+
+    @Override
+    protected void internalSetPower(double power)
+    {
+        WriteBuffer.Hub writes = this.writes;
+        if (writes == null) super.internalSetPower(power);
+        else writes.setMotorPower(controller, portNumber, power);
+    }
+
+    @Override
+    public synchronized double getPower()
+    {
+        WriteBuffer.Hub writes = this.writes;
+        double power = writes == null ? Double.NaN : writes.getPendingPower(portNumber);
+        if (Double.isNaN(power)) return super.getPower();
+        // Undo what setPower() did to it
+        return getMode() == RunMode.RUN_TO_POSITION ? Math.abs(power) : adjustPower(power);
+    }
+
+    @Override
+    protected void internalSetMode(RunMode mode)
+    {
+        // The new mode has to apply to the power that was set before it
+        WriteBuffer.Hub writes = this.writes;
+        if (writes != null) writes.flushMotor(portNumber);
+        super.internalSetMode(mode);
+        // A snapshot from before the reset would still have the old position, and one from before
+        // RUN_TO_POSITION would say the motor isn't busy
+        if (mode == RunMode.STOP_AND_RESET_ENCODER || mode == RunMode.RUN_TO_POSITION) hub.invalidate();
+    }
+
+    @Override
+    protected void internalSetTargetPosition(int position)
+    {
+        super.internalSetTargetPosition(position);
+        hub.invalidate(); // The busy state is for the old target
+    }
+}
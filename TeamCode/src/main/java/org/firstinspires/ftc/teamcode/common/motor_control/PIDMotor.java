@@ -15,7 +15,11 @@ import org.firstinspires.ftc.teamcode.common.util.Logger;
 import org.firstinspires.ftc.teamcode.common.util.PIDController;
 import org.firstinspires.ftc.teamcode.common.util.Utils;
 import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
 import org.firstinspires.ftc.teamcode.common.util.concurrent.ResettableCountDownLatch;
+import org.firstinspires.ftc.teamcode.common.util.metrics.BusMonitor;
+import org.firstinspires.ftc.teamcode.common.util.metrics.LoopTimer;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Metrics;
 
 import java.io.Closeable;
 import java.io.File;
@@ -36,6 +40,10 @@ public class PIDMotor implements Closeable
     private double power = 0.4;
     
     private Logger log;
+    private LoopTimer loopTimer;
+    // Null when the motor reads from a snapshot or writes to a buffer, since those aren't commands
+    private final BusMonitor.Probe positionRead, velocityRead, powerWrite;
+    private final BusMonitor.Probe busyRead, modeWrite, targetWrite, velocityWrite, pidAccess;
     
     public PIDMotor(DcMotor motor)
     {
@@ -48,6 +56,17 @@ public class PIDMotor implements Closeable
         this.controller = (LynxDcMotorController)controller;
         this.port = motor.getPortNumber();
         log = new Logger("PIDMotor " + Utils.lookupConfigName(motor, Robot.instance().hardwareMap));
+        loopTimer = Metrics.loop("PIDMotor " + Utils.lookupConfigName(motor, Robot.instance().hardwareMap), 10);
+        boolean cached = motor instanceof CachedMotor;
+        boolean buffered = cached && ((CachedMotor)motor).isBuffered();
+        positionRead = cached ? null : BusMonitor.probe(motor, "PIDMotor position read");
+        velocityRead = cached ? null : BusMonitor.probe(motor, "PIDMotor velocity read");
+        powerWrite = buffered ? null : BusMonitor.probe(motor, "PIDMotor power write");
+        busyRead = BusMonitor.probe(motor, "PIDMotor busy read");
+        modeWrite = BusMonitor.probe(motor, "PIDMotor mode write");
+        targetWrite = BusMonitor.probe(motor, "PIDMotor target write");
+        velocityWrite = BusMonitor.probe(motor, "PIDMotor velocity write");
+        pidAccess = BusMonitor.probe(motor, "PIDMotor PID coefficients");
     
         /*
         GlobalDataLogger.instance().addChannel(Utils.getMotorId(motor) + " position",
@@ -72,7 +91,30 @@ public class PIDMotor implements Closeable
     }
 
     public void setRunMode(DcMotor.RunMode value){
-        controller.setMotorMode(port, value);
+        modeWrite.run(() -> motor.setMode(value));
+    }
+    
+    /**
+     * Set the motor's power directly, like {@link DcMotor#setPower(double)} on {@link #getMotor()}
+     *
+     * @param power The power, from -1 to 1
+     */
+    public void setMotorPower(double power)
+    {
+        if (powerWrite == null)
+        {
+            motor.setPower(power);
+            return;
+        }
+        long start = powerWrite.start();
+        try
+        {
+            motor.setPower(power);
+        }
+        finally
+        {
+            powerWrite.end(start);
+        }
     }
     
     /**
@@ -90,9 +132,10 @@ public class PIDMotor implements Closeable
         if (motor.getDirection() == DcMotorSimple.Direction.REVERSE) position = -position;
         
         log.v("hold(%d) at power %.3f (current position %d)", position, power, getCurrentPosition());
-        controller.setMotorTargetPosition(port, position, deadband);
-        controller.setMotorMode(port, DcMotor.RunMode.RUN_TO_POSITION);
-        motor.setPower(power);
+        int target = position;
+        targetWrite.run(() -> controller.setMotorTargetPosition(port, target, deadband));
+        modeWrite.run(() -> motor.setMode(DcMotor.RunMode.RUN_TO_POSITION));
+        setMotorPower(power);
     }
     
     
@@ -109,12 +152,12 @@ public class PIDMotor implements Closeable
         this.power = power;
         if (controller.getMotorMode(port) == DcMotor.RunMode.RUN_TO_POSITION)
         {
-            motor.setPower(power);
+            setMotorPower(power);
         }
     }
 
     public void setTargetPosition(int pos){
-        motor.setTargetPosition(pos);
+        targetWrite.run(() -> motor.setTargetPosition(pos));
     }
     
     /**
@@ -134,7 +177,16 @@ public class PIDMotor implements Closeable
      */
     public int getCurrentPosition()
     {
-        return motor.getCurrentPosition();
+        if (positionRead == null) return motor.getCurrentPosition();
+        long start = positionRead.start();
+        try
+        {
+            return motor.getCurrentPosition();
+        }
+        finally
+        {
+            positionRead.end(start);
+        }
     }
     
     /**
@@ -143,8 +195,8 @@ public class PIDMotor implements Closeable
     public void stopHolding()
     {
         log.v("stopHolding()");
-        motor.setPower(0);
-        controller.setMotorMode(port, DcMotor.RunMode.RUN_USING_ENCODER);
+        setMotorPower(0);
+        modeWrite.run(() -> motor.setMode(DcMotor.RunMode.RUN_USING_ENCODER));
     }
 
     /**
@@ -153,8 +205,8 @@ public class PIDMotor implements Closeable
     public void resumeHolding()
     {
         log.v("resumeHolding() at power=%.3f", power);
-        motor.setMode(DcMotor.RunMode.RUN_TO_POSITION);
-        motor.setPower(power);
+        modeWrite.run(() -> motor.setMode(DcMotor.RunMode.RUN_TO_POSITION));
+        setMotorPower(power);
     }
     
     /**
@@ -186,8 +238,13 @@ public class PIDMotor implements Closeable
     public void runToPosition(int position, boolean keepHolding) throws InterruptedException
     {
         hold(position);
-        while (motor.getPower() == 0 || controller.isBusy(port))
+        loopTimer.reset();
+        while (true)
         {
+            loopTimer.start();
+            boolean busy = readBusy();
+            loopTimer.end();
+            if (!busy) break;
             Thread.sleep(10);
         }
         if (!keepHolding) stopHolding();
@@ -202,8 +259,10 @@ public class PIDMotor implements Closeable
     public void startRunToPosition(int position)
     {
         hold(position);
-        GlobalThreadPool.instance().start(() ->
+        loopTimer.reset();
+        GlobalThreadPool.instance().start(Lane.CONTROL, "PIDMotor watcher", () ->
         {
+           boolean busy;
            do
            {
                try
@@ -214,11 +273,28 @@ public class PIDMotor implements Closeable
                {
                    break;
                }
-           } while (motor.getPower() == 0 || controller.isBusy(port));
+               loopTimer.start();
+               busy = readBusy();
+               loopTimer.end();
+           } while (busy);
            stopHolding();
         });
     }
     
+    // Asks the controller, since a snapshot can be older than the target that was just set
+    private boolean readBusy()
+    {
+        long start = busyRead.start();
+        try
+        {
+            return motor.getPower() == 0 || controller.isBusy(port);
+        }
+        finally
+        {
+            busyRead.end(start);
+        }
+    }
+    
     /**
      * Get the current PIDF constants as an array of <code>[kP, kI, kD, kF]</code>
      *
@@ -229,7 +305,7 @@ public class PIDMotor implements Closeable
      */
     public double[] getPIDConstants(DcMotor.RunMode mode)
     {
-        PIDFCoefficients coeffs = controller.getPIDFCoefficients(port, mode);
+        PIDFCoefficients coeffs = pidAccess.call(() -> controller.getPIDFCoefficients(port, mode));
         return new double[] {coeffs.p, coeffs.i, coeffs.d, coeffs.f};
     }
     
@@ -252,7 +328,8 @@ public class PIDMotor implements Closeable
      */
     public void setPIDConstants(double kP, double kI, double kD)
     {
-        controller.setPIDCoefficients(port, DcMotor.RunMode.RUN_TO_POSITION, new PIDCoefficients(kP, kI, kD));
+        pidAccess.run(() ->
+                controller.setPIDCoefficients(port, DcMotor.RunMode.RUN_TO_POSITION, new PIDCoefficients(kP, kI, kD)));
     }
     
     /**
@@ -266,7 +343,7 @@ public class PIDMotor implements Closeable
      */
     public void setPIDFConstants(DcMotor.RunMode mode, double kP, double kI, double kD, double kF)
     {
-        controller.setPIDFCoefficients(port, mode, new PIDFCoefficients(kP, kI, kD, kF));
+        pidAccess.run(() -> controller.setPIDFCoefficients(port, mode, new PIDFCoefficients(kP, kI, kD, kF)));
     }
     
     /**
@@ -310,7 +387,8 @@ public class PIDMotor implements Closeable
      */
     public boolean isBusy()
     {
-        return controller.isBusy(port);
+        if (motor instanceof CachedMotor) return motor.isBusy();
+        return busyRead.callBoolean(motor::isBusy);
     }
 
     /**
@@ -329,7 +407,16 @@ public class PIDMotor implements Closeable
      */
     public double getOutput()
     {
-        return controller.getMotorVelocity(port);
+        if (velocityRead == null) return ((CachedMotor)motor).getMotorVelocity();
+        long start = velocityRead.start();
+        try
+        {
+            return controller.getMotorVelocity(port);
+        }
+        finally
+        {
+            velocityRead.end(start);
+        }
     }
     
     /**
@@ -344,8 +431,8 @@ public class PIDMotor implements Closeable
     
     public void setVelocity(double velocity)
     {
-        controller.setMotorMode(port, DcMotor.RunMode.RUN_USING_ENCODER);
-        controller.setMotorVelocity(port, velocity);
+        modeWrite.run(() -> motor.setMode(DcMotor.RunMode.RUN_USING_ENCODER));
+        velocityWrite.run(() -> controller.setMotorVelocity(port, velocity));
     }
 
     /**
@@ -381,7 +468,7 @@ public class PIDMotor implements Closeable
     @Deprecated
     public void close()
     {
-        motor.setPower(0);
+        setMotorPower(0);
     }
     
     /**
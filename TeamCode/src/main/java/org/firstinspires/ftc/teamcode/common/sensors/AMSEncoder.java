@@ -6,19 +6,39 @@ import com.qualcomm.robotcore.hardware.I2cAddr;
 import com.qualcomm.robotcore.hardware.I2cDevice;
 import com.qualcomm.robotcore.hardware.I2cDeviceSynch;
 import com.qualcomm.robotcore.hardware.I2cDeviceSynchDevice;
+import com.qualcomm.robotcore.hardware.TimestampedData;
 import com.qualcomm.robotcore.hardware.configuration.annotations.DeviceProperties;
 import com.qualcomm.robotcore.hardware.configuration.annotations.I2cDeviceType;
 
+import org.firstinspires.ftc.teamcode.common.Robot;
+import org.firstinspires.ftc.teamcode.common.util.HubExecutor;
 import org.firstinspires.ftc.teamcode.common.util.Logger;
+import org.firstinspires.ftc.teamcode.common.util.Utils;
 import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PeriodicTask;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedDouble;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedLong;
+import org.firstinspires.ftc.teamcode.common.util.metrics.BusMonitor;
+import org.firstinspires.ftc.teamcode.common.util.metrics.LoopTimer;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Metrics;
 
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static com.qualcomm.robotcore.hardware.HardwareDeviceHealth.HealthStatus.HEALTHY;
 
 /**
  * I2CDevice wrapper for the AMS AS5048B magnetic encoder.
  * Based on the Arduino library
+ * <p>
+ * Both angle registers are read in one transaction from the read window, so the two halves of an
+ * angle always come from the same measurement. With {@link #startPolling(int)} the encoder is
+ * sampled in the background and the angle, rotation count and sample time are published, so
+ * readers never wait for the I2C bus.
+ * </p>
  */
 @I2cDeviceType
 @DeviceProperties(xmlTag="AMSEncoder", name="AMS AS5048B Encoder",
@@ -26,16 +46,31 @@ import static com.qualcomm.robotcore.hardware.HardwareDeviceHealth.HealthStatus.
 public class AMSEncoder extends I2cDeviceSynchDevice<I2cDeviceSynch> implements OdometryEncoder
 {
     public static final int I2C_ADDRESS = 0x40;
+    private static final int ANGLE_REGISTER = 0xFE; // 0xFE holds the low 6 bits, 0xFF the high 8
+    private static final long MIN_SAMPLE_INTERVAL = 5000000; // ns, when not polling
+
+    // Interrupts reads that take too long; one thread for every encoder instead of one per read
+    private static ScheduledThreadPoolExecutor timeouts;
 
     private boolean error = false;
     private I2cDeviceSynch device;
     private Logger log;
+
+    // Guarded by this
     private double prevAngle = 0;
-    private long prevSampleTime = 0;
+    private volatile long prevSampleTime = 0; // ns
     private int rotations = 0;
-
     private int zeroPos = 0;
-    
+
+    private final PublishedDouble angle = new PublishedDouble(0);
+    private final PublishedLong rotationCount = new PublishedLong(0);
+    private final PublishedLong sampleTime = new PublishedLong(0);
+    private volatile PeriodicTask poller;
+
+    // Looked up on the first read, since the encoder is created before the hubs are known
+    private volatile BusMonitor.Probe read;
+    private volatile HubExecutor io;
+
     @Override
     protected boolean doInitialize()
     {
@@ -47,83 +82,108 @@ public class AMSEncoder extends I2cDeviceSynchDevice<I2cDeviceSynch> implements
             error = true;
             return false;
         }
-    
+
         device.setReadWindow(
-                new I2cDeviceSynch.ReadWindow(0xFE, 2, I2cDeviceSynch.ReadMode.REPEAT)
+                new I2cDeviceSynch.ReadWindow(ANGLE_REGISTER, 2, I2cDeviceSynch.ReadMode.REPEAT)
         );
-    
+
         device.write8(0x16, 0);
         device.write8(0x17, 0);
         return true;
     }
-    
+
     @Override
     public Manufacturer getManufacturer()
     {
         return Manufacturer.AMS;
     }
-    
+
     @Override
     public String getDeviceName()
     {
         return "AS5048B";
     }
-    
-    private class Timeout
+
+    @Override
+    public void resetDeviceConfigurationForOpMode()
     {
-        private Thread toInterrupt;
-        private Thread timeoutThread;
-        private long millis;
-        private Logger log;
+        // The polling task and hub belong to the OpMode that is ending
+        stopPolling();
+        read = null;
+        io = null;
+        super.resetDeviceConfigurationForOpMode();
+    }
 
-        public Timeout(long millis)
-        {
-            this(millis, Thread.currentThread());
-        }
+    @Override
+    public void close()
+    {
+        stopPolling();
+        super.close();
+    }
 
-        public Timeout(long millis, Thread toInterrupt)
+    private static synchronized ScheduledExecutorService timeouts()
+    {
+        if (timeouts == null)
         {
-            this.toInterrupt = toInterrupt;
-            this.millis = millis;
-            this.log = new Logger("Timeout (" + toInterrupt + ")");
+            timeouts = new ScheduledThreadPoolExecutor(1, r ->
+            {
+                Thread t = new Thread(r, "AMSEncoder timeouts");
+                t.setDaemon(true);
+                return t;
+            });
+            timeouts.setRemoveOnCancelPolicy(true);
         }
+        return timeouts;
+    }
+
+    /**
+     * Interrupts the thread that created it, unless it has been finished first
+     */
+    private static final class Timeout implements Runnable
+    {
+        private final Thread toInterrupt = Thread.currentThread();
+        private boolean finished, expired; // Guarded by this
 
-        public void start()
+        @Override
+        public synchronized void run()
         {
-            timeoutThread = new Thread(() ->
-            {
-                try
-                {
-                    Thread.sleep(millis);
-                    toInterrupt.interrupt();
-                    log.v("Timed out after " + millis + " ms");
-                }
-                catch (InterruptedException e)
-                {
-                    log.v("Interrupted");
-                }
-            });
-            timeoutThread.setDaemon(true);
-            timeoutThread.start();
+            if (finished) return;
+            expired = true;
+            toInterrupt.interrupt();
         }
 
-        public void stop()
+        /**
+         * Stop the timeout, and clear the interrupt if it expired
+         * @return Whether it expired
+         */
+        synchronized boolean finish()
         {
-            if (timeoutThread != null) timeoutThread.interrupt();
+            finished = true;
+            if (expired) Thread.interrupted();
+            return expired;
         }
     }
 
     private int read8Timeout(int rgadr, int timeout)
     {
-        Timeout t = new Timeout(timeout);
+        Timeout t = new Timeout();
+        Future<?> f = timeouts().schedule(t, timeout, TimeUnit.MILLISECONDS);
         int val;
-        t.start();
-        val = device.read8(rgadr);
-        if (Thread.interrupted()) // Clear the interrupt flag
+        boolean expired;
+        try
         {
+            val = device.read8(rgadr);
+        }
+        finally
+        {
+            f.cancel(false);
+            expired = t.finish();
+        }
+        if (expired)
+        {
+            log.v("Timed out after " + timeout + " ms");
             return -1;
         }
-        t.stop();
         return val;
     }
 
@@ -137,77 +197,149 @@ public class AMSEncoder extends I2cDeviceSynchDevice<I2cDeviceSynch> implements
         log = new Logger("AMSEncoder");
     }
 
+    /**
+     * Sample the encoder in the background on the {@link Lane#SENSOR} lane. Reads then return the
+     * latest sample instead of reading the encoder themselves. Encoders with the same period are
+     * sampled together.
+     * @param periodMillis The time between samples, e.g. 2 for 500 Hz
+     */
+    public synchronized void startPolling(int periodMillis)
+    {
+        if (error || poller != null) return;
+        String name = "AMSEncoder " + Utils.lookupConfigName(this, Robot.instance().hardwareMap);
+        LoopTimer loopTimer = Metrics.loop(name, periodMillis);
+        loopTimer.reset();
+        poller = GlobalThreadPool.instance().scheduleAtFixedRate(Lane.SENSOR, name, periodMillis, true, () ->
+        {
+            loopTimer.start();
+            sample();
+            loopTimer.end();
+        });
+    }
+
+    public synchronized void stopPolling()
+    {
+        if (poller == null) return;
+        poller.cancel();
+        poller = null;
+    }
+
     public void resetEncoder()
     {
         if (error) return;
 
-        zeroPos = getRawAngle();
-        rotations = 0;
+        int raw = getRawAngle();
+        synchronized (this)
+        {
+            zeroPos = raw;
+            rotations = 0;
+            prevAngle = 0;
+            angle.set(0);
+            rotationCount.set(0);
+        }
     }
 
     public int getRawAngle()
     {
         if (error) return -1;
-        // byte[] data = device.read(0xFE, 2);
-        int msb = device.read8(0xFF);
-        int lsb = device.read8(0xFE);
-        // log.v("Should be 2 bytes: " + data.length);
-        return ((msb & 0xFF) << 6) + (lsb & 0x3F);
+        return toRaw(readAngle().data);
     }
 
-    public double getAngle()
+    private static int toRaw(byte[] data)
     {
-        if (error) return -1;
-        double angle;
-        long elapsed = System.nanoTime()/1000000L - prevSampleTime;
-        
-        if (elapsed > 5)
+        return ((data[1] & 0xFF) << 6) + (data[0] & 0x3F);
+    }
+
+    private TimestampedData readAngle()
+    {
+        BusMonitor.Probe read = this.read;
+        if (read == null)
         {
-            double raw = getRawAngle();
-            if (device.getHealthStatus() == HEALTHY && raw != 0)
+            io = Robot.instance() == null ? null : Robot.instance().getHubExecutor(this);
+            this.read = read = BusMonitor.probe(this, "AMSEncoder read");
+        }
+        HubExecutor io = this.io;
+        return io == null ? read.call(() -> device.readTimeStamped(ANGLE_REGISTER, 2))
+                          : io.call(read, () -> device.readTimeStamped(ANGLE_REGISTER, 2));
+    }
+
+    private void sample()
+    {
+        TimestampedData data = readAngle();
+        int raw = toRaw(data.data);
+        boolean valid = device.getHealthStatus() == HEALTHY && raw != 0;
+        synchronized (this)
+        {
+            double angle = valid ? ((raw - zeroPos) * 360.0) / 0x3FFF : prevAngle;
+            long elapsed = (data.nanoTime - prevSampleTime) / 1000000L;
+            if (prevSampleTime != 0 && elapsed > 750)
             {
-                angle = ((raw - zeroPos) * 360) / 0x3FFF;
+                log.w("Too much time between samples (" + elapsed + "); some rotations may have been missed");
             }
-            else
+
+            if (Math.abs(angle - prevAngle) > 240)
             {
-                angle = prevAngle;
+                rotations += Math.signum(prevAngle - angle);
             }
-        }
-        else
-        {
-            angle = prevAngle;
-        }
+            prevAngle = angle;
+            prevSampleTime = data.nanoTime;
 
-        if (elapsed > 750)
-        {
-            log.w("Too much time between samples (" + elapsed + "); some rotations may have been missed");
-        }
-        
-        if (Math.abs(angle - prevAngle) > 240)
-        {
-            rotations += Math.signum(prevAngle - angle);
+            this.angle.set(angle);
+            rotationCount.set(rotations);
+            sampleTime.set(data.nanoTime);
         }
-        prevAngle = angle;
-        prevSampleTime = System.nanoTime()/1000000L;
+    }
 
-        return angle;
+    public double getAngle()
+    {
+        if (error) return -1;
+        if (poller == null && System.nanoTime() - prevSampleTime > MIN_SAMPLE_INTERVAL) sample();
+        return angle.getAsDouble();
     }
 
     public double getPosition()
     {
         if (error) return -1;
-        return getAngle() + 360 * rotations;
+        if (poller == null && System.nanoTime() - prevSampleTime > MIN_SAMPLE_INTERVAL) sample();
+        synchronized (this)
+        {
+            return prevAngle + 360 * rotations;
+        }
     }
 
     public int getRotations()
     {
-        return rotations;
+        return (int)rotationCount.getAsLong();
+    }
+
+    /**
+     * @return The angle in degrees, as of the latest sample
+     */
+    public PublishedDouble getPublishedAngle()
+    {
+        return angle;
+    }
+
+    /**
+     * @return The number of full rotations, as of the latest sample
+     */
+    public PublishedLong getPublishedRotations()
+    {
+        return rotationCount;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} at which the latest sample was read from the encoder
+     */
+    public PublishedLong getPublishedSampleTime()
+    {
+        return sampleTime;
     }
 
     public boolean error()
     {
         return error;
     }
-    
-    
+
+
 }
@@ -0,0 +1,121 @@
+package org.firstinspires.ftc.teamcode.common.sensors;
+
+import com.qualcomm.robotcore.hardware.DigitalChannel;
+import com.qualcomm.robotcore.hardware.DigitalChannelController;
+
+/**
+ * A digital channel that reads its state from a {@link HubCache} snapshot while it is an input.
+ * While it is an output, the state is the one last written, which the SDK keeps without any I/O,
+ * so reads go straight to the channel. Create with {@link HubCache#wrap(DigitalChannel)}.
+ */
+public class CachedDigitalChannel implements DigitalChannel
+{
+    private static final String PORT_PREFIX = "digital port ";
+
+    private final DigitalChannel channel;
+    private final HubCache.Hub hub;
+    private final int port;
+
+    CachedDigitalChannel(DigitalChannel channel, HubCache.Hub hub, int port)
+    {
+        this.channel = channel;
+        this.hub = hub;
+        this.port = port;
+    }
+
+    /**
+     * Get the port number from a channel's connection info, which ends in "digital port N"
+     * @return The port, or -1 if there isn't one
+     */
+    static int parsePort(String connectionInfo)
+    {
+        int i = connectionInfo.lastIndexOf(PORT_PREFIX);
+        if (i < 0) return -1;
+        try
+        {
+            return Integer.parseInt(connectionInfo.substring(i + PORT_PREFIX.length()).trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * @return The channel this one reads through
+     */
+    public DigitalChannel getChannel()
+    {
+        return channel;
+    }
+
+    @Override
+    public boolean getState()
+    {
+        if (channel.getMode() == Mode.INPUT) return hub.getData().getDigitalChannelState(port);
+        return channel.getState();
+    }
+
+    @Override
+    public void setState(boolean state)
+    {
+        channel.setState(state);
+    }
+
+    @Override
+    public Mode getMode()
+    {
+        return channel.getMode();
+    }
+
+    @Override
+    public void setMode(Mode mode)
+    {
+        channel.setMode(mode);
+        // An input read from a snapshot taken before the change could be an old output value
+        if (mode == Mode.INPUT) hub.invalidate();
+    }
+
+    @Override
+    @Deprecated
+    public void setMode(DigitalChannelController.Mode mode)
+    {
+        setMode(mode == DigitalChannelController.Mode.INPUT ? Mode.INPUT : Mode.OUTPUT);
+    }
+
+    @Override
+    public Manufacturer getManufacturer()
+    {
+        return channel.getManufacturer();
+    }
+
+    @Override
+    public String getDeviceName()
+    {
+        return channel.getDeviceName();
+    }
+
+    @Override
+    public String getConnectionInfo()
+    {
+        return channel.getConnectionInfo();
+    }
+
+    @Override
+    public int getVersion()
+    {
+        return channel.getVersion();
+    }
+
+    @Override
+    public void resetDeviceConfigurationForOpMode()
+    {
+        channel.resetDeviceConfigurationForOpMode();
+    }
+
+    @Override
+    public void close()
+    {
+        channel.close();
+    }
+}
@@ -0,0 +1,344 @@
+package org.firstinspires.ftc.teamcode.common.sensors;
+
+import com.qualcomm.hardware.lynx.LynxDcMotorController;
+import com.qualcomm.hardware.lynx.LynxModule;
+import com.qualcomm.robotcore.hardware.DcMotor;
+import com.qualcomm.robotcore.hardware.DigitalChannel;
+import com.qualcomm.robotcore.hardware.HardwareMap;
+
+import org.firstinspires.ftc.robotcore.external.Telemetry;
+import org.firstinspires.ftc.teamcode.common.motor_control.CachedMotor;
+import org.firstinspires.ftc.teamcode.common.util.HubExecutor;
+import org.firstinspires.ftc.teamcode.common.util.Logger;
+import org.firstinspires.ftc.teamcode.common.util.Utils;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PeriodicTask;
+import org.firstinspires.ftc.teamcode.common.util.metrics.BusMonitor;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Counter;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Metrics;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Timer;
+
+/**
+ * Bulk-read cache for the Expansion Hubs. Each hub is read with one bulk read per control cycle,
+ * and encoder positions, velocities and digital inputs are served from that snapshot instead of
+ * sending one command per read.
+ * <p>
+ * The SDK's own caching ({@link LynxModule.BulkCachingMode#AUTO}) also answers digital channels
+ * that are set to output from the bulk data, which is why it is left off. Here the hubs stay in
+ * OFF mode, only devices wrapped with {@link #wrap(DcMotor)} and {@link #wrap(DigitalChannel)} read
+ * from the snapshot, and a digital channel only does so while it is an input.
+ * </p>
+ * <p>
+ * A snapshot is refreshed by {@link #refresh()}, by the periodic task from
+ * {@link #startRefreshing(int)}, or by the first read after it has become older than the maximum
+ * age. Each hub counts its bulk reads, the reads it served from a snapshot and the reads that had
+ * to wait for a new snapshot, and records how old each snapshot was when it was read.
+ * </p>
+ * <p>
+ * When a hub has a {@link HubExecutor}, its bulk reads are done on the executor's thread, which
+ * also refreshes the snapshot every cycle, so {@link #startRefreshing(int)} isn't needed.
+ * </p>
+ */
+public class HubCache
+{
+    private static final class Snapshot
+    {
+        final LynxModule.BulkData data;
+        final long time;
+
+        Snapshot(LynxModule.BulkData data, long time)
+        {
+            this.data = data;
+            this.time = time;
+        }
+    }
+
+    /**
+     * The cached data for one hub
+     */
+    public final class Hub
+    {
+        private final LynxModule module;
+        private final String name;
+        private final String connectionInfo;
+        private final Object refreshLock = new Object();
+        private volatile Snapshot snapshot;
+        private volatile HubExecutor executor;
+
+        private final Counter bulkReads;
+        private final Counter cachedReads;
+        private final Counter staleReads;
+        private final Timer readTime;
+        private final Timer age;
+        private final BusMonitor.Probe bulkRead, staleRead;
+
+        private Hub(LynxModule module, String name)
+        {
+            this.module = module;
+            this.name = name;
+            this.connectionInfo = module.getConnectionInfo();
+            bulkReads = Metrics.counter(name + " bulk reads");
+            cachedReads = Metrics.counter(name + " cached reads");
+            staleReads = Metrics.counter(name + " stale reads");
+            readTime = Metrics.timer(name + " bulk read");
+            age = Metrics.timer(name + " data age");
+            bulkRead = BusMonitor.probe(module, "HubCache bulk read");
+            staleRead = BusMonitor.probe(module, "HubCache stale read");
+        }
+
+        /**
+         * Get the current snapshot, reading the hub first if it is older than the maximum age
+         */
+        public LynxModule.BulkData getData()
+        {
+            Snapshot s = snapshot;
+            long now = System.nanoTime();
+            if (s == null || now - s.time > maxAge)
+            {
+                staleReads.increment();
+                long time = now - maxAge;
+                HubExecutor io = executor;
+                s = io == null ? refreshIfOlder(time) : io.call(staleRead, () -> refreshIfOlder(time));
+            }
+            cachedReads.increment();
+            age.record(System.nanoTime() - s.time);
+            return s.data;
+        }
+
+        /**
+         * Do a bulk read now
+         */
+        public void refresh()
+        {
+            HubExecutor io = executor;
+            if (io == null) refreshNow();
+            else io.run(this::refreshNow);
+        }
+
+        private void refreshNow()
+        {
+            synchronized (refreshLock)
+            {
+                read();
+            }
+        }
+
+        /**
+         * Do the bulk reads on an executor's thread from now on
+         * @param executor The executor, or null to read on the calling thread
+         */
+        public void setExecutor(HubExecutor executor)
+        {
+            this.executor = executor;
+        }
+
+        /**
+         * Make the next read do a new bulk read, e.g. after the encoders have been reset
+         */
+        public void invalidate()
+        {
+            snapshot = null;
+        }
+
+        private Snapshot refreshIfOlder(long time)
+        {
+            synchronized (refreshLock)
+            {
+                // Another thread may have refreshed the snapshot while this one was waiting
+                Snapshot s = snapshot;
+                if (s != null && s.time - time >= 0) return s;
+                return read();
+            }
+        }
+
+        private Snapshot read()
+        {
+            long start = bulkRead.start();
+            LynxModule.BulkData data;
+            try
+            {
+                data = module.getBulkData();
+            }
+            finally
+            {
+                bulkRead.end(start);
+            }
+            Snapshot s = new Snapshot(data, start);
+            readTime.recordSince(start);
+            bulkReads.increment();
+            snapshot = s;
+            return s;
+        }
+
+        public LynxModule getModule()
+        {
+            return module;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public long getBulkReads()
+        {
+            return bulkReads.get();
+        }
+
+        public long getCachedReads()
+        {
+            return cachedReads.get();
+        }
+
+        public long getStaleReads()
+        {
+            return staleReads.get();
+        }
+
+        /**
+         * @return The age of the current snapshot in milliseconds, or infinity if there is none
+         */
+        public double getAge()
+        {
+            Snapshot s = snapshot;
+            if (s == null) return Double.POSITIVE_INFINITY;
+            return (System.nanoTime() - s.time) / 1e6;
+        }
+
+        /**
+         * Whether a device's connection info is on this hub, i.e. starts with the hub's
+         */
+        private boolean owns(String info)
+        {
+            return info.startsWith(connectionInfo + ";") || info.equals(connectionInfo);
+        }
+    }
+
+    private final Hub[] hubs;
+    private volatile long maxAge = 10000000; // ns
+    private PeriodicTask refreshTask;
+    private Logger log = new Logger("HubCache");
+
+    /**
+     * Create a cache for some hubs. Puts the hubs in {@link LynxModule.BulkCachingMode#OFF OFF}
+     * mode.
+     */
+    public HubCache(HardwareMap hardwareMap, LynxModule... modules)
+    {
+        hubs = new Hub[modules.length];
+        for (int i = 0; i < modules.length; i++)
+        {
+            modules[i].setBulkCachingMode(LynxModule.BulkCachingMode.OFF);
+            hubs[i] = new Hub(modules[i], Utils.lookupConfigName(modules[i], hardwareMap));
+        }
+    }
+
+    /**
+     * Set how old a snapshot may be before the next read refreshes it
+     * @param millis The maximum age, in milliseconds
+     */
+    public void setMaxAge(int millis)
+    {
+        maxAge = millis * 1000000L;
+    }
+
+    /**
+     * Do a bulk read on every hub now
+     */
+    public void refresh()
+    {
+        for (Hub hub : hubs) hub.refresh();
+    }
+
+    /**
+     * Make the next read on every hub do a new bulk read
+     */
+    public void invalidate()
+    {
+        for (Hub hub : hubs) hub.invalidate();
+    }
+
+    /**
+     * Refresh every hub once per control cycle on the {@link Lane#CONTROL} lane. Start this before
+     * the control loops that read from the cache, so that it runs first in each cycle. Also sets
+     * the maximum age to one and a half periods, so reads only refresh a snapshot themselves when
+     * the periodic task falls behind.
+     * @param periodMillis The control cycle period
+     */
+    public synchronized void startRefreshing(int periodMillis)
+    {
+        if (refreshTask != null) return;
+        setMaxAge(periodMillis * 3 / 2);
+        refreshTask = GlobalThreadPool.instance().scheduleAtFixedRate(Lane.CONTROL, "HubCache",
+                periodMillis, true, this::refresh);
+    }
+
+    public synchronized void stopRefreshing()
+    {
+        if (refreshTask == null) return;
+        refreshTask.cancel();
+        refreshTask = null;
+    }
+
+    public Hub[] getHubs()
+    {
+        return hubs.clone();
+    }
+
+    /**
+     * Find the hub a device is connected to
+     * @param connectionInfo The device's connection info
+     * @return The hub, or null if the device isn't on one of the cached hubs
+     */
+    public Hub getHub(String connectionInfo)
+    {
+        for (Hub hub : hubs)
+        {
+            if (hub.owns(connectionInfo)) return hub;
+        }
+        return null;
+    }
+
+    /**
+     * Wrap a motor so that its position, velocity and busy state come from the cache
+     * @return The wrapped motor, or the motor itself if it isn't on one of the cached hubs
+     */
+    public DcMotor wrap(DcMotor motor)
+    {
+        Hub hub = motor.getController() instanceof LynxDcMotorController
+                ? getHub(motor.getController().getConnectionInfo()) : null;
+        if (hub == null)
+        {
+            log.w("%s is not on a cached hub; reading it directly", motor.getConnectionInfo());
+            return motor;
+        }
+        return new CachedMotor(motor, hub);
+    }
+
+    /**
+     * Wrap a digital channel so that its state comes from the cache while it is an input
+     * @return The wrapped channel, or the channel itself if it isn't on one of the cached hubs
+     */
+    public DigitalChannel wrap(DigitalChannel channel)
+    {
+        String info = channel.getConnectionInfo();
+        Hub hub = getHub(info);
+        int port = CachedDigitalChannel.parsePort(info);
+        if (hub == null || port < 0)
+        {
+            log.w("%s is not on a cached hub; reading it directly", info);
+            return channel;
+        }
+        return new CachedDigitalChannel(channel, hub, port);
+    }
+
+    public void addTelemetry(Telemetry telemetry)
+    {
+        for (Hub hub : hubs)
+        {
+            telemetry.addData(hub.name, "%d bulk reads, %d cached, %d stale, age %.1f ms",
+                    hub.getBulkReads(), hub.getCachedReads(), hub.getStaleReads(), hub.getAge());
+        }
+    }
+}
@@ -1,13 +1,23 @@
 package org.firstinspires.ftc.teamcode.common.sensors;
 
 import com.qualcomm.hardware.bosch.BNO055IMU;
+import com.qualcomm.robotcore.hardware.HardwareDevice;
 
 import org.firstinspires.ftc.robotcore.external.Telemetry;
 import org.firstinspires.ftc.robotcore.external.navigation.Orientation;
 import org.firstinspires.ftc.teamcode.autonomous.BaseAutonomous;
 import org.firstinspires.ftc.teamcode.common.util.Config;
 import org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger;
+import org.firstinspires.ftc.teamcode.common.util.HubExecutor;
 import org.firstinspires.ftc.teamcode.common.util.Logger;
+import org.firstinspires.ftc.teamcode.common.util.Trace;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PeriodicTask;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedDouble;
+import org.firstinspires.ftc.teamcode.common.util.metrics.BusMonitor;
+import org.firstinspires.ftc.teamcode.common.util.metrics.LoopTimer;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Metrics;
 
 import java.io.File;
 import java.io.FileWriter;
@@ -29,6 +39,8 @@ public class IMU
     public static final int CLOSED = -2;
     public static final int ERROR = -1;
     
+    private static final int POLL_PERIOD = 5; // ms, the rate the worker thread used to poll at
+    
     //The IMU
     private BNO055IMU imu;
     //Its parameters
@@ -37,12 +49,15 @@ public class IMU
     private Logger log;
     private Worker worker;
     private Thread workerThread;
+    private volatile HubExecutor executor;
+    private final BusMonitor.Probe read; // Null if the IMU isn't a hardware device
 
     
     public IMU(BNO055IMU imu)
     {
         this.imu = imu;
         log = new Logger("IMU Wrapper");
+        read = imu instanceof HardwareDevice ? BusMonitor.probe((HardwareDevice)imu, "IMU read") : null;
         worker = new Worker(); // Just create the worker object here to avoid NPE's when checking state
     }
 
@@ -51,9 +66,19 @@ public class IMU
         return imu;
     }
     
+    /**
+     * Poll the sensor on the I/O thread of the hub it is connected to
+     * @param executor The hub's executor, or null to poll on the polling task's thread
+     */
+    public void setExecutor(HubExecutor executor)
+    {
+        this.executor = executor;
+    }
+    
     /**
      * Worker Thread --- Even though everyone on Discord was like "NOOOOOOO"
-     * Initializes the IMU asynchronously and then continuously polls the sensor, counting revolutions.
+     * Initializes the IMU asynchronously on its own thread. Once started, the sensor is polled by a
+     * periodic task, which counts revolutions.
      */
     private class Worker implements Runnable
     {
@@ -77,14 +102,15 @@ public class IMU
         private float angleOffset;
         private int revolutions;
         
-        private long lastLog;
-        private int updateCount;
+        private final LoopTimer loopTimer = Metrics.loop("IMU", POLL_PERIOD);
+        private PeriodicTask poller;
         private boolean autoCalibrating;
         
         private volatile int status = PRE_INIT;
         private volatile String detailStatus = "";
         
         private volatile float heading, roll, pitch;
+        private final PublishedDouble headingPub = new PublishedDouble();
         
         private boolean immediateStart = false;
         
@@ -137,111 +163,118 @@ public class IMU
             }
             lastAngle = h;
             heading = h + 360 * revolutions - angleOffset;
+            headingPub.set(heading);
         }
         
         @Override
         public void run()
         {
             log = new Logger("IMU Worker Thread");
-            while (status > CLOSED)
+            if (status != PRE_INIT) return;
+            // OK to initialize; user starts this thread with initialize()
+            log.d("====Initializing IMU====");
+            Trace.begin("IMU init");
+            log.d("Reading calibration file...");
+            detailStatus = "Reading calibration";
+            try (Scanner scan = new Scanner(calibrationFile))
+            {
+                if (calibrationFile.exists())
+                {
+                    String data = scan.useDelimiter("\\Z").next();
+                    params.calibrationData = BNO055IMU.CalibrationData.deserialize(data);
+                }
+                else
+                {
+                    log.d("File does not exist!");
+                    autoCalibrating = true;
+                }
+            }
+            catch (IOException e)
+            {
+                log.w("Unable to read calibration file");
+                log.w(e);
+                autoCalibrating = true;
+            }
+            
+            log.d("Initializing IMU");
+            detailStatus = "Initializing";
+            Trace.begin("BNO055IMU.initialize");
+            imu.initialize(params);
+            Trace.end();
+            boolean calibrating = autoCalibrating;
+            if (calibrating) Trace.begin("IMU auto-calibration");
+            
+            while (autoCalibrating)
             {
-                switch (status)
+                log.d("Running auto-calibration");
+                int progress = (imu.getCalibrationStatus().calibrationStatus >> 4) & 3;
+                detailStatus = "Calibrating--Progress: " + progress;
+                Trace.counter("IMU calibration progress", progress);
+                if (progress == 3)
                 {
-                    case PRE_INIT:
+                    autoCalibrating = false;
+                    try (FileWriter writer = new FileWriter(calibrationFile))
                     {
-                        // OK to initialize; user starts this thread with initialize()
-                        log.d("====Initializing IMU====");
-                        log.d("Reading calibration file...");
-                        detailStatus = "Reading calibration";
-                        try (Scanner scan = new Scanner(calibrationFile))
-                        {
-                            if (calibrationFile.exists())
-                            {
-                                String data = scan.useDelimiter("\\Z").next();
-                                params.calibrationData = BNO055IMU.CalibrationData.deserialize(data);
-                            }
-                            else
-                            {
-                                log.d("File does not exist!");
-                                autoCalibrating = true;
-                            }
-                        }
-                        catch (IOException e)
-                        {
-                            log.w("Unable to read calibration file");
-                            log.w(e);
-                            autoCalibrating = true;
-                        }
-                        
-                        log.d("Initializing IMU");
-                        detailStatus = "Initializing";
-                        imu.initialize(params);
-                        
-                        while (autoCalibrating)
-                        {
-                            log.d("Running auto-calibration");
-                            int progress = (imu.getCalibrationStatus().calibrationStatus >> 4) & 3;
-                            detailStatus = "Calibrating--Progress: " + progress;
-                            if (progress == 3)
-                            {
-                                autoCalibrating = false;
-                                try (FileWriter writer = new FileWriter(calibrationFile))
-                                {
-                                    String data = imu.readCalibrationData().serialize();
-                                    writer.write(data);
-                                }
-                                catch (IOException e)
-                                {
-                                    log.e("Unable to write calibration file");
-                                    log.e(e);
-                                }
-                                break;
-                            }
-                            
-                            try
-                            {
-                                Thread.sleep(10);
-                            }
-                            catch (InterruptedException e)
-                            {
-                                status = ERROR;
-                                break;
-                            }
-                        }
-                        
-                        GlobalDataLogger.instance().addChannel("IMU heading", () -> "" + getHeading());
-                        
-                        detailStatus = "Initialized";
-                        if (immediateStart) status = STARTED;
-                        else status = INITIALIZED;
-                        break;
+                        String data = imu.readCalibrationData().serialize();
+                        writer.write(data);
                     }
-                    case STARTED:
+                    catch (IOException e)
                     {
-                        update();
-                        /*
-                        updateCount++;
-                        if (System.currentTimeMillis() - lastLog > 1000)
-                        {
-                            log.d("Average update rate: %d fps", updateCount);
-                            updateCount = 0;
-                            lastLog = System.currentTimeMillis();
-                        }
-                         */
-                        break;
+                        log.e("Unable to write calibration file");
+                        log.e(e);
                     }
+                    break;
                 }
+                
                 try
                 {
-                    Thread.sleep(5);
+                    Thread.sleep(10);
                 }
                 catch (InterruptedException e)
                 {
-                    log.i("Interrupted");
-                    status = CLOSED;
+                    status = ERROR;
                     break;
                 }
             }
+            
+            if (calibrating) Trace.end();
+            Trace.end(); // IMU init
+            Trace.instant("IMU ready");
+            GlobalDataLogger.instance().addChannel("IMU heading", headingPub);
+            
+            detailStatus = "Initialized";
+            if (immediateStart) startPolling();
+            else status = INITIALIZED;
+        }
+        
+        /**
+         * Start polling the sensor every {@link #POLL_PERIOD} ms as a periodic task
+         */
+        public synchronized void startPolling()
+        {
+            status = STARTED;
+            if (poller != null) return;
+            loopTimer.reset();
+            poller = GlobalThreadPool.instance().scheduleAtFixedRate(Lane.CONTROL, "IMU", POLL_PERIOD, () ->
+            {
+                loopTimer.start();
+                poll();
+                loopTimer.end();
+            });
+        }
+        
+        private void poll()
+        {
+            HubExecutor io = executor;
+            if (io != null) io.run(read, this::update);
+            else if (read != null) read.run(this::update);
+            else update();
+        }
+        
+        public synchronized void stopPolling()
+        {
+            if (poller != null) poller.cancel();
+            poller = null;
         }
         
         public synchronized double getHeading()
@@ -344,9 +377,9 @@ public class IMU
             log.d("Trying to start IMU even though it is already running");
             return;
         }
-        worker.setStatus(STARTED);
+        worker.startPolling();
     
-        GlobalDataLogger.instance().addChannel("IMU Heading", () -> String.format("%.4f", getHeading()));
+        GlobalDataLogger.instance().addChannel("IMU Heading", worker.headingPub);
     }
 
     public int getStatus()
@@ -383,7 +416,8 @@ public class IMU
     {
         if (worker.getStatus() > CLOSED)
         {
-            if (worker.getStatus() > PRE_INIT) workerThread.interrupt();
+            if (workerThread != null) workerThread.interrupt(); // Still initializing
+            worker.stopPolling();
             worker.setStatus(CLOSED);
         }
     }
@@ -2,6 +2,10 @@ package org.firstinspires.ftc.teamcode.common.sensors;
 
 import org.firstinspires.ftc.teamcode.common.util.Logger;
 import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedDouble;
+import org.firstinspires.ftc.teamcode.common.util.metrics.LoopTimer;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Metrics;
 
 public class Odometry
 {
@@ -11,6 +15,8 @@ public class Odometry
     
     private volatile double prevEncX, prevEncY;
     private volatile double x, y;
+    private final PublishedDouble forwardPub = new PublishedDouble(0);
+    private final PublishedDouble strafePub = new PublishedDouble(0);
     
     private Logger log;
     
@@ -20,20 +26,13 @@ public class Odometry
         this.strafeEnc = strafe;
         this.imu = imu;
         log = new Logger("Odometry");
-        GlobalThreadPool.instance().start(() ->
+        LoopTimer loopTimer = Metrics.loop("Odometry", 10);
+        loopTimer.reset();
+        GlobalThreadPool.instance().scheduleAtFixedRate(Lane.CONTROL, "Odometry", 10, true, () ->
         {
-           while (true)
-           {
-               update();
-               try
-               {
-                   Thread.sleep(10);
-               }
-               catch (InterruptedException e)
-               {
-                   break;
-               }
-           }
+            loopTimer.start();
+            update();
+            loopTimer.end();
         });
     }
     
@@ -62,6 +61,8 @@ public class Odometry
         
         x += realDx;
         y += realDy;
+        forwardPub.set(x);
+        strafePub.set(-y);
         /*
         if (realDx != 0 || realDy != 0)
         {
@@ -84,5 +85,23 @@ public class Odometry
     {
         x = 0;
         y = 0;
+        forwardPub.set(0);
+        strafePub.set(0);
+    }
+    
+    /**
+     * @return The forward distance as of the last update, readable without locking
+     */
+    public PublishedDouble getPublishedForward()
+    {
+        return forwardPub;
+    }
+    
+    /**
+     * @return The strafe distance as of the last update, readable without locking
+     */
+    public PublishedDouble getPublishedStrafe()
+    {
+        return strafePub;
     }
 }
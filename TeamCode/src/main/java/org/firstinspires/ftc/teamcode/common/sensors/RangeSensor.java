@@ -5,57 +5,75 @@ import android.support.annotation.NonNull;
 import com.qualcomm.hardware.rev.Rev2mDistanceSensor;
 
 import org.firstinspires.ftc.robotcore.external.navigation.DistanceUnit;
+import org.firstinspires.ftc.teamcode.common.Robot;
+import org.firstinspires.ftc.teamcode.common.util.HubExecutor;
+import org.firstinspires.ftc.teamcode.common.util.Utils;
 import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
-
-import java.util.concurrent.Future;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PeriodicTask;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedDouble;
+import org.firstinspires.ftc.teamcode.common.util.metrics.BusMonitor;
+import org.firstinspires.ftc.teamcode.common.util.metrics.LoopTimer;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Metrics;
 
 public class RangeSensor
 {
     private Rev2mDistanceSensor sensor;
-    private volatile double currentValue;
-    private Future<?> daemon;
+    private final PublishedDouble currentValue = new PublishedDouble(0);
+    private PeriodicTask daemon;
+    private final HubExecutor io; // Reads on the hub's I/O thread if not null
+    private final BusMonitor.Probe read;
+    private final double[] window = new double[2];
+    private int idx;
 
     public RangeSensor(@NonNull Rev2mDistanceSensor sensor)
     {
         this.sensor = sensor;
-        daemon = GlobalThreadPool.instance().start(() ->
+        this.io = Robot.instance().getHubExecutor(sensor);
+        this.read = BusMonitor.probe(sensor, "RangeSensor read");
+        String name = "RangeSensor " + Utils.lookupConfigName(sensor, Robot.instance().hardwareMap);
+        LoopTimer loopTimer = Metrics.loop(name, 100);
+        loopTimer.reset();
+        daemon = GlobalThreadPool.instance().scheduleAtFixedRate(Lane.SENSOR, name, 100, true, () ->
         {
-            int winsize = 2;
-            double[] window = new double[winsize];
-            int idx = 0;
-            while (true)
-            {
-                window[idx] = sensor.getDistance(DistanceUnit.MM);
-                double avg = 0;
-                for (int i = 0; i < winsize; i++)
-                {
-                    avg += window[i];
-                }
-                avg /= winsize;
-                currentValue = avg;
-                idx++;
-                idx %= winsize;
-                try
-                {
-                    Thread.sleep(100);
-                }
-                catch (InterruptedException e)
-                {
-                    break;
-                }
-            }
+            loopTimer.start();
+            update();
+            loopTimer.end();
         });
-        
+    }
+    
+    private void update()
+    {
+        int winsize = window.length;
+        window[idx] = io == null ? read.callDouble(() -> sensor.getDistance(DistanceUnit.MM))
+                                 : io.call(read, () -> sensor.getDistance(DistanceUnit.MM));
+        double avg = 0;
+        for (int i = 0; i < winsize; i++)
+        {
+            avg += window[i];
+        }
+        avg /= winsize;
+        currentValue.set(avg);
+        idx++;
+        idx %= winsize;
     }
 
     // Returns distance in mm
     public double getDistance()
+    {
+        return currentValue.getAsDouble();
+    }
+    
+    /**
+     * @return The filtered distance in mm, as published by the polling thread
+     */
+    public PublishedDouble getPublishedDistance()
     {
         return currentValue;
     }
     
     public void disable()
     {
-        daemon.cancel(true);
+        daemon.cancel();
     }
 }
@@ -2,12 +2,15 @@ package org.firstinspires.ftc.teamcode.common.sensors;
 
 import com.qualcomm.robotcore.hardware.DigitalChannel;
 
+import org.firstinspires.ftc.teamcode.common.util.metrics.BusMonitor;
+
 /**
  * A wrapper around DigitalChannel to implement a physical button switch.
  */
 public class Switch
 {
     private final DigitalChannel channel;
+    private final BusMonitor.Probe read; // Null if the state comes from a snapshot
     private boolean inverted;
     private boolean lastState;
 
@@ -20,13 +23,22 @@ public class Switch
     {
         this.channel = channel;
         this.inverted = inverted;
+        this.read = channel instanceof CachedDigitalChannel ? null : BusMonitor.probe(channel, "Switch read");
     }
 
 
     public boolean pressed()
     {
-        if (inverted) return !channel.getState();
-        else return channel.getState();
+        if (read == null) return channel.getState() != inverted;
+        long start = read.start();
+        try
+        {
+            return channel.getState() != inverted;
+        }
+        finally
+        {
+            read.end(start);
+        }
     }
 
     public boolean released()
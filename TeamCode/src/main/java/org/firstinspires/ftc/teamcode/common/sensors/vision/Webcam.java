@@ -22,6 +22,7 @@ import org.firstinspires.ftc.robotcore.external.hardware.camera.controls.Exposur
 import org.firstinspires.ftc.robotcore.internal.system.Deadline;
 import org.firstinspires.ftc.robotcore.internal.system.Misc;
 import org.firstinspires.ftc.teamcode.common.util.Logger;
+import org.firstinspires.ftc.teamcode.common.util.Trace;
 
 import java.util.List;
 import java.util.concurrent.Executor;
@@ -61,10 +62,13 @@ public class Webcam
         log.d("Attempting to open camera (deadline=%d)", deadline);
         Deadline dl = new Deadline(deadline, TimeUnit.SECONDS);
         status = Status.OPENING;
+        Trace.begin("Webcam open");
         camera = manager.requestPermissionAndOpenCamera(dl, name, Continuation.create(executor, new StatusCallback()));
+        Trace.end();
         if (camera == null)
         {
             log.d("Open failed");
+            Trace.instant("Webcam open failed");
             status = Status.ERROR;
             return false;
         }
@@ -12,6 +12,7 @@ import org.firstinspires.ftc.robotcore.external.hardware.camera.controls.Exposur
 import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
 import org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger;
 import org.firstinspires.ftc.teamcode.common.util.Logger;
+import org.firstinspires.ftc.teamcode.common.util.Trace;
 import org.opencv.android.Utils;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
@@ -40,6 +41,14 @@ public class WebcamStream extends CameraStream
 
     @Override
     protected void init()
+    {
+        try (Trace.Scope s = Trace.scope("WebcamStream init"))
+        {
+            openCamera();
+        }
+    }
+
+    private void openCamera()
     {
         Logger log = new Logger("WebcamTest");
         List<WebcamName> webcams = Webcam.getConnectedWebcams();
@@ -118,7 +127,9 @@ public class WebcamStream extends CameraStream
             Utils.bitmapToMat(frame, mat);
             Imgproc.cvtColor(mat, mat, Imgproc.COLOR_RGBA2BGR);
 
+            Trace.begin("Process frame");
             Mat out = processFrame(mat);
+            Trace.end();
             
             final Bitmap outFrame = Bitmap.createBitmap(out.width(), out.height(), Bitmap.Config.ARGB_8888);
             Utils.matToBitmap(mat, outFrame);
@@ -0,0 +1,253 @@
+package org.firstinspires.ftc.teamcode.common.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Clip and time index for a {@link DataLogger} file. Built by scanning the file once and then
+ * saved next to it (as {@code <name>.idx}) so later opens can skip the scan. The index remembers
+ * the length and modification time of the file it was built from and is rebuilt if either one
+ * changes. Only used by {@link DataLogReader}.
+ * <p>
+ * Records in change-only clips have different sizes and only hold the values that changed, so for
+ * those clips the index also keeps a checkpoint every {@link #CHECKPOINT_INTERVAL} records: the
+ * record's offset and time, and the value of every channel just before it.
+ * </p>
+ */
+class DataLogIndex
+{
+    private static final int MAGIC = 0x4C4F4769; // "LOGi"
+    private static final int VERSION = 2;
+
+    static final int CHECKPOINT_INTERVAL = 256;
+
+    /**
+     * One clip: a run of records that share a time base
+     */
+    static final class Clip
+    {
+        final long offset;   // File offset of the first record
+        final int records;   // Number of complete records
+        final long startTime;
+        final long endTime;
+        final boolean changeOnly;
+
+        // Checkpoints for change-only clips; checkpoint i is record i * CHECKPOINT_INTERVAL
+        final long[] checkpointOffsets;
+        final long[] checkpointTimes;
+        final double[][] checkpointValues;
+
+        Clip(long offset, int records, long startTime, long endTime, boolean changeOnly,
+             long[] checkpointOffsets, long[] checkpointTimes, double[][] checkpointValues)
+        {
+            this.offset = offset;
+            this.records = records;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.changeOnly = changeOnly;
+            this.checkpointOffsets = checkpointOffsets;
+            this.checkpointTimes = checkpointTimes;
+            this.checkpointValues = checkpointValues;
+        }
+    }
+
+    // Accumulates one clip while scanning
+    private static final class ClipBuilder
+    {
+        final long offset;
+        final boolean changeOnly;
+        final double[] state;
+        int records;
+        long startTime, endTime;
+        final List<Long> offsets = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+        final List<double[]> values = new ArrayList<>();
+
+        ClipBuilder(long offset, boolean changeOnly, int channels)
+        {
+            this.offset = offset;
+            this.changeOnly = changeOnly;
+            this.state = new double[channels];
+            Arrays.fill(state, Double.NaN);
+        }
+
+        Clip build()
+        {
+            long[] o = new long[offsets.size()];
+            long[] t = new long[times.size()];
+            for (int i = 0; i < o.length; i++)
+            {
+                o[i] = offsets.get(i);
+                t[i] = times.get(i);
+            }
+            return new Clip(offset, records, startTime, endTime, changeOnly, o, t,
+                    values.toArray(new double[0][]));
+        }
+    }
+
+    final long sourceLength;
+    final long sourceModified;
+    final Clip[] clips;
+
+    private DataLogIndex(long sourceLength, long sourceModified, Clip[] clips)
+    {
+        this.sourceLength = sourceLength;
+        this.sourceModified = sourceModified;
+        this.clips = clips;
+    }
+
+    /**
+     * Size of the change bitmask in a change-only record
+     */
+    static int maskSize(int channels)
+    {
+        return (channels + 7) / 8;
+    }
+
+    /**
+     * Scan a mapped log file
+     * @param data      The mapped file
+     * @param dataStart The offset of the first byte after the header
+     * @param channels  The number of channels
+     */
+    static DataLogIndex build(ByteBuffer data, int dataStart, int channels, long length, long modified)
+    {
+        List<Clip> clips = new ArrayList<>();
+        int limit = data.limit();
+        int fullSize = 8 + 8 * channels;
+        int maskSize = maskSize(channels);
+        int pos = dataStart;
+        ClipBuilder clip = null;
+        while (pos + 8 <= limit)
+        {
+            long value = data.getLong(pos);
+            if (value == DataLogger.CLIP_MARKER || value == DataLogger.CHANGE_CLIP_MARKER)
+            {
+                if (clip != null) clips.add(clip.build());
+                pos += 8;
+                clip = new ClipBuilder(pos, value == DataLogger.CHANGE_CLIP_MARKER, channels);
+                continue;
+            }
+            if (clip == null) clip = new ClipBuilder(pos, false, channels); // Data before the first clip marker
+
+            int size = fullSize;
+            if (clip.changeOnly)
+            {
+                if (pos + 8 + maskSize > limit) break;
+                size = 8 + maskSize;
+                for (int i = 0; i < maskSize; i++) size += 8 * Integer.bitCount(data.get(pos + 8 + i) & 0xFF);
+                if (pos + size > limit) break; // Record cut off at the end of the file
+                // Only checkpoint records that are complete, so every checkpoint is a counted record
+                if (clip.records % CHECKPOINT_INTERVAL == 0)
+                {
+                    clip.offsets.add((long)pos);
+                    clip.times.add(value);
+                    clip.values.add(clip.state.clone());
+                }
+                int p = pos + 8 + maskSize;
+                for (int i = 0; i < channels; i++)
+                {
+                    if ((data.get(pos + 8 + (i >> 3)) & (1 << (i & 7))) == 0) continue;
+                    clip.state[i] = data.getDouble(p);
+                    p += 8;
+                }
+            }
+            else if (pos + size > limit) break; // Record cut off at the end of the file
+
+            if (clip.records == 0) clip.startTime = value;
+            clip.endTime = value;
+            clip.records++;
+            pos += size;
+        }
+        if (clip != null) clips.add(clip.build());
+        return new DataLogIndex(length, modified, clips.toArray(new Clip[0]));
+    }
+
+    /**
+     * Load a saved index
+     * @return The index, or null if it does not exist or was built from a different version of the
+     *         log file
+     */
+    static DataLogIndex load(File file, long length, long modified)
+    {
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            long sourceLength = in.readLong();
+            long sourceModified = in.readLong();
+            if (sourceLength != length || sourceModified != modified) return null;
+            int channels = in.readInt();
+            Clip[] clips = new Clip[in.readInt()];
+            for (int i = 0; i < clips.length; i++)
+            {
+                long offset = in.readLong();
+                int records = in.readInt();
+                long startTime = in.readLong();
+                long endTime = in.readLong();
+                boolean changeOnly = in.readBoolean();
+                int n = in.readInt();
+                long[] offsets = new long[n];
+                long[] times = new long[n];
+                double[][] values = new double[n][channels];
+                for (int j = 0; j < n; j++)
+                {
+                    offsets[j] = in.readLong();
+                    times[j] = in.readLong();
+                    for (int k = 0; k < channels; k++) values[j][k] = in.readDouble();
+                }
+                clips[i] = new Clip(offset, records, startTime, endTime, changeOnly, offsets, times, values);
+            }
+            return new DataLogIndex(sourceLength, sourceModified, clips);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Save the index. Failures are ignored; the index is simply rebuilt next time.
+     */
+    void save(File file, int channels)
+    {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceLength);
+            out.writeLong(sourceModified);
+            out.writeInt(channels);
+            out.writeInt(clips.length);
+            for (Clip c : clips)
+            {
+                out.writeLong(c.offset);
+                out.writeInt(c.records);
+                out.writeLong(c.startTime);
+                out.writeLong(c.endTime);
+                out.writeBoolean(c.changeOnly);
+                out.writeInt(c.checkpointOffsets.length);
+                for (int j = 0; j < c.checkpointOffsets.length; j++)
+                {
+                    out.writeLong(c.checkpointOffsets[j]);
+                    out.writeLong(c.checkpointTimes[j]);
+                    for (double v : c.checkpointValues[j]) out.writeDouble(v);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            file.delete();
+        }
+    }
+}
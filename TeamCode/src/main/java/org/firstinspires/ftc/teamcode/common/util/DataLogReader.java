@@ -0,0 +1,434 @@
+package org.firstinspires.ftc.teamcode.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Random-access reader for files written by {@link DataLogger}. Only uses plain Java so it can be
+ * run on a workstation as well as on the robot.
+ * <p>
+ * The file is memory-mapped, and a clip index is built on the first open and saved beside the log
+ * (see {@link DataLogIndex}). Records within a clip are sorted by time, so time lookups are binary
+ * searches rather than scans. All times are in nanoseconds since the start of their clip.
+ * </p>
+ * <p>
+ * Change-only clips are read from the nearest index checkpoint forward, so random access into
+ * them costs up to {@link DataLogIndex#CHECKPOINT_INTERVAL} record decodes; range queries decode
+ * each record once. A reader is not thread-safe.
+ * </p>
+ */
+public class DataLogReader implements Closeable
+{
+    /**
+     * Summary of one channel over a time range. NaN values are ignored.
+     */
+    public static final class Stats
+    {
+        public final int count;
+        public final double min;
+        public final double max;
+        public final double mean;
+
+        Stats(int count, double min, double max, double mean)
+        {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final ByteBuffer data;
+    private final String[] names;
+    private final int[] colors;
+    private final int recordSize;
+    private final DataLogIndex index;
+    private final Cursor cursor;
+
+    /**
+     * Decodes records one after another, keeping the current value of every channel so
+     * change-only records can be applied on top of it.
+     */
+    private final class Cursor
+    {
+        final double[] values;
+        DataLogIndex.Clip clip;
+        int clipIndex = -1;
+        int record = -1;
+        int position;
+        int size;
+        long time;
+
+        Cursor(int channels)
+        {
+            values = new double[channels];
+        }
+
+        /**
+         * Position the cursor on a record, reusing the current position when moving forward
+         */
+        void moveTo(int clip, int record)
+        {
+            DataLogIndex.Clip c = index.clips[clip];
+            if (record < 0 || record >= c.records) throw new IndexOutOfBoundsException("Record " + record);
+            if (!c.changeOnly)
+            {
+                this.clip = c;
+                clipIndex = clip;
+                this.record = record;
+                position = (int)(c.offset + (long)record * recordSize);
+                decode();
+                return;
+            }
+            if (clip != clipIndex || record < this.record
+                    || record - this.record > DataLogIndex.CHECKPOINT_INTERVAL)
+            {
+                int checkpoint = record / DataLogIndex.CHECKPOINT_INTERVAL;
+                this.clip = c;
+                clipIndex = clip;
+                this.record = checkpoint * DataLogIndex.CHECKPOINT_INTERVAL;
+                position = (int)c.checkpointOffsets[checkpoint];
+                System.arraycopy(c.checkpointValues[checkpoint], 0, values, 0, values.length);
+                decode();
+            }
+            while (this.record < record) next();
+        }
+
+        /**
+         * Move to the next record in the clip
+         * @return false if the cursor is on the last record
+         */
+        boolean next()
+        {
+            if (record + 1 >= clip.records) return false;
+            position += size;
+            record++;
+            decode();
+            return true;
+        }
+
+        private void decode()
+        {
+            time = data.getLong(position);
+            int p = position + 8;
+            if (!clip.changeOnly)
+            {
+                for (int i = 0; i < values.length; i++, p += 8) values[i] = data.getDouble(p);
+            }
+            else
+            {
+                int mask = position + 8;
+                p += DataLogIndex.maskSize(values.length);
+                for (int i = 0; i < values.length; i++)
+                {
+                    if ((data.get(mask + (i >> 3)) & (1 << (i & 7))) == 0) continue;
+                    values[i] = data.getDouble(p);
+                    p += 8;
+                }
+            }
+            size = p - position;
+        }
+    }
+
+    /**
+     * Open a log file, using its saved index if it is up to date
+     * @param file The file to read
+     * @throws IOException if the file can't be read or is not a data log
+     */
+    public DataLogReader(File file) throws IOException
+    {
+        this.file = new RandomAccessFile(file, "r");
+        try
+        {
+            long length = this.file.length();
+            if (length > Integer.MAX_VALUE) throw new IOException("Data log too large to map: " + file);
+            data = this.file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+            byte[] magic = new byte[4];
+            data.get(magic);
+            if (!"LOGp".equals(new String(magic, Charset.forName("UTF-8"))))
+                throw new IOException("Not a data log: " + file);
+            int n = data.getInt();
+            names = new String[n];
+            colors = new int[n];
+            ByteArrayOutputStream name = new ByteArrayOutputStream();
+            for (int i = 0; i < n; i++)
+            {
+                colors[i] = data.getInt();
+                name.reset();
+                for (byte b = data.get(); b != 0; b = data.get()) name.write(b);
+                names[i] = new String(name.toByteArray(), Charset.forName("UTF-8"));
+            }
+            recordSize = 8 + 8 * n;
+            cursor = new Cursor(n);
+
+            File indexFile = new File(file.getPath() + ".idx");
+            DataLogIndex idx = DataLogIndex.load(indexFile, length, file.lastModified());
+            if (idx == null)
+            {
+                idx = DataLogIndex.build(data, data.position(), n, length, file.lastModified());
+                idx.save(indexFile, n);
+            }
+            index = idx;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    public int getChannelCount()
+    {
+        return names.length;
+    }
+
+    public String getChannelName(int channel)
+    {
+        return names[channel];
+    }
+
+    public int getChannelColor(int channel)
+    {
+        return colors[channel];
+    }
+
+    /**
+     * Find a channel by name
+     * @return The channel index, or -1 if there is no such channel
+     */
+    public int getChannel(String name)
+    {
+        for (int i = 0; i < names.length; i++)
+        {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    public int getClipCount()
+    {
+        return index.clips.length;
+    }
+
+    public int getRecordCount(int clip)
+    {
+        return index.clips[clip].records;
+    }
+
+    /**
+     * @return The time of the first record in the clip
+     */
+    public long getClipStart(int clip)
+    {
+        return index.clips[clip].startTime;
+    }
+
+    /**
+     * @return The time of the last record in the clip
+     */
+    public long getClipEnd(int clip)
+    {
+        return index.clips[clip].endTime;
+    }
+
+    /**
+     * @return Whether the clip was recorded with change-only records
+     */
+    public boolean isChangeOnly(int clip)
+    {
+        return index.clips[clip].changeOnly;
+    }
+
+    public long getTime(int clip, int record)
+    {
+        DataLogIndex.Clip c = index.clips[clip];
+        if (!c.changeOnly)
+        {
+            if (record < 0 || record >= c.records) throw new IndexOutOfBoundsException("Record " + record);
+            return data.getLong((int)(c.offset + (long)record * recordSize));
+        }
+        cursor.moveTo(clip, record);
+        return cursor.time;
+    }
+
+    /**
+     * Get the value of a channel at a record. In a change-only clip, this is the last value
+     * recorded at or before the record.
+     */
+    public double getValue(int clip, int record, int channel)
+    {
+        DataLogIndex.Clip c = index.clips[clip];
+        if (!c.changeOnly)
+        {
+            if (record < 0 || record >= c.records) throw new IndexOutOfBoundsException("Record " + record);
+            return data.getDouble((int)(c.offset + (long)record * recordSize) + 8 + 8 * channel);
+        }
+        cursor.moveTo(clip, record);
+        return cursor.values[channel];
+    }
+
+    /**
+     * Find the first record at or after a time
+     * @param clip The clip to search
+     * @param time The time, in nanoseconds since the start of the clip
+     * @return The record index, or {@link #getRecordCount(int)} if every record is earlier
+     */
+    public int findRecord(int clip, long time)
+    {
+        DataLogIndex.Clip c = index.clips[clip];
+        if (!c.changeOnly)
+        {
+            int lo = 0, hi = c.records;
+            while (lo < hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                if (getTime(clip, mid) < time) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        // Find the last checkpoint before the time, then walk forward from it
+        int lo = 0, hi = c.checkpointTimes.length;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (c.checkpointTimes[mid] < time) lo = mid + 1;
+            else hi = mid;
+        }
+        if (lo == 0) return 0;
+        int record = (lo - 1) * DataLogIndex.CHECKPOINT_INTERVAL;
+        cursor.moveTo(clip, record);
+        while (cursor.time < time)
+        {
+            if (!cursor.next()) return c.records;
+        }
+        return cursor.record;
+    }
+
+    /**
+     * Position the cursor on the first record at or after a time
+     * @return false if there is no such record
+     */
+    private boolean seek(int clip, long time)
+    {
+        int record = findRecord(clip, time);
+        if (record >= index.clips[clip].records) return false;
+        cursor.moveTo(clip, record);
+        return true;
+    }
+
+    /**
+     * Copy the samples of one channel in a time range
+     * @param clip    The clip to read
+     * @param channel The channel to read
+     * @param start   The start of the range (inclusive)
+     * @param end     The end of the range (exclusive)
+     * @param times   Receives the record times
+     * @param values  Receives the values; must be at least as long as {@code times}
+     * @return The number of samples copied. Stops early if the arrays fill up.
+     */
+    public int read(int clip, int channel, long start, long end, long[] times, double[] values)
+    {
+        int count = 0;
+        if (!seek(clip, start)) return 0;
+        do
+        {
+            if (cursor.time >= end || count >= times.length) break;
+            times[count] = cursor.time;
+            values[count] = cursor.values[channel];
+            count++;
+        } while (cursor.next());
+        return count;
+    }
+
+    /**
+     * Compute the min, max and mean of a channel over a time range
+     * @param clip    The clip to read
+     * @param channel The channel to summarize
+     * @param start   The start of the range (inclusive)
+     * @param end     The end of the range (exclusive)
+     * @return The statistics; min, max and mean are NaN if there are no samples
+     */
+    public Stats getStats(int clip, int channel, long start, long end)
+    {
+        int count = 0;
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, sum = 0;
+        if (seek(clip, start))
+        {
+            do
+            {
+                if (cursor.time >= end) break;
+                double v = cursor.values[channel];
+                if (Double.isNaN(v)) continue;
+                if (v < min) min = v;
+                if (v > max) max = v;
+                sum += v;
+                count++;
+            } while (cursor.next());
+        }
+        if (count == 0) return new Stats(0, Double.NaN, Double.NaN, Double.NaN);
+        return new Stats(count, min, max, sum / count);
+    }
+
+    /**
+     * Downsample a channel for plotting. The range is split into {@code times.length} equal
+     * buckets, and each bucket keeps the minimum and maximum of its samples so peaks survive.
+     * @param clip    The clip to read
+     * @param channel The channel to downsample
+     * @param start   The start of the range (inclusive)
+     * @param end     The end of the range (exclusive)
+     * @param times   Receives the start time of each bucket; its length is the number of buckets
+     * @param mins    Receives the minimum of each bucket (NaN if the bucket is empty)
+     * @param maxs    Receives the maximum of each bucket (NaN if the bucket is empty)
+     * @return The number of buckets that contain samples
+     */
+    public int downsample(int clip, int channel, long start, long end, long[] times, double[] mins, double[] maxs)
+    {
+        int buckets = times.length;
+        double width = (double)(end - start) / buckets;
+        for (int b = 0; b < buckets; b++)
+        {
+            times[b] = start + (long)(b * width);
+            mins[b] = Double.NaN;
+            maxs[b] = Double.NaN;
+        }
+
+        int filled = 0;
+        if (!seek(clip, start)) return 0;
+        do
+        {
+            long t = cursor.time;
+            if (t >= end) break;
+            double v = cursor.values[channel];
+            if (Double.isNaN(v)) continue;
+            int b = Math.min((int)((t - start) / width), buckets - 1);
+            if (Double.isNaN(mins[b]))
+            {
+                mins[b] = v;
+                maxs[b] = v;
+                filled++;
+            }
+            else
+            {
+                if (v < mins[b]) mins[b] = v;
+                if (v > maxs[b]) maxs[b] = v;
+            }
+        } while (cursor.next());
+        return filled;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        file.close();
+    }
+}
@@ -7,9 +7,32 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Writes "LOGp" files: a header with the channel names and colors, followed by clips of
+ * timestamped samples. Each clip starts with a marker, and each record is
+ * {@code [long nanoseconds since the clip started]} followed by the channel values:
+ * <ul>
+ *     <li>In a normal clip (marker {@link #CLIP_MARKER}), every channel as a double.</li>
+ *     <li>In a change-only clip (marker {@link #CHANGE_CLIP_MARKER}), a bitmask of
+ *     {@code (channels + 7) / 8} bytes (bit {@code i % 8} of byte {@code i / 8} set if channel
+ *     {@code i} changed) followed by doubles for only the changed channels. The first record of a
+ *     clip has every bit set.</li>
+ * </ul>
+ * Use {@link DataLogReader} to read the files back.
+ */
 public class DataLogger implements AutoCloseable
 {
+    /**
+     * Starts a clip of full records. This is the NaN written by {@code writeDouble(Double.NaN)}.
+     */
+    public static final long CLIP_MARKER = 0x7FF8000000000000L;
+    /**
+     * Starts a clip of change-only records. Also a NaN, with a different payload.
+     */
+    public static final long CHANGE_CLIP_MARKER = 0x7FF8000000000001L;
 
     private File file;
     private DataOutputStream logger;
@@ -18,6 +41,21 @@ public class DataLogger implements AutoCloseable
     private volatile Thread logThread;
     private volatile boolean error = false;
 
+    // Change-only encoding
+    private volatile boolean changeOnlyRequested;
+    private boolean changeOnly;
+    private boolean firstRecord;
+    private double[] previous;
+    private byte[] mask;
+
+    // Rate statistics; written by the logging thread
+    private volatile long samples;
+    private volatile long overruns;
+    private volatile long loopStart;
+    private volatile long lastSample;
+    private volatile long jitterSum;
+    private volatile long jitterMax;
+
     private Logger log = new Logger("DataLogger");
 
     public static class Channel
@@ -44,6 +82,8 @@ public class DataLogger implements AutoCloseable
             this.file = f;
             logger = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
             numChannels = channels.length;
+            previous = new double[numChannels];
+            mask = new byte[(numChannels + 7) / 8];
             writeHeader(channels);
         }
         catch (IOException e)
@@ -66,12 +106,17 @@ public class DataLogger implements AutoCloseable
         }
     }
 
+    /**
+     * Start a new clip. Times in the clip are relative to this call.
+     */
     public synchronized void startClip()
     {
         if (error) return;
         try
         {
-            logger.writeDouble(Double.NaN);
+            changeOnly = changeOnlyRequested;
+            firstRecord = true;
+            logger.writeLong(changeOnly ? CHANGE_CLIP_MARKER : CLIP_MARKER);
             clipStart = System.nanoTime();
         }
         catch (IOException e)
@@ -89,6 +134,11 @@ public class DataLogger implements AutoCloseable
         try
         {
             logger.writeLong(System.nanoTime() - clipStart);
+            if (changeOnly)
+            {
+                writeChanges(data);
+                return;
+            }
             for (double d : data)
             {
                 logger.writeDouble(d);
@@ -102,18 +152,101 @@ public class DataLogger implements AutoCloseable
         }
     }
 
+    private void writeChanges(double[] data) throws IOException
+    {
+        int changed = 0;
+        Arrays.fill(mask, (byte)0);
+        for (int i = 0; i < numChannels; i++)
+        {
+            if (firstRecord || Double.doubleToRawLongBits(data[i]) != Double.doubleToRawLongBits(previous[i]))
+            {
+                mask[i >> 3] |= 1 << (i & 7);
+                changed++;
+            }
+        }
+        logger.write(mask);
+        if (changed == 0) return;
+        for (int i = 0; i < numChannels; i++)
+        {
+            if ((mask[i >> 3] & (1 << (i & 7))) != 0)
+            {
+                logger.writeDouble(data[i]);
+                previous[i] = data[i];
+            }
+        }
+        firstRecord = false;
+    }
+
+    /**
+     * Start sampling on a background thread as fast as possible. Prefer
+     * {@link #startLogging(LogCallback, double, boolean)}; this variant keeps a CPU core busy.
+     * @param callback Fills in the sample array. The same array is reused for every sample.
+     */
     public synchronized void startLogging(final LogCallback callback)
+    {
+        startLogging(callback, 0, false);
+    }
+
+    /**
+     * Start sampling on a background thread at a fixed rate. Deadlines are kept on a fixed
+     * {@link System#nanoTime()} grid, so the rate does not drift; if a sample takes longer than a
+     * period, the missed periods are skipped and counted as overruns.
+     * @param callback   Fills in the sample array. The same array is reused for every sample.
+     * @param hz         The target sample rate; 0 or less to sample as fast as possible
+     * @param changeOnly Whether to only record the channels that changed since the previous sample.
+     *                   Takes effect at the next {@link #startClip()}.
+     */
+    public synchronized void startLogging(final LogCallback callback, double hz, boolean changeOnly)
     {
         if (logThread != null) throw new IllegalStateException("Logging thread already running!");
         if (error) return;
+        changeOnlyRequested = changeOnly;
+        final long period = hz > 0 ? (long)(1e9 / hz) : 0;
+        final double[] sample = new double[numChannels];
+        samples = 0;
+        overruns = 0;
+        jitterSum = 0;
+        jitterMax = 0;
         logThread = new Thread(() ->
         {
-            while (!Thread.interrupted())
+            long deadline = System.nanoTime();
+            loopStart = deadline;
+            sampling:
+            while (!Thread.currentThread().isInterrupted())
+            {
+                long now = System.nanoTime();
+                long late = now - deadline;
+                callback.putData(sample);
+                log(sample);
+                lastSample = now;
+                samples++;
+                if (period == 0)
+                {
+                    Thread.yield();
+                    continue;
+                }
+                jitterSum += late;
+                if (late > jitterMax) jitterMax = late;
+
+                deadline += period;
+                now = System.nanoTime();
+                if (now >= deadline)
+                {
+                    long missed = (now - deadline) / period + 1;
+                    overruns += missed;
+                    deadline += missed * period;
+                }
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0)
+                {
+                    LockSupport.parkNanos(remaining);
+                    if (Thread.currentThread().isInterrupted()) break sampling;
+                }
+            }
+            if (period > 0)
             {
-                double[] channels = new double[numChannels];
-                callback.putData(channels);
-                log(channels);
-                Thread.yield();
+                log.i("Sampled at %.1f Hz (target %.1f Hz); jitter mean %.3f ms, max %.3f ms; %d overruns",
+                        getAchievedRate(), hz, getMeanJitter(), getMaxJitter(), overruns);
             }
             logThread = null;
         });
@@ -154,4 +287,38 @@ public class DataLogger implements AutoCloseable
     {
         return error;
     }
+
+    /**
+     * @return The number of samples per second actually taken by the logging thread
+     */
+    public double getAchievedRate()
+    {
+        long elapsed = lastSample - loopStart;
+        return elapsed > 0 ? (samples - 1) * 1e9 / elapsed : 0;
+    }
+
+    /**
+     * @return The average time, in milliseconds, that the logging thread woke up after its deadline
+     */
+    public double getMeanJitter()
+    {
+        long n = samples;
+        return n > 0 ? jitterSum / 1e6 / n : 0;
+    }
+
+    /**
+     * @return The longest time, in milliseconds, that the logging thread woke up after its deadline
+     */
+    public double getMaxJitter()
+    {
+        return jitterMax / 1e6;
+    }
+
+    /**
+     * @return The number of sample periods skipped because sampling took longer than the period
+     */
+    public long getOverruns()
+    {
+        return overruns;
+    }
 }
@@ -0,0 +1,354 @@
+package org.firstinspires.ftc.teamcode.common.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads files written by {@link GlobalDataLogger}. Only uses plain Java so it can be run on a
+ * laptop as well as on the robot.
+ * <p>
+ * Chunks are read in order until the end of the file, a chunk that has not been completely
+ * written yet, or a chunk that fails its CRC check. Everything before that point is delivered to
+ * the {@link Listener}, so a log cut off by a crash is still readable up to its last flush.
+ * Calling {@link #poll(Listener)} again resumes from where the last call stopped, which can be used
+ * to follow a log while it is being written.
+ * </p>
+ */
+public class GlobalDataLogReader implements Closeable
+{
+    /**
+     * Receives the contents of a log as it is read
+     */
+    public interface Listener
+    {
+        /**
+         * Called when a channel is defined, before any sample that contains it
+         * @param id   The index of the channel in each sample
+         * @param type One of the GlobalDataLogger.TYPE_ constants
+         * @param name The name of the channel
+         */
+        void channelAdded(int id, int type, String name);
+
+        /**
+         * Called for each data record. Only the channels that were sampled on that tick are
+         * included. The arrays are reused between calls.
+         * @param time   Nanoseconds since the logger started
+         * @param fps    The sampling rate reported by the logger
+         * @param count  The number of values in this record
+         * @param ids    The channel of each value
+         * @param times  The time each value was read, in nanoseconds since the logger started
+         * @param values Raw values. Doubles are stored as their raw long bits, booleans as 0 or 1 and
+         *               interned strings as an id for {@link #getString(int)}.
+         * @param text   Values of legacy text channels; null for every other type
+         */
+        void sample(long time, double fps, int count, int[] ids, long[] times, long[] values, String[] text);
+    }
+
+    private static final int MAGIC_LENGTH = 4;
+    private static final int CHUNK_MAGIC = 0x43484E4B;
+    private static final int CHUNK_HEADER = 16;
+
+    private final RandomAccessFile file;
+    private final int version;
+    private final long startMillis;
+    private final List<String> names = new ArrayList<>();
+    private final List<Integer> types = new ArrayList<>();
+    private final List<String> strings = new ArrayList<>();
+    private final Inflater inflater = new Inflater();
+    private final CRC32 crc = new CRC32();
+    private final byte[] chunkHeader = new byte[CHUNK_HEADER];
+
+    private long offset;
+    private boolean headerDelivered;
+    private boolean ended;
+    private boolean corrupt;
+    private byte[] compressed = new byte[65536];
+    private byte[] raw = new byte[65536];
+    private int[] ids = new int[GlobalDataLogger.MAX_CHANNELS];
+    private long[] times = new long[GlobalDataLogger.MAX_CHANNELS];
+    private long[] values = new long[GlobalDataLogger.MAX_CHANNELS];
+    private String[] text = new String[GlobalDataLogger.MAX_CHANNELS];
+
+    /**
+     * Open a log file and read its header
+     * @param file The file to read
+     * @throws IOException if the file can't be read or is not a data log
+     */
+    public GlobalDataLogReader(File file) throws IOException
+    {
+        this.file = new RandomAccessFile(file, "r");
+        try
+        {
+            byte[] magic = new byte[MAGIC_LENGTH];
+            this.file.readFully(magic);
+            if (!"GDLc".equals(new String(magic, "US-ASCII")))
+                throw new IOException("Not a chunked data log: " + file);
+            version = this.file.readInt();
+            if (version != 2 && version != 3) throw new IOException("Unsupported data log version " + version);
+            startMillis = this.file.readLong();
+            int n = this.file.readUnsignedShort();
+            for (int i = 0; i < n; i++)
+            {
+                types.add((int)this.file.readByte());
+                names.add(this.file.readUTF());
+            }
+            offset = this.file.getFilePointer();
+        }
+        catch (IOException e)
+        {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read every complete chunk that has been written since the last call
+     * @param listener Where to send the channels and samples
+     * @return The number of chunks read
+     * @throws IOException if the file can't be read
+     */
+    public int poll(Listener listener) throws IOException
+    {
+        if (!headerDelivered)
+        {
+            for (int i = 0; i < names.size(); i++) listener.channelAdded(i, types.get(i), names.get(i));
+            headerDelivered = true;
+        }
+
+        int chunks = 0;
+        while (!ended && !corrupt)
+        {
+            long length = file.length();
+            if (length - offset < CHUNK_HEADER) break;
+            file.seek(offset);
+            file.readFully(chunkHeader);
+            DataInputStream header = new DataInputStream(new ByteArrayInputStream(chunkHeader));
+            int magic = header.readInt();
+            int rawLength = header.readInt();
+            int compressedLength = header.readInt();
+            int checksum = header.readInt();
+            if (magic != CHUNK_MAGIC || rawLength < 0 || compressedLength < 0)
+            {
+                corrupt = true;
+                break;
+            }
+            if (length - offset - CHUNK_HEADER < compressedLength) break; // Not completely written yet
+
+            if (compressed.length < compressedLength) compressed = new byte[compressedLength];
+            file.readFully(compressed, 0, compressedLength);
+            crc.reset();
+            crc.update(compressed, 0, compressedLength);
+            if ((int)crc.getValue() != checksum)
+            {
+                corrupt = true;
+                break;
+            }
+
+            if (raw.length < rawLength) raw = new byte[rawLength];
+            inflater.reset();
+            inflater.setInput(compressed, 0, compressedLength);
+            try
+            {
+                if (inflater.inflate(raw, 0, rawLength) != rawLength)
+                {
+                    corrupt = true;
+                    break;
+                }
+            }
+            catch (DataFormatException e)
+            {
+                corrupt = true;
+                break;
+            }
+
+            readRecords(new DataInputStream(new ByteArrayInputStream(raw, 0, rawLength)), listener);
+            offset += CHUNK_HEADER + compressedLength;
+            chunks++;
+        }
+        return chunks;
+    }
+
+    /**
+     * Read the whole file, stopping at the first incomplete or damaged chunk
+     * @param listener Where to send the channels and samples
+     * @throws IOException if the file can't be read
+     */
+    public void readAll(Listener listener) throws IOException
+    {
+        while (poll(listener) > 0);
+    }
+
+    private void readRecords(DataInputStream in, Listener listener) throws IOException
+    {
+        try
+        {
+            while (in.available() > 0)
+            {
+                int tag = in.readByte();
+                switch (tag)
+                {
+                    case 'C':
+                    {
+                        int id = in.readUnsignedShort();
+                        int type = in.readByte();
+                        String name = in.readUTF();
+                        while (names.size() <= id)
+                        {
+                            names.add(null);
+                            types.add(0);
+                        }
+                        names.set(id, name);
+                        types.set(id, type);
+                        listener.channelAdded(id, type, name);
+                        break;
+                    }
+                    case 'S':
+                    {
+                        int id = in.readInt();
+                        String value = in.readUTF();
+                        while (strings.size() <= id) strings.add(null);
+                        strings.set(id, value);
+                        break;
+                    }
+                    case 'D':
+                        readSample(in, listener, false);
+                        break;
+                    case 'P':
+                        readSample(in, listener, true);
+                        break;
+                    case 'E':
+                        ended = true;
+                        return;
+                    default:
+                        corrupt = true;
+                        return;
+                }
+            }
+        }
+        catch (EOFException e)
+        {
+            corrupt = true; // A record was cut off inside a chunk that passed its CRC check
+        }
+    }
+
+    private void readSample(DataInputStream in, Listener listener, boolean sparse) throws IOException
+    {
+        long time = in.readLong();
+        double fps = in.readDouble();
+        int count = in.readUnsignedShort();
+        if (values.length < count)
+        {
+            ids = new int[count];
+            times = new long[count];
+            values = new long[count];
+            text = new String[count];
+        }
+        Arrays.fill(text, 0, count, null);
+        for (int i = 0; i < count; i++)
+        {
+            ids[i] = sparse ? in.readUnsignedShort() : i;
+            times[i] = sparse ? time + in.readInt() : time;
+            switch (types.get(ids[i]))
+            {
+                case GlobalDataLogger.TYPE_DOUBLE:
+                case GlobalDataLogger.TYPE_LONG:
+                    values[i] = in.readLong();
+                    break;
+                case GlobalDataLogger.TYPE_BOOLEAN:
+                    values[i] = in.readByte();
+                    break;
+                case GlobalDataLogger.TYPE_STRING:
+                    values[i] = in.readInt();
+                    break;
+                default:
+                    values[i] = 0;
+                    text[i] = in.readUTF();
+                    break;
+            }
+        }
+        listener.sample(time, fps, count, ids, times, values, text);
+    }
+
+    /**
+     * @return The wall-clock time the logger started, in milliseconds since the epoch
+     */
+    public long getStartMillis()
+    {
+        return startMillis;
+    }
+
+    /**
+     * @return The format version from the file header
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    public int getChannelCount()
+    {
+        return names.size();
+    }
+
+    public String getChannelName(int id)
+    {
+        return names.get(id);
+    }
+
+    public int getChannelType(int id)
+    {
+        return types.get(id);
+    }
+
+    /**
+     * Look up an interned string value
+     * @param id The value of a string channel in a sample
+     * @return The string, or null if it has not been read yet
+     */
+    public String getString(int id)
+    {
+        return id >= 0 && id < strings.size() ? strings.get(id) : null;
+    }
+
+    /**
+     * @return true once the end-of-log record has been read
+     */
+    public boolean isEnded()
+    {
+        return ended;
+    }
+
+    /**
+     * @return true if reading stopped at a chunk that was damaged rather than just incomplete
+     */
+    public boolean isCorrupt()
+    {
+        return corrupt;
+    }
+
+    /**
+     * @return The file offset just past the last chunk that was read
+     */
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        inflater.end();
+        file.close();
+    }
+}
@@ -4,81 +4,141 @@ import android.support.annotation.NonNull;
 import android.util.Log;
 
 import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.OverflowPolicy;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PeriodicTask;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedDouble;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedLong;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Metrics;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.SampleRing;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Date;
-import java.util.List;
-import java.util.Vector;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 /**
- * Global Data Logger -- Writes gzipped text files that follow this format: <br>
+ * Global Data Logger -- Writes crash-safe binary files made up of a header block followed by
+ * independently compressed chunks: <br>
  * <pre><code>
- *     [time]   data1   data2   data3   ... data(n)
- *     [time]   data1   data2   data3   ... data(n)
+ *     "GDLc" [int version] [long start time (ms since epoch)] [short n]    -- header block
+ *         [byte type] [UTF name]   (channels 0 to n-1)
+ *     [int "CHNK"] [int raw length] [int compressed length] [int CRC32] [deflated records]
+ *     [int "CHNK"] ...
+ * </code></pre>
+ * Chunks are flushed to the file every {@link #setFlushInterval(int) few hundred milliseconds}.
+ * The CRC32 covers the compressed bytes, so a reader can recover everything up to the last
+ * complete chunk of a log that was cut off by a crash, and it can read a log while it is still
+ * being written (see {@link GlobalDataLogReader}). Inside the chunks are tagged records:
+ * <pre><code>
+ *     'C' [short id] [byte type] [UTF name]               -- channel added after the header
+ *     'S' [int id] [UTF string]                           -- string table entry
+ *     'P' [long time] [double fps] [short k] entry(0) ... entry(k-1)
+ *         entry: [short id] [int time offset] value
  *     ...
- *     name1    name2   name3   ... name(n)
+ *     'E'                                                 -- end of log
  * </code></pre>
  * <p>
- * Fields are separated by tabs, times are in nanoseconds since the logger started, and the channel
- * headings are listed at the end of the file.
+ * All numbers are big-endian, as written by {@link DataOutputStream}. Times are in nanoseconds
+ * since the logger started. A channel definition (in the header or in a 'C' record) is always
+ * written before the first data record that contains it.
  * </p>
  * <p>
- * Channels may be added at any time, but they may not be removed for the lifetime of the logger. As
- * channels are added, they will appear as additional columns, like so: <br>
+ * Channels may be added at any time, but they may not be removed for the lifetime of the logger.
+ * Each channel is sampled at most once per {@link Channel#setPeriod(int) period}; by default, that
+ * is on every tick of the logger. A data record only contains the channels that were due on that
+ * tick, each with the time it was actually read (in nanoseconds after the record's time), so slow
+ * channels are not repeated with stale values. Version 2 files used dense 'D' records instead:
+ * {@code 'D' [long time] [double fps] [short n] value(0) ... value(n-1)}. Each value has a fixed
+ * width determined by the type of its channel:
  * <pre><code>
- *     [time]   data1
- *     ...
- *     [time]   data1
- *        (new channel added)
- *     [time]   data1   data2
- *     ...
- *     name1    name2   ... name(n)
+ *     TYPE_DOUBLE   8 bytes   (NaN on error)
+ *     TYPE_LONG     8 bytes   (Long.MIN_VALUE on error)
+ *     TYPE_BOOLEAN  1 byte    (0 or 1; -1 on error)
+ *     TYPE_STRING   4 bytes   (string table id; -1 on error)
+ *     TYPE_TEXT     UTF       (legacy {@link Callable Callable&lt;String&gt;} channels only)
  * </code></pre>
  * </p>
  * <p>
- * Inside fields, some characters are escaped to avoid ambiguity:
- * <pre><code>
- *     \ (backslash)   -> \\
- *     (tab)           -> \t
- * </code></pre>
+ * Prefer the primitive {@code addChannel} overloads; they do not allocate while sampling. Text
+ * channels are still supported, but they format a new string on every sample.
+ * </p>
+ * <p>
+ * Callbacks run on the logger thread, so a callback that reads a sensor or motor adds its own
+ * traffic to the hub on every sample. Control loops should instead publish the values they already
+ * compute into a {@link PublishedDouble} or {@link PublishedLong} and register that as the channel.
+ * Any other ("pull") channel is listed as possibly hardware-touching when the logger starts.
+ * </p>
+ * <p>
+ * Sampling and writing run on separate threads connected by a preallocated {@link SampleRing}, so
+ * compression and slow storage do not stretch the sample period. If the writer falls behind, the
+ * ring's {@link OverflowPolicy} decides which samples are lost; the ring occupancy and the number
+ * of dropped samples are logged as channels of their own.
  * </p>
  */
 public class GlobalDataLogger
 {
+    public static final int TYPE_DOUBLE  = 1;
+    public static final int TYPE_LONG    = 2;
+    public static final int TYPE_BOOLEAN = 3;
+    public static final int TYPE_STRING  = 4;
+    public static final int TYPE_TEXT    = 5;
+
+    private static final int VERSION = 3;
+    private static final int CHUNK_MAGIC = 0x43484E4B; // "CHNK"
+    private static final int MAX_CHUNK_SIZE = 65536;
+
+    /**
+     * The maximum number of channels that can be logged
+     */
+    public static final int MAX_CHANNELS = 256;
+    private static final int RING_SLOTS = 256;
+    // Slot layout: [time] [fps] [channel count] [k] then k * ([id] [time offset] [value])
+    private static final int SLOT_HEADER = 4;
+    private static final int SLOT_ENTRY = 3;
+
+    private static volatile GlobalDataLogger instance; // Written with the class locked
     
-    private static GlobalDataLogger instance;
-    
+    // Never opens a file or allocates buffers; created once, on first use
     private static class DummyDataLogger extends GlobalDataLogger
     {
+        static final DummyDataLogger INSTANCE = new DummyDataLogger();
     
-        private DummyDataLogger() throws IOException
+        private DummyDataLogger()
         {
-            super("/dev/null");
+            super();
         }
-    
+
         @Override
-        public synchronized void addChannel(String name, Callable<String> callback)
+        synchronized Channel addChannel(Channel channel)
         {
-            log.w("Not adding channel: %s", name);
+            log.w("Not adding channel: %s", channel.name);
+            return channel;
         }
-    
+
         @Override
         public synchronized void start(int interval) { }
+
+        @Override
+        public synchronized void start(int interval, OverflowPolicy policy) { }
     
         @Override
         public synchronized void stop() { }
     }
-    
+
     /**
      * Get the current GlobalDataLogger. Returns a dummy if the logger is closed or has not been
      * initialized yet.
@@ -90,25 +150,18 @@ public class GlobalDataLogger
         if (instance == null)
         {
             Log.w("GlobalDataLogger", "Returning dummy logger");
-            try
-            {
-                return new DummyDataLogger();
-            } catch (IOException e)
-            {
-                Log.e("GlobalDataLogger", "Failed to create dummy logger");
-                return null; // This should never happen
-            }
+            return DummyDataLogger.INSTANCE;
         }
         return instance;
     }
-    
+
     /**
      * Initialize the data logger. Closes any running
      * @param filename The path of the file to write to
      * @return The newly created logger
      * @throws IOException if an error occurs while opening the file
      */
-    public static GlobalDataLogger initialize(String filename) throws IOException
+    public static synchronized GlobalDataLogger initialize(String filename) throws IOException
     {
         if (instance != null) instance.stop();
         instance = new GlobalDataLogger(filename);
@@ -119,151 +172,594 @@ public class GlobalDataLogger
     private static void init()
     {
         VMStats stats = new VMStats(1); // Add VMStats logs
-        instance().addChannel("GlobalThreadPool Thread Count", () -> "" + GlobalThreadPool.instance().getTaskCount());
+        instance().addChannel("GlobalThreadPool Thread Count", () -> GlobalThreadPool.instance().getTaskCount()).setPeriod(100);
+        instance().addChannel("Logger Ring Occupancy", instance::getRingOccupancy).setPeriod(100);
+        instance().addChannel("Logger Dropped Samples", instance::getDroppedSamples).setPeriod(100);
+        Metrics.exportTo(instance, 100);
     }
-    
-    private final Writer writer;
-    private volatile List<Channel> channels;
-    private Future<?> logDaemon;
+
+    private final DataOutputStream file;
+    private final ChunkBuffer chunk;
+    private final DataOutputStream writer;
+    private volatile Channel[] channels;
+    private PeriodicTask logDaemon;
+    private long sampleStart;
+    private volatile SampleRing ring;
+    private volatile boolean sampling;
+    private final CountDownLatch closed = new CountDownLatch(1);
     protected Logger log;
-    
-    private class Channel
+
+    // String table; written by the sampler, read by the writer
+    private final Map<String, Integer> strings = new HashMap<>();
+    private volatile String[] stringTable = new String[16];
+    private volatile int stringCount;
+
+    // Writer state; only touched by the writer thread
+    private int channelsWritten;
+    private int stringsWritten;
+    private boolean headerWritten;
+    private long startMillis;
+    private volatile int flushInterval = 250;
+    private Deflater deflater; // Created on first use so dummy loggers don't hold native memory
+    private final CRC32 crc = new CRC32();
+    private byte[] compressed;
+
+    // Exposes the internal buffer so chunks can be compressed without copying
+    private static class ChunkBuffer extends ByteArrayOutputStream
+    {
+        ChunkBuffer()
+        {
+            super(MAX_CHUNK_SIZE + 4096);
+        }
+
+        byte[] buffer()
+        {
+            return buf;
+        }
+    }
+
+    /**
+     * A registered channel. Returned by {@code addChannel} so the caller can adjust how often it is
+     * sampled.
+     */
+    public static final class Channel
     {
         final String name;
-        final Callable<String> callback;
-        
-        Channel(String name, Callable<String> callback)
+        final int type;
+        final DoubleSupplier doubleCallback;
+        final LongSupplier longCallback;
+        final BooleanSupplier booleanCallback;
+        final Supplier<?> stringCallback;
+        final Callable<String> textCallback;
+        final boolean published;
+        private volatile long period;
+        private long nextDue; // Only touched by the sampler thread
+
+        Channel(String name, int type, DoubleSupplier d, LongSupplier l, BooleanSupplier b,
+                Supplier<?> s, Callable<String> t)
         {
             this.name = name;
-            this.callback = callback;
+            this.type = type;
+            this.doubleCallback = d;
+            this.longCallback = l;
+            this.booleanCallback = b;
+            this.stringCallback = s;
+            this.textCallback = t;
+            this.published = d instanceof PublishedDouble || l instanceof PublishedLong;
+        }
+
+        /**
+         * Sample this channel at most once every {@code millis} milliseconds instead of on every
+         * tick of the logger. Use this for values that change slowly or are expensive to read.
+         * @param millis The minimum time between samples; 0 to sample on every tick
+         * @return This channel
+         */
+        public Channel setPeriod(int millis)
+        {
+            period = millis * 1000000L;
+            nextDue = 0;
+            return this;
+        }
+
+        /**
+         * @return The minimum time between samples, in milliseconds
+         */
+        public int getPeriod()
+        {
+            return (int)(period / 1000000L);
+        }
+
+        public String getName()
+        {
+            return name;
         }
     }
     
     
     private GlobalDataLogger(String filename) throws IOException
     {
-        writer = new OutputStreamWriter(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(filename))));
-        channels = Collections.synchronizedList(new ArrayList<>());
+        file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+        chunk = new ChunkBuffer();
+        writer = new DataOutputStream(chunk);
+        channels = new Channel[0];
         log = new Logger("GlobalDataLogger");
+        startMillis = System.currentTimeMillis();
     }
-    
-    ///////
-    // Special characters that need escaping
-    // [tab] -> \t    -- Delimiter
-    //   \   -> \\    -- Escaping
-    
+
+    // For the dummy logger
+    private GlobalDataLogger()
+    {
+        file = null;
+        chunk = null;
+        writer = null;
+        channels = new Channel[0];
+        log = new Logger("GlobalDataLogger");
+        closed.countDown(); // Nothing to close
+    }
+
     /**
-     * Add a channel.
+     * Set how often buffered data is compressed and written to the file. This bounds how much
+     * data can be lost in a crash and how far behind a reader tailing the log will be.
+     * @param millis The maximum time between chunks, in milliseconds
+     */
+    public void setFlushInterval(int millis)
+    {
+        flushInterval = millis;
+    }
+
+    /**
+     * Add a text channel. The callback result is written as-is, so this allocates on every sample;
+     * use one of the primitive overloads if possible.
      * @param name The name of the channel.
      * @param callback A callback function to request log data. This should run as fast as possible.
+     * @return The new channel
      */
-    public synchronized void addChannel(String name, Callable<String> callback)
+    public Channel addChannel(String name, Callable<String> callback)
     {
-        channels.add(new Channel(name, callback));
+        return addChannel(new Channel(name, TYPE_TEXT, null, null, null, null, callback));
     }
-    
+
     /**
-     * Start the logging process.
-     * @param interval The interval, in milliseconds, to delay between samples. It is recommended to
-     *                 make this greater than zero.
+     * Add a floating-point channel.
+     * @param name The name of the channel.
+     * @param callback A callback function to request log data. This should run as fast as possible.
+     * @return The new channel
+     */
+    public Channel addChannel(String name, DoubleSupplier callback)
+    {
+        return addChannel(new Channel(name, TYPE_DOUBLE, callback, null, null, null, null));
+    }
+
+    /**
+     * Add an integer channel.
+     * @param name The name of the channel.
+     * @param callback A callback function to request log data. This should run as fast as possible.
+     * @return The new channel
+     */
+    public Channel addChannel(String name, LongSupplier callback)
+    {
+        return addChannel(new Channel(name, TYPE_LONG, null, callback, null, null, null));
+    }
+
+    /**
+     * Add a boolean channel.
+     * @param name The name of the channel.
+     * @param callback A callback function to request log data. This should run as fast as possible.
+     * @return The new channel
+     */
+    public Channel addChannel(String name, BooleanSupplier callback)
+    {
+        return addChannel(new Channel(name, TYPE_BOOLEAN, null, null, callback, null, null));
+    }
+
+    /**
+     * Add an enum channel. Constant names are stored once in the string table, and each sample is
+     * written as a fixed-width string id.
+     * @param name The name of the channel.
+     * @param callback A callback function to request log data. This should run as fast as possible.
+     * @return The new channel
+     */
+    public Channel addChannel(String name, Supplier<? extends Enum<?>> callback)
+    {
+        return addChannel(new Channel(name, TYPE_STRING, null, null, null, callback, null));
+    }
+
+    /**
+     * Add a string channel whose values come from a small, fixed set of strings (i.e. state
+     * names). Each distinct value is stored once in the string table, and each sample is written
+     * as a fixed-width string id. Do not use this for formatted numbers; the string table would
+     * grow with every new value.
+     * @param name The name of the channel.
+     * @param callback A callback function to request log data. This should run as fast as possible.
+     * @return The new channel
+     */
+    public Channel addInternedChannel(String name, Supplier<String> callback)
+    {
+        return addChannel(new Channel(name, TYPE_STRING, null, null, null, callback, null));
+    }
+
+    synchronized Channel addChannel(Channel channel)
+    {
+        if (channels.length >= MAX_CHANNELS)
+        {
+            log.w("Too many channels; not adding %s", channel.name);
+            return channel;
+        }
+        Channel[] newChannels = Arrays.copyOf(channels, channels.length + 1);
+        newChannels[channels.length] = channel;
+        channels = newChannels;
+        if (sampling && !channel.published)
+            log.w("Pull channel added while running (may touch hardware): %s", channel.name);
+        return channel;
+    }
+
+    /**
+     * Start the logging process. Samples are dropped oldest-first if the writer falls behind.
+     * @param interval The interval, in milliseconds, between the start of one sample and the next.
+     *                 Must be greater than zero.
      */
     public synchronized void start(int interval)
     {
-        logDaemon = GlobalThreadPool.instance().start(() ->
+        start(interval, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Start the logging process.
+     * @param interval The interval, in milliseconds, between the start of one sample and the next.
+     *                 Must be greater than zero.
+     * @param policy   What to do with samples when the writer thread falls behind
+     */
+    public synchronized void start(int interval, OverflowPolicy policy)
+    {
+        reportChannels();
+        ring = new SampleRing(RING_SLOTS, SLOT_HEADER + SLOT_ENTRY * MAX_CHANNELS, policy);
+        sampling = true;
+        startMillis = System.currentTimeMillis();
+        sampleStart = System.nanoTime();
+        logDaemon = GlobalThreadPool.instance().scheduleAtFixedRate(Lane.LOG, "GDL sampler", interval, this::sampleOnce);
+        logDaemon.setOnCancel(() -> sampling = false);
+        GlobalThreadPool.instance().start(Lane.LOG, "GDL writer", this::writeLoop);
+    }
+
+    private void reportChannels()
+    {
+        int pull = 0;
+        for (Channel c : channels)
+        {
+            if (c.published) continue;
+            log.w("Pull channel (may touch hardware): %s", c.name);
+            pull++;
+        }
+        log.i("Logging %d channels (%d published, %d pull)", channels.length, channels.length - pull, pull);
+    }
+
+    /**
+     * @return The number of samples waiting to be written
+     */
+    public int getRingOccupancy()
+    {
+        SampleRing ring = this.ring;
+        return ring == null ? 0 : ring.size();
+    }
+
+    /**
+     * @return The number of samples lost because the writer fell behind
+     */
+    public long getDroppedSamples()
+    {
+        SampleRing ring = this.ring;
+        return ring == null ? 0 : ring.getDropped();
+    }
+
+    private void sampleOnce()
+    {
+        long loopstart = System.nanoTime();
+        Channel[] channels = this.channels;
+        int slot = ring.claim();
+        if (slot < 0) return;
+        long[] data = ring.data();
+        int base = ring.offset(slot);
+        int entries = sample(channels, loopstart, data, ring.refs(), base + SLOT_HEADER);
+        boolean interrupt = entries < 0;
+        data[base] = loopstart - sampleStart;
+        data[base + 1] = Double.doubleToRawLongBits(1000000000.0 / (System.nanoTime() - loopstart));
+        data[base + 2] = channels.length;
+        data[base + 3] = interrupt ? ~entries : entries;
+        ring.publish();
+        if (interrupt)
         {
-            long start = System.nanoTime();
-            boolean interrupt = false;
+            log.i("Interrupted");
+            logDaemon.cancel();
+        }
+    }
+
+    /**
+     * Sample every channel that is due and pack the results into a ring slot
+     * @return The number of entries written, or its bitwise complement if the thread was
+     *         interrupted
+     */
+    private int sample(Channel[] channels, long now, long[] values, Object[] text, int off)
+    {
+        boolean interrupt = false;
+        int entries = 0;
+        for (int i = 0; i < channels.length; i++)
+        {
+            Channel c = channels[i];
+            long period = c.period;
+            if (period > 0)
+            {
+                if (now < c.nextDue) continue;
+                c.nextDue += period;
+                if (c.nextDue <= now) c.nextDue = now + period; // Don't try to catch up
+            }
+
+            int e = off + entries * SLOT_ENTRY;
+            long time = System.nanoTime();
+            values[e] = i;
+            text[e + 2] = null;
             try
             {
-                while (true)
+                switch (c.type)
                 {
-                    long loopstart = System.nanoTime();
-                    List<String> data = new ArrayList<>();
-                    for (Channel c : new Vector<>(channels))
-                    {
-                        try
-                        {
-                            data.add(c.callback.call());
-                        }
-                        catch (InterruptedException e)
-                        {
-                            interrupt = true;
-                            data.add("~interrupt~");
-                        }
-                        catch (Exception e)
-                        {
-                            data.add("~error " + e.getClass().getSimpleName() + "~");
-                        }
-                    }
-                    data.add(0, Double.toString(1000000000.0 / (System.nanoTime() - loopstart)));
-                    writeLogLine(System.nanoTime() - start, data);
-                    if (interrupt) break;
-                    Thread.sleep(interval);
+                    case TYPE_DOUBLE:
+                        values[e + 2] = Double.doubleToRawLongBits(c.doubleCallback.getAsDouble());
+                        break;
+                    case TYPE_LONG:
+                        values[e + 2] = c.longCallback.getAsLong();
+                        break;
+                    case TYPE_BOOLEAN:
+                        values[e + 2] = c.booleanCallback.getAsBoolean() ? 1 : 0;
+                        break;
+                    case TYPE_STRING:
+                        values[e + 2] = intern(c.stringCallback.get());
+                        break;
+                    default:
+                        text[e + 2] = c.textCallback.call();
+                        break;
                 }
             }
-            catch (InterruptedException | IOException e)
+            catch (InterruptedException ex)
             {
-                log.i("Interrupted");
+                interrupt = true;
+                text[e + 2] = "~interrupt~";
             }
-            finally
+            catch (Exception ex)
             {
-                close();
+                values[e + 2] = errorValue(c.type);
+                text[e + 2] = "~error " + ex.getClass().getSimpleName() + "~";
             }
-        });
+            values[e + 1] = time - now;
+            entries++;
+        }
+        return interrupt ? ~entries : entries;
     }
-    
-    private String sanitize(String input)
+
+    private int intern(Object value)
     {
-        if (input == null) return "null";
-        else return input.replaceAll("\\\\", "\\\\").replaceAll("\t", "\\t");
+        String s;
+        if (value == null) s = "null";
+        else if (value instanceof Enum) s = ((Enum<?>)value).name();
+        else s = value.toString();
+
+        Integer id = strings.get(s);
+        if (id == null)
+        {
+            id = stringCount;
+            strings.put(s, id);
+            String[] table = stringTable;
+            if (id >= table.length) table = Arrays.copyOf(table, table.length * 2);
+            table[id] = s;
+            stringTable = table;
+            stringCount = id + 1; // Publish after the table is updated
+        }
+        return id;
     }
-    
-    private void writeLogLine(long time, List<String> data) throws IOException
+
+    private static long errorValue(int type)
     {
-        if (time >= 0) data.add(0, Long.toString(time));
-        
-        StringBuilder out = new StringBuilder();
-        for (int i = 0; i < data.size(); i++)
+        switch (type)
         {
-            out.append(sanitize(data.get(i)));
-            if (i < data.size() -1) out.append("\t");
-            else out.append("\n");
+            case TYPE_DOUBLE:  return Double.doubleToRawLongBits(Double.NaN);
+            case TYPE_LONG:    return Long.MIN_VALUE;
+            default:           return -1;
         }
-        writer.write(out.toString());
     }
-    
-    public synchronized void stop()
+
+    private void writeLoop()
     {
-        if (logDaemon != null) logDaemon.cancel(true);
-        else
+        long[] record = new long[ring.stride()];
+        Object[] text = new Object[ring.stride()];
+        boolean interrupted = false;
+        try
         {
-            try
+            writeHeader();
+            long lastFlush = System.nanoTime();
+            while (true)
             {
-                writer.close();
+                if (chunk.size() >= MAX_CHUNK_SIZE
+                        || System.nanoTime() - lastFlush >= flushInterval * 1000000L)
+                {
+                    flushChunk();
+                    lastFlush = System.nanoTime();
+                }
+                boolean done = !sampling || interrupted;
+                int slot = ring.peek();
+                if (slot < 0)
+                {
+                    if (done) break;
+                    try
+                    {
+                        Thread.sleep(2);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        interrupted = true; // Drain what is left and close
+                    }
+                    continue;
+                }
+                int entries = (int)ring.data()[ring.offset(slot) + 3];
+                ring.copy(slot, record, text, SLOT_HEADER + SLOT_ENTRY * entries);
+                if (!ring.release()) continue; // Overwritten while we were copying it
+                writeRecord(record, text);
             }
-            catch (IOException e)
+        }
+        catch (IOException e)
+        {
+            log.e("Failed to write data log");
+            log.e(e);
+        }
+        finally
+        {
+            close();
+        }
+    }
+
+    private void writeHeader() throws IOException
+    {
+        if (headerWritten) return;
+        headerWritten = true;
+        Channel[] channels = this.channels;
+        file.writeBytes("GDLc");
+        file.writeInt(VERSION);
+        file.writeLong(startMillis);
+        file.writeShort(channels.length);
+        for (Channel c : channels)
+        {
+            file.writeByte(c.type);
+            file.writeUTF(c.name);
+        }
+        channelsWritten = channels.length;
+        file.flush();
+    }
+
+    private void flushChunk() throws IOException
+    {
+        if (chunk.size() == 0) return;
+        if (deflater == null)
+        {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+            compressed = new byte[MAX_CHUNK_SIZE];
+        }
+        deflater.reset();
+        deflater.setInput(chunk.buffer(), 0, chunk.size());
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished())
+        {
+            if (length == compressed.length) compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        crc.reset();
+        crc.update(compressed, 0, length);
+
+        file.writeInt(CHUNK_MAGIC);
+        file.writeInt(chunk.size());
+        file.writeInt(length);
+        file.writeInt((int)crc.getValue());
+        file.write(compressed, 0, length);
+        file.flush();
+        chunk.reset();
+    }
+
+    private void writeRecord(long[] record, Object[] text) throws IOException
+    {
+        int strings = stringCount;
+        String[] table = stringTable;
+        for (; stringsWritten < strings; stringsWritten++)
+        {
+            writer.writeByte('S');
+            writer.writeInt(stringsWritten);
+            writer.writeUTF(table[stringsWritten]);
+        }
+
+        Channel[] channels = this.channels;
+        int count = (int)record[2];
+        for (; channelsWritten < count; channelsWritten++)
+        {
+            Channel c = channels[channelsWritten];
+            writer.writeByte('C');
+            writer.writeShort(channelsWritten);
+            writer.writeByte(c.type);
+            writer.writeUTF(c.name);
+        }
+
+        int entries = (int)record[3];
+        writer.writeByte('P');
+        writer.writeLong(record[0]);
+        writer.writeLong(record[1]);
+        writer.writeShort(entries);
+        for (int j = 0; j < entries; j++)
+        {
+            int e = SLOT_HEADER + j * SLOT_ENTRY;
+            int id = (int)record[e];
+            long value = record[e + 2];
+            writer.writeShort(id);
+            writer.writeInt((int)record[e + 1]);
+            switch (channels[id].type)
             {
-                log.e("Failed to close log file");
-                log.e(e);
+                case TYPE_DOUBLE:
+                case TYPE_LONG:
+                    writer.writeLong(value);
+                    break;
+                case TYPE_BOOLEAN:
+                    writer.writeByte((int)value);
+                    break;
+                case TYPE_STRING:
+                    writer.writeInt((int)value);
+                    break;
+                default:
+                    Object t = text[e + 2];
+                    writer.writeUTF(t == null ? "null" : t.toString());
+                    break;
             }
-            finally
+        }
+    }
+    
+    public synchronized void stop()
+    {
+        if (logDaemon != null) logDaemon.cancel();
+        else close();
+    }
+
+    /**
+     * Wait for the file to be closed after {@link #stop()}. The writer finishes in the background,
+     * so the file may still be written for a moment after stop() returns. Keeps waiting if
+     * interrupted, but leaves the thread interrupted.
+     * @param millis The maximum time to wait, in milliseconds
+     * @return Whether the file was closed in time
+     */
+    public boolean awaitClose(long millis)
+    {
+        long deadline = System.nanoTime() + millis * 1000000L;
+        boolean interrupted = false;
+        try
+        {
+            while (true)
             {
-                instance = null;
+                try
+                {
+                    return closed.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
             }
         }
+        finally
+        {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
     }
     
     private void close()
     {
         try
         {
-            List<String> names = new ArrayList<>();
-            names.add("Frames per second");
-            channels.forEach((channel) -> names.add(channel.name));
-            
-            writeLogLine(-1, names);
-            writer.flush();
-            writer.close();
+            writeHeader();
+            writer.writeByte('E');
+            flushChunk();
+            file.close();
         }
         catch (IOException e)
         {
@@ -272,7 +768,13 @@ public class GlobalDataLogger
         }
         finally
         {
-            instance = null;
+            if (deflater != null) deflater.end();
+            closed.countDown();
+            synchronized (GlobalDataLogger.class)
+            {
+                // The writer finishes after stop(), when a new logger may already be running
+                if (instance == this) instance = null;
+            }
         }
     }
 }
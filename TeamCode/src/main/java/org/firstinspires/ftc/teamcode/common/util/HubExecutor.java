@@ -0,0 +1,333 @@
+package org.firstinspires.ftc.teamcode.common.util;
+
+import com.qualcomm.hardware.lynx.LynxModule;
+
+import org.firstinspires.ftc.teamcode.common.actuators.WriteBuffer;
+import org.firstinspires.ftc.teamcode.common.sensors.HubCache;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.TaskHandle;
+import org.firstinspires.ftc.teamcode.common.util.metrics.BusMonitor;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Counter;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Metrics;
+import org.firstinspires.ftc.teamcode.common.util.metrics.Timer;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The I/O thread for one Expansion Hub. Once started, the thread owns the hub's transactions: every
+ * control cycle it sends the hub's buffered writes and then takes a new bulk-read snapshot, and in
+ * between it runs commands that other threads submit. Each hub has its own thread on the
+ * {@link Lane#HUB} lane, so the hubs are serviced at the same time instead of one after the other,
+ * and callers queue for the thread instead of for the USB transport lock.
+ * <pre><code>
+ *     Future&lt;Double&gt; distance = io.submit(() -&gt; sensor.getDistance(DistanceUnit.MM));
+ *     double heading = io.call(() -&gt; imu.getAngularOrientation().firstAngle);
+ * </code></pre>
+ * Commands run in the order they were submitted. When the thread isn't running, or when a command
+ * is submitted from the thread itself, the command runs on the calling thread instead.
+ * <p>
+ * Every cycle records {@code "<hub> I/O latency"}, the time from when the cycle was due until the
+ * hub's writes and reads were done. {@link #runCycle(long)} records the same thing when the cycles
+ * are run some other way, so the two can be compared.
+ * </p>
+ * <p>
+ * Each command submitted from another thread is measured by a {@link BusMonitor.Probe}, from when
+ * it is submitted until it has finished, so the time spent waiting for the thread counts too.
+ * Commands without a probe of their own count as {@code "HubExecutor command"}.
+ * </p>
+ */
+public class HubExecutor
+{
+    /**
+     * A command that ends its probe's measurement when it finishes or is cancelled
+     */
+    private final class Command<V> extends FutureTask<V>
+    {
+        private final BusMonitor.Probe probe; // Null if not measured
+        private final long start;
+
+        Command(Callable<V> callable, BusMonitor.Probe probe)
+        {
+            super(callable);
+            // Commands from the I/O thread run within a command or cycle that is measured already
+            this.probe = isIoThread() ? null : probe == null ? commandProbe : probe;
+            this.start = this.probe == null ? 0 : this.probe.start();
+        }
+
+        @Override
+        protected void done()
+        {
+            if (probe != null) probe.end(start);
+        }
+    }
+
+    private final String name;
+    private final LynxModule module;
+    private final HubCache.Hub cache;
+    private final WriteBuffer.Hub writes;
+    private final Queue<FutureTask<?>> commands = new ConcurrentLinkedQueue<>();
+
+    private final Timer latency;
+    private final Counter commandCount;
+    private final BusMonitor.Probe commandProbe;
+
+    private volatile boolean running;
+    private volatile Thread thread;
+    private TaskHandle<?> task;
+    private Logger log;
+
+    /**
+     * @param module The hub
+     * @param cache  The hub's snapshots, or null
+     * @param writes The hub's buffered writes, or null
+     */
+    public HubExecutor(String name, LynxModule module, HubCache.Hub cache, WriteBuffer.Hub writes)
+    {
+        this.name = name;
+        this.module = module;
+        this.cache = cache;
+        this.writes = writes;
+        latency = Metrics.timer(name + " I/O latency");
+        commandCount = Metrics.counter(name + " I/O commands");
+        commandProbe = BusMonitor.probe(module, "HubExecutor command");
+        log = new Logger(name + " I/O");
+        if (cache != null) cache.setExecutor(this);
+    }
+
+    /**
+     * Start the hub's thread
+     * @param periodMillis The control cycle period
+     * @return Whether the thread was started; if not, commands keep running on their callers
+     */
+    public synchronized boolean start(int periodMillis)
+    {
+        if (task != null) return true;
+        running = true;
+        task = GlobalThreadPool.instance().start(Lane.HUB, name + " I/O",
+                () -> serviceLoop(periodMillis * 1000000L));
+        if (task == null)
+        {
+            running = false;
+            log.w("Unable to start the I/O thread; commands run on their callers");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stop the thread after it has run the commands that were submitted and sent the pending
+     * writes
+     */
+    public synchronized void stop()
+    {
+        if (task == null) return;
+        running = false;
+        LockSupport.unpark(thread);
+        try
+        {
+            task.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception e)
+        {
+            log.e(e);
+        }
+        task = null;
+        runCommands(); // Anything submitted while the thread was stopping
+    }
+
+    /**
+     * @return Whether the calling thread is this hub's I/O thread
+     */
+    public boolean isIoThread()
+    {
+        return Thread.currentThread() == thread;
+    }
+
+    public <V> Future<V> submit(Callable<V> command)
+    {
+        return submit(null, command);
+    }
+
+    public Future<?> submit(Runnable command)
+    {
+        return submit(null, Executors.callable(command));
+    }
+
+    /**
+     * Submit a command that is measured by its own probe
+     * @param probe The probe, e.g. "RangeSensor read", or null for the default one
+     */
+    public <V> Future<V> submit(BusMonitor.Probe probe, Callable<V> command)
+    {
+        FutureTask<V> f = new Command<>(command, probe);
+        enqueue(f);
+        return f;
+    }
+
+    private void enqueue(FutureTask<?> f)
+    {
+        if (!running || isIoThread())
+        {
+            runCommand(f);
+            return;
+        }
+        commands.add(f);
+        LockSupport.unpark(thread);
+        if (!running) runCommands(); // Stopped before the thread could see it
+    }
+
+    /**
+     * Run a command on the I/O thread and wait for it to finish. Waits even if the calling thread
+     * is interrupted, so that the command doesn't run after its caller has moved on; the interrupt
+     * is kept for the caller to handle.
+     * @return What the command returned
+     * @throws RuntimeException if the command threw; a checked exception is wrapped
+     */
+    public <V> V call(Callable<V> command)
+    {
+        return call(null, command);
+    }
+
+    /**
+     * Like {@link #call(Callable)}, measured by a probe of its own
+     * @param probe The probe, or null for the default one
+     */
+    public <V> V call(BusMonitor.Probe probe, Callable<V> command)
+    {
+        Future<V> f = submit(probe, command);
+        boolean interrupted = false;
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    return f.get();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new RuntimeException(cause);
+        }
+        finally
+        {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run a command on the I/O thread and wait for it to finish, like {@link #call(Callable)}
+     */
+    public void run(Runnable command)
+    {
+        run(null, command);
+    }
+
+    /**
+     * Like {@link #run(Runnable)}, measured by a probe of its own
+     * @param probe The probe, or null for the default one
+     */
+    public void run(BusMonitor.Probe probe, Runnable command)
+    {
+        call(probe, () ->
+        {
+            command.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run one control cycle on the calling thread: send the buffered writes, then take a new
+     * snapshot
+     * @param due When the cycle was due, from {@link System#nanoTime()}
+     */
+    public void runCycle(long due)
+    {
+        if (writes != null) writes.flush();
+        if (cache != null) cache.refresh();
+        latency.recordSince(due);
+    }
+
+    private void runCommand(FutureTask<?> f)
+    {
+        f.run(); // A FutureTask keeps what the command throws for its caller
+        commandCount.increment();
+    }
+
+    private void runCommands()
+    {
+        for (FutureTask<?> f = commands.poll(); f != null; f = commands.poll())
+        {
+            runCommand(f);
+        }
+    }
+
+    private void serviceLoop(long period)
+    {
+        thread = Thread.currentThread();
+        try
+        {
+            long next = System.nanoTime();
+            while (running && !Thread.currentThread().isInterrupted())
+            {
+                runCommands();
+                long now = System.nanoTime();
+                if (now - next >= 0)
+                {
+                    runCycle(next);
+                    // Skip the cycles that were missed rather than running them back to back
+                    now = System.nanoTime();
+                    do next += period; while (now - next >= 0);
+                }
+                else if (commands.isEmpty())
+                {
+                    LockSupport.parkNanos(this, next - now);
+                }
+            }
+            runCommands();
+            if (writes != null) writes.flush();
+        }
+        finally
+        {
+            thread = null;
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public LynxModule getModule()
+    {
+        return module;
+    }
+
+    /**
+     * @return The number of commands waiting for the thread
+     */
+    public int getQueueLength()
+    {
+        return commands.size();
+    }
+}
@@ -0,0 +1,119 @@
+package org.firstinspires.ftc.teamcode.common.util;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size histogram of durations in nanoseconds with log-linear buckets: every power of two
+ * is split into {@value #SUB_BUCKETS} equal buckets, so any percentile is accurate to within
+ * 12.5% while recording stays a few shifts and an array increment. Never allocates after
+ * construction. Not thread-safe; record from one thread and publish results elsewhere.
+ */
+public class LatencyHistogram
+{
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40; // ~18 minutes; longer values go in the last bucket
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+
+    private static int bucket(long nanos)
+    {
+        if (nanos < SUB_BUCKETS) return (int)Math.max(nanos, 0);
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int)(nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // The largest value that lands in a bucket
+    private static long upperBound(int bucket)
+    {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long lower = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Record one duration
+     * @param nanos The duration, in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        counts[bucket(nanos)]++;
+        count++;
+        sum += nanos;
+        if (nanos > max) max = nanos;
+    }
+
+    /**
+     * Add every value recorded in another histogram to this one
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKETS; i++) counts[i] += other.counts[i];
+        count += other.count;
+        sum += other.sum;
+        if (other.max > max) max = other.max;
+    }
+
+    public void reset()
+    {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return The sum of all recorded durations, in nanoseconds
+     */
+    public long getTotal()
+    {
+        return sum;
+    }
+
+    /**
+     * @return The exact largest recorded duration, in nanoseconds
+     */
+    public long getMax()
+    {
+        return max;
+    }
+
+    /**
+     * @return The mean duration in nanoseconds, or 0 if nothing has been recorded
+     */
+    public double getMean()
+    {
+        return count == 0 ? 0 : (double)sum / count;
+    }
+
+    /**
+     * Get a percentile of the recorded durations
+     * @param percentile The percentile, from 0 to 100
+     * @return An upper bound on the percentile in nanoseconds (never more than {@link #getMax()}),
+     *         or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        if (count == 0) return 0;
+        long target = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+            if (seen >= target) return Math.min(upperBound(i), max);
+        }
+        return max;
+    }
+}
@@ -0,0 +1,249 @@
+package org.firstinspires.ftc.teamcode.common.util;
+
+import android.os.Process;
+
+import com.qualcomm.robotcore.util.RobotLog;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the log directory ({@code Team8813/logs/}) from growing forever. After an OpMode stops,
+ * {@link #finishSession(String, String)} starts a low-priority background pass that:
+ * <ol>
+ *     <li>gzips plain {@code .log} files,</li>
+ *     <li>deletes files older than {@link #setMaxAge(long) the age budget}, then the oldest files
+ *     until the directory fits in {@link #setMaxTotalSize(long) the size budget} (the newest
+ *     session is never deleted), and</li>
+ *     <li>rewrites {@code sessions.tsv}, an index with one line per session:
+ *     {@code [session timestamp] TAB [OpMode] TAB [file,file,...]}.</li>
+ * </ol>
+ * Files belong to a session if their names start with its timestamp (see
+ * {@link Logger#getSession()}). {@link Logger#init()} cancels a running pass and waits for it to
+ * stop, so its I/O never overlaps an active OpMode's logging.
+ */
+public class LogRetention
+{
+    public static final String INDEX_NAME = "sessions.tsv";
+
+    private static final File dir = new File(Config.storageDir + "logs/");
+    private static volatile long maxTotalSize = 256L * 1024 * 1024;
+    private static volatile long maxAge = 30L * 24 * 60 * 60 * 1000;
+
+    private static final Map<String, String> pending = new LinkedHashMap<>();
+    private static Thread thread;
+
+    private LogRetention() { }
+
+    /**
+     * Set the maximum total size of the log directory
+     * @param bytes The size budget, in bytes
+     */
+    public static void setMaxTotalSize(long bytes)
+    {
+        maxTotalSize = bytes;
+    }
+
+    /**
+     * Set the maximum age of log files
+     * @param millis The age budget, in milliseconds
+     */
+    public static void setMaxAge(long millis)
+    {
+        maxAge = millis;
+    }
+
+    /**
+     * Record a finished session in the index and start a retention pass in the background. Call
+     * this after {@link Logger#close()} and after the data loggers have been closed.
+     * @param session The session timestamp from {@link Logger#getSession()}; may be null
+     * @param opMode  The name of the OpMode that ran
+     */
+    public static synchronized void finishSession(String session, String opMode)
+    {
+        if (session != null) pending.put(session, opMode);
+        if (thread != null && thread.isAlive()) return; // The running pass picks it up
+        thread = new Thread(LogRetention::run, "Log retention");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stop a running retention pass and wait for it to finish. Sessions that have not been
+     * indexed yet are kept for the next pass.
+     */
+    public static void cancel()
+    {
+        Thread t;
+        synchronized (LogRetention.class)
+        {
+            t = thread;
+            thread = null;
+        }
+        if (t == null) return;
+        t.interrupt();
+        try
+        {
+            t.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void run()
+    {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try
+        {
+            Map<String, String> sessions = readIndex();
+            synchronized (LogRetention.class)
+            {
+                sessions.putAll(pending);
+                pending.clear();
+            }
+            compress();
+            enforceBudgets(sessions);
+            writeIndex(sessions);
+        }
+        catch (InterruptedException | InterruptedIOException e)
+        {
+            // Cancelled by a new OpMode; the next pass finishes the job
+        }
+        catch (IOException e)
+        {
+            RobotLog.ww("LogRetention", "Log retention failed: %s", e);
+        }
+    }
+
+    private static File[] listFiles()
+    {
+        File[] files = dir.listFiles();
+        if (files == null) return new File[0];
+        List<File> out = new ArrayList<>();
+        for (File f : files)
+        {
+            if (f.isFile() && !f.getName().equals(INDEX_NAME) && !f.getName().endsWith(".tmp")) out.add(f);
+        }
+        return out.toArray(new File[0]);
+    }
+
+    private static void compress() throws IOException, InterruptedException
+    {
+        byte[] buf = new byte[65536];
+        for (File f : listFiles())
+        {
+            if (!f.getName().endsWith(".log")) continue;
+            File gz = new File(f.getPath() + ".gz");
+            File tmp = new File(gz.getPath() + ".tmp");
+            boolean done = false;
+            try (InputStream in = new FileInputStream(f);
+                 OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp)))
+            {
+                for (int n = in.read(buf); n >= 0; n = in.read(buf))
+                {
+                    if (Thread.interrupted()) throw new InterruptedException();
+                    out.write(buf, 0, n);
+                }
+                done = true;
+            }
+            finally
+            {
+                if (!done) tmp.delete();
+            }
+            if (tmp.renameTo(gz))
+            {
+                gz.setLastModified(f.lastModified());
+                f.delete();
+            }
+        }
+    }
+
+    private static void enforceBudgets(Map<String, String> sessions) throws InterruptedException
+    {
+        String newest = null;
+        for (String s : sessions.keySet())
+        {
+            if (newest == null || s.compareTo(newest) > 0) newest = s;
+        }
+
+        File[] files = listFiles();
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File a, File b)
+            {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        long total = 0;
+        for (File f : files) total += f.length();
+
+        long cutoff = System.currentTimeMillis() - maxAge;
+        for (File f : files)
+        {
+            if (Thread.interrupted()) throw new InterruptedException();
+            if (newest != null && f.getName().startsWith(newest)) continue;
+            if (f.lastModified() >= cutoff && total <= maxTotalSize) break;
+            long size = f.length();
+            if (f.delete()) total -= size;
+        }
+    }
+
+    private static Map<String, String> readIndex() throws IOException
+    {
+        Map<String, String> sessions = new LinkedHashMap<>();
+        File index = new File(dir, INDEX_NAME);
+        if (!index.exists()) return sessions;
+        try (BufferedReader in = new BufferedReader(new FileReader(index)))
+        {
+            for (String line = in.readLine(); line != null; line = in.readLine())
+            {
+                String[] parts = line.split("\t");
+                if (parts.length >= 2) sessions.put(parts[0], parts[1]);
+            }
+        }
+        return sessions;
+    }
+
+    private static void writeIndex(Map<String, String> sessions) throws IOException
+    {
+        File[] files = listFiles();
+        Arrays.sort(files);
+        File index = new File(dir, INDEX_NAME);
+        File tmp = new File(dir, INDEX_NAME + ".tmp");
+        try (PrintWriter out = new PrintWriter(tmp))
+        {
+            for (Map.Entry<String, String> session : sessions.entrySet())
+            {
+                StringBuilder names = new StringBuilder();
+                for (File f : files)
+                {
+                    if (!f.getName().startsWith(session.getKey())) continue;
+                    if (names.length() > 0) names.append(',');
+                    names.append(f.getName());
+                }
+                if (names.length() == 0) continue; // Every file was deleted
+                out.println(session.getKey() + "\t" + session.getValue() + "\t" + names);
+            }
+        }
+        if (!tmp.renameTo(index)) throw new IOException("Unable to replace " + index);
+    }
+}
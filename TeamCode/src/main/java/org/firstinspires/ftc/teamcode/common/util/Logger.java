@@ -2,6 +2,9 @@ package org.firstinspires.ftc.teamcode.common.util;
 
 import com.qualcomm.robotcore.util.RobotLog;
 
+import org.firstinspires.ftc.teamcode.common.util.concurrent.MpmcRing;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.OverflowPolicy;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -9,6 +12,9 @@ import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 
 import static java.util.Calendar.DAY_OF_MONTH;
 import static java.util.Calendar.HOUR;
@@ -19,6 +25,13 @@ import static java.util.Calendar.YEAR;
 
 /**
  * Simple logging utility
+ * <p>
+ * By default, messages are formatted and written on the calling thread. After
+ * {@link #startAsync(int, OverflowPolicy)}, the calling thread only checks the level and puts the
+ * format string and its arguments into a bounded ring; a background thread formats each message
+ * once and writes it to the log file and the robot log. Arguments are formatted later, so pass
+ * values rather than objects that the caller keeps modifying.
+ * </p>
  */
 
 public class Logger
@@ -40,14 +53,37 @@ public class Logger
         public static final int ALL = Integer.MAX_VALUE;
     }
     
-    private static PrintStream writer;
+    private static volatile PrintStream writer;
     private static File file;
+    private static volatile String session;
     private static boolean open = false;
-    private static long start;
-    private static boolean started = false;
-    private static int maxLevel = Level.ALL;
+    private static volatile long start;
+    private static volatile boolean started = false;
+    private static volatile int maxLevel = Level.ALL;
+    
+    // Per-tag levels; each instance caches its level until the generation changes
+    private static final Map<String, Integer> tagLevels = new ConcurrentHashMap<>();
+    private static volatile int generation;
+    
+    // Async mode
+    private static volatile MpmcRing<Entry> ring;
+    private static volatile boolean asyncRunning;
+    private static final Object openLock = new Object();
+    private static Thread asyncThread;
+    
+    private static final class Entry
+    {
+        int level;
+        String tag;
+        long time;
+        String fmt;
+        Object[] args;
+        Throwable throwable;
+    }
     
     private String tag;
+    private int cachedLevel;
+    private int cachedGeneration = -1;
 
     /**
      * Initialize the logger to a default location ('logs/[date].log')
@@ -55,7 +91,20 @@ public class Logger
      */
     public static void init() throws IOException
     {
-        init(new File(Config.storageDir + "logs/" + Utils.getTimestamp() + ".log"));
+        String session = Utils.getTimestamp();
+        init(new File(Config.storageDir + "logs/" + session + ".log"));
+        Logger.session = session;
+    }
+    
+    /**
+     * Get the timestamp of the current logging session. Other log files from the same OpMode (such
+     * as data logs) should start their names with it so {@link LogRetention} keeps them together.
+     * @return The session timestamp from the last call to {@link #init()}, or null if the logger
+     *         was initialized with an explicit file
+     */
+    public static String getSession()
+    {
+        return session;
     }
     
     /**
@@ -66,19 +115,145 @@ public class Logger
      */
     public static void init(File file) throws IOException
     {
-        Logger.file = file;
         started = false;
         close();
+        LogRetention.cancel(); // Don't compete with the new OpMode for storage bandwidth
+        session = null;
+        Logger.file = file;
         file.getParentFile().mkdirs();
         writer = new PrintStream(file);
     }
     
+    private static void ensureOpen()
+    {
+        if (writer != null) return;
+        synchronized (openLock) // Not Logger.class; stopAsync() holds that while joining the writer thread
+        {
+            if (writer != null) return;
+            try
+            {
+                file = new File(Config.storageDir + "latest.log");
+                file.getParentFile().mkdirs();
+                writer = new PrintStream(file);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+    
+    /**
+     * Write messages from a background thread from now until {@link #close()}
+     * @param capacity The maximum number of messages waiting to be written
+     * @param policy   What to do with messages when the ring is full
+     */
+    public static synchronized void startAsync(int capacity, OverflowPolicy policy)
+    {
+        if (ring != null) return;
+        ring = new MpmcRing<>(capacity, policy, Entry::new);
+        asyncRunning = true;
+        asyncThread = new Thread(Logger::asyncLoop, "Logger");
+        asyncThread.setDaemon(true);
+        asyncThread.setPriority(Thread.NORM_PRIORITY - 1);
+        asyncThread.start();
+    }
+    
+    /**
+     * Write any queued messages and go back to writing on the calling thread
+     */
+    public static synchronized void stopAsync()
+    {
+        if (ring == null) return;
+        asyncRunning = false;
+        LockSupport.unpark(asyncThread);
+        try
+        {
+            asyncThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        asyncThread = null;
+        ring = null;
+    }
+    
+    /**
+     * @return The number of messages dropped because the async ring was full
+     */
+    public static long getDroppedMessages()
+    {
+        MpmcRing<Entry> ring = Logger.ring;
+        return ring == null ? 0 : ring.getDropped();
+    }
+    
+    private static void asyncLoop()
+    {
+        MpmcRing<Entry> ring = Logger.ring;
+        long reported = 0;
+        while (true)
+        {
+            boolean running = asyncRunning;
+            int written = 0;
+            for (long pos = ring.poll(); pos >= 0; pos = ring.poll())
+            {
+                write(ring.get(pos));
+                ring.release(pos);
+                written++;
+            }
+            long dropped = ring.getDropped();
+            if (dropped != reported)
+            {
+                ensureOpen();
+                writer.println("[Logger: " + (dropped - reported) + " messages dropped]");
+                reported = dropped;
+            }
+            if (!running) break; // Drained after being stopped
+            if (written == 0) LockSupport.parkNanos(1000000);
+        }
+    }
+    
+    private static void write(Entry e)
+    {
+        try
+        {
+            ensureOpen();
+            String base = base(e.level, e.tag, e.time);
+            if (e.throwable != null)
+            {
+                writer.print(base);
+                e.throwable.printStackTrace(writer);
+            }
+            else
+            {
+                String msg;
+                try
+                {
+                    msg = String.format(e.fmt, e.args);
+                }
+                catch (RuntimeException ex)
+                {
+                    msg = e.fmt + " [bad format: " + ex + "]";
+                }
+                writer.println(base + msg);
+                RobotLog.dd(e.tag, msg);
+            }
+        }
+        finally
+        {
+            e.args = null;
+            e.throwable = null;
+        }
+    }
+    
     /**
      * Close the log file. Any logging operations after this will produce a NullPointerException
      * until {@link #init(File)} is called again. Does not produce {@link IOException}s.
      */
     public static void close()
     {
+        stopAsync();
         if (writer != null)
         {
             writer.close();
@@ -96,9 +271,33 @@ public class Logger
      *
      * @param level The maximum log level
      */
-    public static void setLevel(int level)
+    public static synchronized void setLevel(int level)
     {
         maxLevel = level;
+        generation++;
+    }
+    
+    /**
+     * Set the maximum logging level to print for one tag, overriding {@link #setLevel(int)}
+     *
+     * @param tag   The tag
+     * @param level The maximum log level for that tag
+     */
+    public static synchronized void setLevel(String tag, int level)
+    {
+        tagLevels.put(tag, level);
+        generation++;
+    }
+    
+    /**
+     * Remove a per-tag level set by {@link #setLevel(String, int)}
+     *
+     * @param tag The tag
+     */
+    public static synchronized void clearLevel(String tag)
+    {
+        tagLevels.remove(tag);
+        generation++;
     }
     
     public static void startTimer()
@@ -112,90 +311,108 @@ public class Logger
         this.tag = tag;
     }
     
-    public synchronized void log(int level, String fmt, Object... args)
+    /**
+     * @param level The level of a message
+     * @return Whether a message at that level would be printed for this tag
+     */
+    public boolean isLoggable(int level)
     {
-        if (writer == null)
+        int gen = generation;
+        if (gen != cachedGeneration)
         {
-            try
-            {
-                init(new File(Config.storageDir + "latest.log"));
-            } catch (IOException e)
-            {
-                throw new RuntimeException(e);
-            }
+            Integer tagLevel = tagLevels.get(tag);
+            cachedLevel = tagLevel != null ? tagLevel : maxLevel;
+            cachedGeneration = gen;
         }
-        if (level <= maxLevel)
+        return level <= cachedLevel;
+    }
+    
+    private boolean enqueue(int level, String fmt, Object[] args, Throwable t)
+    {
+        MpmcRing<Entry> ring = Logger.ring;
+        if (ring == null) return false;
+        long pos = ring.claim();
+        if (pos < 0) return true; // Dropped
+        Entry e = ring.get(pos);
+        e.level = level;
+        e.tag = tag;
+        e.time = System.currentTimeMillis();
+        e.fmt = fmt;
+        e.args = args;
+        e.throwable = t;
+        ring.publish(pos);
+        return true;
+    }
+    
+    public void log(int level, String fmt, Object... args)
+    {
+        if (!isLoggable(level)) return;
+        if (enqueue(level, fmt, args, null)) return;
+        synchronized (this)
         {
-            String base = base(level);
-            if (writer != null) writer.println(base + String.format(fmt, args));
-            RobotLog.dd(tag, String.format(fmt, args));
+            ensureOpen();
+            String msg = String.format(fmt, args);
+            writer.println(base(level, tag, System.currentTimeMillis()) + msg);
+            RobotLog.dd(tag, msg);
         }
     }
 
-    public synchronized void log(int level, Throwable t)
+    public void log(int level, Throwable t)
     {
-        if (writer == null)
-        {
-            try
-            {
-                init(new File(Config.storageDir + "latest.log"));
-            } catch (IOException e)
-            {
-                throw new RuntimeException(e);
-            }
-        }
-        if (level <= maxLevel)
+        if (!isLoggable(level)) return;
+        if (enqueue(level, null, null, t)) return;
+        synchronized (this)
         {
-            String base = base(level);
-            writer.print(base);
+            ensureOpen();
+            writer.print(base(level, tag, System.currentTimeMillis()));
             t.printStackTrace(writer);
         }
     }
     
-    public synchronized void v(String fmt, Object... args)
+    public void v(String fmt, Object... args)
     {
         log(99, fmt, args);
     }
     
-    public synchronized void d(String fmt, Object... args)
+    public void d(String fmt, Object... args)
     {
         log(4, fmt, args);
     }
     
-    public synchronized void i(String fmt, Object... args)
+    public void i(String fmt, Object... args)
     {
         log(3, fmt, args);
     }
     
-    public synchronized void w(String fmt, Object... args)
+    public void w(String fmt, Object... args)
     {
         log(2, fmt, args);
     }
     
-    public synchronized void e(String fmt, Object... args)
+    public void e(String fmt, Object... args)
     {
         log(1, fmt, args);
     }
 
-    public synchronized void f(String fmt, Object... args)
+    public void f(String fmt, Object... args)
     {
         log(0, fmt, args);
     }
     
-    public synchronized void v(Throwable t) { log(99, t); }
+    public void v(Throwable t) { log(99, t); }
 
-    public synchronized void d(Throwable t) { log(4, t); }
+    public void d(Throwable t) { log(4, t); }
 
-    public synchronized void i(Throwable t) { log(3, t); }
+    public void i(Throwable t) { log(3, t); }
 
-    public synchronized void w(Throwable t) { log(2, t); }
+    public void w(Throwable t) { log(2, t); }
 
-    public synchronized void e(Throwable t) { log(1, t); }
+    public void e(Throwable t) { log(1, t); }
 
-    public synchronized void f(Throwable t) { log(0, t); }
+    public void f(Throwable t) { log(0, t); }
 
     
-    private String base(int level)
+    private static String base(int level, String tag, long millis)
     {
         String lvl;
         if (level <= 0) lvl = "FATAL";
@@ -205,10 +422,11 @@ public class Logger
         else if (level == 4) lvl = "DEBUG";
         else lvl = "VERBOSE";
         Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(millis);
         //                     year  mo   dy  hour min  sec tg lv
         if (started)
         {
-            double secs = (System.currentTimeMillis() - start) / 1000.0;
+            double secs = (millis - start) / 1000.0;
             return String.format(Locale.US, "%04d/%02d/%02d %02d:%02d:%02d [%2.3fs] %s/%s: ",
                     c.get(YEAR), c.get(MONTH) + 1, c.get(DAY_OF_MONTH), c.get(HOUR), c.get(MINUTE),
                     c.get(SECOND), secs, tag, lvl);
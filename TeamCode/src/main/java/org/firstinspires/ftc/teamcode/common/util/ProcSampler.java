@@ -0,0 +1,524 @@
+package org.firstinspires.ftc.teamcode.common.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads CPU and memory statistics straight from {@code /proc}: system CPU time from
+ * {@code /proc/stat}, memory from {@code /proc/meminfo}, and this process's and its threads' CPU
+ * time from {@code /proc/self/stat} and {@code /proc/self/task/[tid]/stat}. Only uses plain Java, so
+ * it works (and can be tested) on any Linux machine.
+ * <p>
+ * The files are kept open and re-read from the start on every {@link #sample()} into one reusable
+ * buffer, and numbers are parsed directly from the bytes. Rates and percentages are computed
+ * between the last two samples. CPU percentages of processes and threads are relative to one core,
+ * so a thread that never sleeps shows 100% on any machine.
+ * </p>
+ * <p>
+ * Threads are matched by name with {@link #watchThread(String)}. The kernel only keeps the first
+ * 15 bytes of a thread name, so names should be unique within that length. Names are matched again
+ * on every sample, so threads in a pool should rename themselves while running a long task; the
+ * CPU time of an interval counts towards the name a thread has at the end of it. A sampler is not
+ * thread-safe.
+ * </p>
+ */
+public class ProcSampler implements Closeable
+{
+    private static final int COMM_LENGTH = 15;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte[] CPU = "cpu ".getBytes(UTF8);
+    private static final byte[] CPU_N = "cpu".getBytes(UTF8);
+    private static final byte[] INTR = "intr ".getBytes(UTF8);
+    private static final byte[] CTXT = "ctxt ".getBytes(UTF8);
+    private static final byte[] PROCS_RUNNING = "procs_running ".getBytes(UTF8);
+    private static final byte[] PROCS_BLOCKED = "procs_blocked ".getBytes(UTF8);
+    private static final byte[] MEM_TOTAL = "MemTotal:".getBytes(UTF8);
+    private static final byte[] MEM_FREE = "MemFree:".getBytes(UTF8);
+    private static final byte[] MEM_AVAILABLE = "MemAvailable:".getBytes(UTF8);
+    private static final byte[] BUFFERS = "Buffers:".getBytes(UTF8);
+    private static final byte[] CACHED = "Cached:".getBytes(UTF8);
+
+    // A thread being tracked
+    private static final class Task
+    {
+        final RandomAccessFile file;
+        long ticks = -1;
+        boolean seen;
+
+        Task(RandomAccessFile file)
+        {
+            this.file = file;
+        }
+    }
+
+    private final String root;
+    private final RandomAccessFile stat;
+    private final RandomAccessFile meminfo;
+    private final RandomAccessFile selfStat;
+    private final File taskDir;
+    private final Map<String, Task> tasks = new HashMap<>();
+
+    private byte[] buf = new byte[16384];
+    private int length;
+    private int pos;
+
+    private final List<byte[]> watched = new ArrayList<>();
+    private long[] watchTicks = new long[0];
+    private double[] watchCpu = new double[0];
+
+    // /proc/stat
+    private long user, nice, system, idle, iowait, irq, softirq, steal;
+    private long total;
+    private int cpus;
+    private long interrupts, contextSwitches;
+    private int procsRunning, procsBlocked;
+    // Percentages and rates from the last two samples
+    private double userPct, systemPct, idlePct, iowaitPct;
+    private double interruptRate, contextSwitchRate;
+
+    // /proc/meminfo (kB)
+    private long memTotal, memFree, memAvailable, buffers, cached;
+
+    // /proc/self/stat
+    private long processTicks;
+    private double processCpu;
+    private int threadCount;
+
+    private long lastSample;
+    private int samples;
+
+    /**
+     * Open the files under {@code /proc}
+     * @throws IOException if {@code /proc} can't be read (i.e. not running on Linux)
+     */
+    public ProcSampler() throws IOException
+    {
+        this("/proc");
+    }
+
+    /**
+     * Open the files under another root, such as a copy of {@code /proc} for testing
+     * @param root The directory to read from
+     * @throws IOException if the files can't be opened
+     */
+    public ProcSampler(String root) throws IOException
+    {
+        this.root = root;
+        stat = new RandomAccessFile(root + "/stat", "r");
+        meminfo = new RandomAccessFile(root + "/meminfo", "r");
+        selfStat = new RandomAccessFile(root + "/self/stat", "r");
+        taskDir = new File(root + "/self/task");
+    }
+
+    /**
+     * Report the CPU usage of all threads whose names start with the first 15 bytes of a name
+     * @param name The thread name
+     * @return The index to pass to {@link #getThreadCpu(int)}
+     */
+    public int watchThread(String name)
+    {
+        byte[] bytes = name.getBytes(UTF8);
+        byte[] prefix = new byte[Math.min(bytes.length, COMM_LENGTH)];
+        System.arraycopy(bytes, 0, prefix, 0, prefix.length);
+        watched.add(prefix);
+        long[] ticks = new long[watched.size()];
+        System.arraycopy(watchTicks, 0, ticks, 0, watchTicks.length);
+        watchTicks = ticks;
+        double[] cpu = new double[watched.size()];
+        System.arraycopy(watchCpu, 0, cpu, 0, watchCpu.length);
+        watchCpu = cpu;
+        return watched.size() - 1;
+    }
+
+    /**
+     * Read all of the files and update the statistics
+     * @throws IOException if a file can't be read
+     */
+    public void sample() throws IOException
+    {
+        long now = System.nanoTime();
+        long lastTotal = total;
+        long lastUser = user + nice, lastSystem = system + irq + softirq, lastIdle = idle, lastIowait = iowait;
+        long lastInterrupts = interrupts, lastSwitches = contextSwitches;
+        long lastProcessTicks = processTicks;
+
+        readStat();
+        readMeminfo();
+        readSelfStat();
+        readTasks();
+
+        if (samples > 0)
+        {
+            double dt = (now - lastSample) / 1e9;
+            long ticks = total - lastTotal;
+            if (ticks > 0)
+            {
+                userPct = 100.0 * (user + nice - lastUser) / ticks;
+                systemPct = 100.0 * (system + irq + softirq - lastSystem) / ticks;
+                idlePct = 100.0 * (idle - lastIdle) / ticks;
+                iowaitPct = 100.0 * (iowait - lastIowait) / ticks;
+                // Ticks that passed on each core
+                double perCore = (double)ticks / Math.max(cpus, 1);
+                processCpu = 100.0 * (processTicks - lastProcessTicks) / perCore;
+                for (int i = 0; i < watchCpu.length; i++) watchCpu[i] = 100.0 * watchTicks[i] / perCore;
+            }
+            if (dt > 0)
+            {
+                interruptRate = (interrupts - lastInterrupts) / dt;
+                contextSwitchRate = (contextSwitches - lastSwitches) / dt;
+            }
+        }
+        lastSample = now;
+        samples++;
+    }
+
+    ///////////////////////////////////
+    // Parsing
+
+    // Read a whole file into buf, growing it if needed
+    private void read(RandomAccessFile file) throws IOException
+    {
+        while (true)
+        {
+            file.seek(0);
+            length = 0;
+            int n;
+            while (length < buf.length && (n = file.read(buf, length, buf.length - length)) > 0)
+            {
+                length += n;
+            }
+            if (length < buf.length) break;
+            buf = new byte[buf.length * 2];
+        }
+        pos = 0;
+    }
+
+    // Whether the current line starts with a key
+    private boolean at(byte[] key)
+    {
+        if (pos + key.length > length) return false;
+        for (int i = 0; i < key.length; i++)
+        {
+            if (buf[pos + i] != key[i]) return false;
+        }
+        return true;
+    }
+
+    private void nextLine()
+    {
+        while (pos < length && buf[pos] != '\n') pos++;
+        if (pos < length) pos++;
+    }
+
+    private void skipFields(int n)
+    {
+        for (int i = 0; i < n; i++)
+        {
+            while (pos < length && buf[pos] == ' ') pos++;
+            while (pos < length && buf[pos] != ' ' && buf[pos] != '\n') pos++;
+        }
+    }
+
+    // Parse the next unsigned integer on the current line, or 0 if there is none
+    private long nextLong()
+    {
+        while (pos < length && (buf[pos] < '0' || buf[pos] > '9'))
+        {
+            if (buf[pos] == '\n') return 0;
+            pos++;
+        }
+        long v = 0;
+        while (pos < length && buf[pos] >= '0' && buf[pos] <= '9')
+        {
+            v = v * 10 + (buf[pos] - '0');
+            pos++;
+        }
+        return v;
+    }
+
+    private void readStat() throws IOException
+    {
+        read(stat);
+        int n = 0;
+        while (pos < length)
+        {
+            if (at(CPU))
+            {
+                user = nextLong();
+                nice = nextLong();
+                system = nextLong();
+                idle = nextLong();
+                iowait = nextLong();
+                irq = nextLong();
+                softirq = nextLong();
+                steal = nextLong();
+                total = user + nice + system + idle + iowait + irq + softirq + steal;
+            }
+            else if (at(CPU_N)) n++;
+            else if (at(INTR)) interrupts = nextLong();
+            else if (at(CTXT)) contextSwitches = nextLong();
+            else if (at(PROCS_RUNNING)) procsRunning = (int)nextLong();
+            else if (at(PROCS_BLOCKED)) procsBlocked = (int)nextLong();
+            nextLine();
+        }
+        cpus = n;
+    }
+
+    private void readMeminfo() throws IOException
+    {
+        read(meminfo);
+        while (pos < length)
+        {
+            if (at(MEM_TOTAL)) memTotal = nextLong();
+            else if (at(MEM_FREE)) memFree = nextLong();
+            else if (at(MEM_AVAILABLE)) memAvailable = nextLong();
+            else if (at(BUFFERS)) buffers = nextLong();
+            else if (at(CACHED)) cached = nextLong();
+            nextLine();
+        }
+    }
+
+    // Move past the "pid (comm)" part of a stat file; the name may contain spaces and parentheses
+    private int skipComm()
+    {
+        int end = length - 1;
+        while (end > 0 && buf[end] != ')') end--;
+        pos = end + 1;
+        return end;
+    }
+
+    private void readSelfStat() throws IOException
+    {
+        read(selfStat);
+        skipComm();
+        // Fields after the name start at 3 (state); utime and stime are 14 and 15, num_threads 20
+        skipFields(11);
+        processTicks = nextLong() + nextLong();
+        skipFields(4);
+        threadCount = (int)nextLong();
+    }
+
+    private void readTasks()
+    {
+        for (int i = 0; i < watchTicks.length; i++) watchTicks[i] = 0;
+        String[] tids = taskDir.list();
+        if (tids == null) return;
+        for (String tid : tids)
+        {
+            Task task = tasks.get(tid);
+            if (task == null)
+            {
+                try
+                {
+                    task = new Task(new RandomAccessFile(root + "/self/task/" + tid + "/stat", "r"));
+                }
+                catch (IOException e)
+                {
+                    continue; // The thread exited
+                }
+                tasks.put(tid, task);
+            }
+            try
+            {
+                read(task.file);
+            }
+            catch (IOException e)
+            {
+                continue; // The thread exited; removed below
+            }
+            task.seen = true;
+            int nameEnd = skipComm();
+            int watch = match(nameEnd); // Pool threads are renamed for each task
+            skipFields(11);
+            long ticks = nextLong() + nextLong();
+            if (watch >= 0 && task.ticks >= 0) watchTicks[watch] += ticks - task.ticks;
+            task.ticks = ticks;
+        }
+
+        Iterator<Task> it = tasks.values().iterator();
+        while (it.hasNext())
+        {
+            Task task = it.next();
+            if (!task.seen)
+            {
+                try
+                {
+                    task.file.close();
+                }
+                catch (IOException ignored) { }
+                it.remove();
+            }
+            task.seen = false;
+        }
+    }
+
+    // Find the watched name matching the name in buf, which ends at nameEnd
+    private int match(int nameEnd)
+    {
+        int start = 0;
+        while (start < nameEnd && buf[start] != '(') start++;
+        start++;
+        int len = nameEnd - start;
+        for (int w = 0; w < watched.size(); w++)
+        {
+            byte[] name = watched.get(w);
+            if (len < name.length) continue;
+            boolean ok = true;
+            for (int i = 0; i < name.length && ok; i++) ok = buf[start + i] == name[i];
+            if (ok) return w;
+        }
+        return -1;
+    }
+
+    ///////////////////////////////////
+    // Results
+
+    /**
+     * @return The number of samples taken. Percentages and rates need at least two.
+     */
+    public int getSampleCount()
+    {
+        return samples;
+    }
+
+    public int getCpuCount()
+    {
+        return cpus;
+    }
+
+    /**
+     * @return The percentage of all CPU time spent in user code (including niced processes)
+     */
+    public double getCpuUser()
+    {
+        return userPct;
+    }
+
+    /**
+     * @return The percentage of all CPU time spent in the kernel and interrupt handlers
+     */
+    public double getCpuSystem()
+    {
+        return systemPct;
+    }
+
+    public double getCpuIdle()
+    {
+        return idlePct;
+    }
+
+    public double getCpuIowait()
+    {
+        return iowaitPct;
+    }
+
+    /**
+     * @return Interrupts per second
+     */
+    public double getInterruptRate()
+    {
+        return interruptRate;
+    }
+
+    /**
+     * @return Context switches per second
+     */
+    public double getContextSwitchRate()
+    {
+        return contextSwitchRate;
+    }
+
+    public int getProcsRunning()
+    {
+        return procsRunning;
+    }
+
+    public int getProcsBlocked()
+    {
+        return procsBlocked;
+    }
+
+    /**
+     * @return Total memory in kB
+     */
+    public long getMemTotal()
+    {
+        return memTotal;
+    }
+
+    /**
+     * @return Free memory in kB
+     */
+    public long getMemFree()
+    {
+        return memFree;
+    }
+
+    /**
+     * @return Memory available for new allocations without swapping, in kB (0 on old kernels)
+     */
+    public long getMemAvailable()
+    {
+        return memAvailable;
+    }
+
+    /**
+     * @return Buffer memory in kB
+     */
+    public long getBuffers()
+    {
+        return buffers;
+    }
+
+    /**
+     * @return Page cache memory in kB
+     */
+    public long getCached()
+    {
+        return cached;
+    }
+
+    /**
+     * @return The CPU usage of this process as a percentage of one core
+     */
+    public double getProcessCpu()
+    {
+        return processCpu;
+    }
+
+    /**
+     * @return The number of threads in this process
+     */
+    public int getThreadCount()
+    {
+        return threadCount;
+    }
+
+    /**
+     * @param watch An index returned by {@link #watchThread(String)}
+     * @return The combined CPU usage of the matching threads as a percentage of one core
+     */
+    public double getThreadCpu(int watch)
+    {
+        return watchCpu[watch];
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        for (Task t : tasks.values()) t.file.close();
+        tasks.clear();
+        stat.close();
+        meminfo.close();
+        selfStat.close();
+    }
+}
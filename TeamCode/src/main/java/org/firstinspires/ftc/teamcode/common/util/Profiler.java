@@ -2,11 +2,26 @@ package org.firstinspires.ftc.teamcode.common.util;
 
 import android.support.annotation.NonNull;
 
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedDouble;
+
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
+/**
+ * Measures how long nested sections of code take. A profiler should only be used from one thread.
+ * <p>
+ * By default, every {@link #start(String)} creates a new entry and the totals are logged by
+ * {@link #finish()}. In {@link #aggregate() aggregating mode}, section names are interned to ids,
+ * each call path gets one node that is reused on every loop, and every section records a
+ * {@link LatencyHistogram} of its durations; after the first loop, profiling does not allocate.
+ * Percentiles can be exported to a {@link GlobalDataLogger} with
+ * {@link #exportTo(GlobalDataLogger, int)} and are logged by {@link #report()}.
+ * </p>
+ */
 public class Profiler
 {
     private class Item implements Comparable<Item>
@@ -59,11 +74,92 @@ public class Profiler
         }
     }
 
+    /**
+     * One call path in aggregating mode
+     */
+    private class Node
+    {
+        final int section;
+        final Node parent;
+        final String path;
+        Node[] children = new Node[4];
+        int childCount;
+        long start;
+        final LatencyHistogram window = new LatencyHistogram(); // Since the last snapshot
+        final LatencyHistogram total = new LatencyHistogram();
+        PublishedDouble p50, p90, p99, max;
+
+        Node(int section, Node parent)
+        {
+            this.section = section;
+            this.parent = parent;
+            this.path = parent == null ? "" : parent.path + "/" + sections.get(section);
+            if (parent != null && exporter != null) export();
+        }
+
+        Node child(int section)
+        {
+            for (int i = 0; i < childCount; i++)
+            {
+                if (children[i].section == section) return children[i];
+            }
+            for (Node p = this; p != null; p = p.parent)
+            {
+                if (p.section == section) throw new IllegalArgumentException("Recursion is not allowed");
+            }
+            if (childCount == children.length)
+            {
+                Node[] grown = new Node[childCount * 2];
+                System.arraycopy(children, 0, grown, 0, childCount);
+                children = grown;
+            }
+            Node n = new Node(section, this);
+            children[childCount++] = n;
+            return n;
+        }
+
+        void export()
+        {
+            p50 = new PublishedDouble();
+            p90 = new PublishedDouble();
+            p99 = new PublishedDouble();
+            max = new PublishedDouble();
+            String name = "Profiler" + path;
+            exporter.addChannel(name + " p50 (ms)", p50).setPeriod(exportPeriod);
+            exporter.addChannel(name + " p90 (ms)", p90).setPeriod(exportPeriod);
+            exporter.addChannel(name + " p99 (ms)", p99).setPeriod(exportPeriod);
+            exporter.addChannel(name + " max (ms)", max).setPeriod(exportPeriod);
+        }
+
+        void snapshot()
+        {
+            if (p50 != null && window.getCount() > 0)
+            {
+                p50.set(window.getPercentile(50) / 1e6);
+                p90.set(window.getPercentile(90) / 1e6);
+                p99.set(window.getPercentile(99) / 1e6);
+                max.set(window.getMax() / 1e6);
+            }
+            total.add(window);
+            window.reset();
+            for (int i = 0; i < childCount; i++) children[i].snapshot();
+        }
+    }
+
     private Item root;
     private Item curr;
     private Logger log;
     private boolean disabled;
 
+    private boolean aggregating;
+    private final Map<String, Integer> sectionIds = new HashMap<>();
+    private final List<String> sections = new ArrayList<>();
+    private Node rootNode;
+    private Node currNode;
+    private GlobalDataLogger exporter;
+    private int exportPeriod;
+    private long lastSnapshot;
+
     public Profiler()
     {
         log = new Logger("Profiler");
@@ -77,29 +173,116 @@ public class Profiler
         return this;
     }
 
+    /**
+     * Switch to aggregating mode. Must be called before the first {@link #start(String)}.
+     * @return This profiler
+     */
+    public Profiler aggregate()
+    {
+        aggregating = true;
+        rootNode = new Node(-1, null);
+        currNode = rootNode;
+        return this;
+    }
+
+    /**
+     * Publish the p50, p90, p99 and maximum duration of every section (in milliseconds) to a data
+     * logger. The values cover the time since the previous export and are updated by
+     * {@link #finish()} at most once per period. Implies {@link #aggregate()}; must be called
+     * before the first {@link #start(String)}.
+     * @param logger       The logger to add channels to
+     * @param periodMillis The time between exports, in milliseconds
+     * @return This profiler
+     */
+    public Profiler exportTo(GlobalDataLogger logger, int periodMillis)
+    {
+        if (!aggregating) aggregate();
+        exporter = logger;
+        exportPeriod = periodMillis;
+        return this;
+    }
+
+    /**
+     * Get the id of a section name for {@link #start(int)}. Interning names once and starting
+     * sections by id skips a map lookup per call.
+     * @param name The section name
+     * @return The section id
+     */
+    public int section(String name)
+    {
+        Integer id = sectionIds.get(name);
+        if (id == null)
+        {
+            id = sections.size();
+            sections.add(name);
+            sectionIds.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Start a section in aggregating mode
+     * @param section An id returned by {@link #section(String)}
+     */
+    public void start(int section)
+    {
+        if (disabled) return;
+        if (!aggregating) throw new IllegalStateException("Section ids require aggregating mode");
+        Node n = currNode.child(section);
+        currNode = n;
+        n.start = System.nanoTime();
+    }
+
     public void start(String name)
     {
         if (disabled) return;
+        if (aggregating)
+        {
+            start(section(name));
+            return;
+        }
         Item n = new Item(name);
         curr.addTime(System.nanoTime() - curr.start);
         curr.start = System.nanoTime();
         curr.addItem(n);
         curr = n;
-        log.d("Starting %s", n.getFullName());
+        if (log.isLoggable(Logger.Level.DEBUG)) log.d("Starting %s", n.getFullName());
     }
 
     public void end()
     {
         if (disabled) return;
+        if (aggregating)
+        {
+            if (currNode.parent == null) throw new NoSuchElementException("Stack underflow");
+            currNode.window.record(System.nanoTime() - currNode.start);
+            currNode = currNode.parent;
+            return;
+        }
         if (curr.parent == null) throw new NoSuchElementException("Stack underflow");
         curr.addTime(System.nanoTime() - curr.start);
         curr = curr.parent;
         curr.start = System.nanoTime();
     }
 
+    /**
+     * End all open sections. In aggregating mode, this marks the end of one loop and exports a
+     * snapshot if one is due; otherwise, it logs and clears the totals.
+     */
     public void finish()
     {
         if (disabled) return;
+        if (aggregating)
+        {
+            while (currNode.parent != null) end();
+            long now = System.nanoTime();
+            if (exporter != null && now - lastSnapshot >= exportPeriod * 1000000L)
+            {
+                lastSnapshot = now;
+                rootNode.snapshot();
+            }
+            return;
+        }
         while (curr.parent != null) end();
         log.d("");
         log.d("Profiling summary");
@@ -109,6 +292,28 @@ public class Profiler
         curr = root;
     }
 
+    /**
+     * Log the count, percentiles and total time of every section since profiling started. Only
+     * used in aggregating mode.
+     */
+    public void report()
+    {
+        if (disabled || !aggregating) return;
+        rootNode.snapshot();
+        log.i("Profiling summary (count, p50/p90/p99/max ms, total s)");
+        log.i("-----------------------------------");
+        for (int i = 0; i < rootNode.childCount; i++) printNode(rootNode.children[i]);
+    }
+
+    private void printNode(Node n)
+    {
+        LatencyHistogram h = n.total;
+        log.i("%s -- %d, %.3f/%.3f/%.3f/%.3f, %.4f", n.path, h.getCount(),
+                h.getPercentile(50) / 1e6, h.getPercentile(90) / 1e6, h.getPercentile(99) / 1e6,
+                h.getMax() / 1e6, h.getTotal() / 1e9);
+        for (int i = 0; i < n.childCount; i++) printNode(n.children[i]);
+    }
+
     private void printItem(Item i)
     {
         log.d("%s -- %.4f s", i.getFullName(), (double)i.nanos / 1E9);
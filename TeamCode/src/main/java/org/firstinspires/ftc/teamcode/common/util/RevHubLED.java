@@ -4,21 +4,38 @@ import com.qualcomm.hardware.lynx.LynxModule;
 import com.qualcomm.hardware.lynx.LynxNackException;
 import com.qualcomm.hardware.lynx.commands.standard.LynxSetModuleLEDColorCommand;
 
+import org.firstinspires.ftc.teamcode.common.actuators.WriteBuffer;
 import org.firstinspires.ftc.teamcode.common.util.Logger;
 
 public class RevHubLED
 {
     private LynxModule hub;
+    private WriteBuffer.Hub writes;
     private Logger log;
     
     public RevHubLED(LynxModule module)
+    {
+        this(module, null);
+    }
+    
+    /**
+     * @param writes A buffer to send the color through, so setting the same color again is free,
+     *               or null to send every color immediately
+     */
+    public RevHubLED(LynxModule module, WriteBuffer writes)
     {
         this.hub = module;
+        this.writes = writes == null ? null : writes.getHub(module);
         log = new Logger("RevHub LED");
     }
     
     public void setColor(int red, int green, int blue)
     {
+        if (writes != null)
+        {
+            writes.setLedColor(red, green, blue);
+            return;
+        }
         LynxSetModuleLEDColorCommand cmd = new LynxSetModuleLEDColorCommand(hub, (byte)red, (byte)green, (byte)blue);
         try
         {
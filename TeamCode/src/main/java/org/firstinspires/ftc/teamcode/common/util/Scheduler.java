@@ -1,62 +1,210 @@
 package org.firstinspires.ftc.teamcode.common.util;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
-// WARNING: This code is currently NOT thread-safe
+/**
+ * Runs delayed and repeating tasks on the thread that calls {@link #update()}, i.e. the OpMode loop.
+ * <p>
+ * Tasks are kept in a hashed timing wheel: a ring of buckets, one per tick, each holding a linked
+ * list of the tasks that are due on that tick (or on that tick in a later turn of the wheel).
+ * Adding and cancelling a task are O(1), and {@link #update()} only looks at the buckets for the
+ * ticks that have passed since the last call, so its cost does not grow with the number of tasks
+ * that are waiting. Times are measured with {@link System#nanoTime()}, so changes to the wall clock
+ * don't affect them. Task nodes are reused once a task is finished or cancelled.
+ * </p>
+ * <p>
+ * Tasks can be added and cancelled from any thread, including from inside a task. update() should
+ * only be called from one thread; tasks run on that thread, without holding any lock.
+ * </p>
+ */
 public class Scheduler
 {
+    private static final int FREE = 0, SCHEDULED = 1, RUNNING = 2, CANCELLED = 3;
 
     private Logger log = new Logger("Scheduler");
 
-    private class Task
+    private static final class Task
     {
         String name;
-        long start;
-        long delay;
+        int id;
+        long delay; // ticks
+        long deadline; // tick
         boolean repeat;
         Runnable task;
+        int state;
+        int stamp; // Changes every time the node is reused, so stale callbacks can't cancel it
+        Task prev, next; // In the bucket, or next in the free list
+        Task nextExpired;
+        
+        @Override
+        public String toString()
+        {
+            return name != null ? name : "Task-" + id;
+        }
     }
 
+    /**
+     * A handle to a task that was added to the scheduler. The handle stops affecting the task once
+     * it has finished or been cancelled.
+     */
     public class TaskCallback
     {
         private final Task task;
+        private final int stamp;
+
         TaskCallback(Task t)
         {
             task = t;
+            stamp = t.stamp;
         }
 
+        /**
+         * Run the task now on the calling thread instead of waiting for it, and don't run it again
+         */
         public void run()
         {
-            log.d("Running task " + task.name + " on request");
-            task.task.run();
-            tasks.remove(task);
+            Runnable r;
+            lock.lock();
+            try
+            {
+                if (task.stamp != stamp || task.state != SCHEDULED) return;
+                log.d("Running task %s on request", task);
+                r = task.task;
+                unlink(task);
+                recycle(task);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            r.run();
         }
 
-        public void cancel()
+        /**
+         * Stop the task from running. If it is running now, that run finishes but it won't repeat.
+         * @return Whether the task was still waiting to run or repeat
+         */
+        public boolean cancel()
         {
-            log.d("Cancelled task " + task.name);
-            tasks.remove(task);
+            lock.lock();
+            try
+            {
+                if (task.stamp != stamp) return false;
+                if (task.state == RUNNING)
+                {
+                    task.state = CANCELLED; // Recycled by update() once the run ends
+                    return task.repeat;
+                }
+                if (task.state != SCHEDULED) return false;
+                unlink(task);
+                recycle(task);
+                return true;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return Whether the task is waiting to run or repeat
+         */
+        public boolean isPending()
+        {
+            lock.lock();
+            try
+            {
+                return task.stamp == stamp && (task.state == SCHEDULED || (task.state == RUNNING && task.repeat));
+            }
+            finally
+            {
+                lock.unlock();
+            }
         }
     }
 
-    private List<Task> tasks = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Task[] wheel; // Sentinel of each bucket's circular list
+    private final int mask;
+    private final long tickNanos;
+    private final long startTime;
+    private long lastTick; // The last tick that has been processed
+    private Task free;
+    private int pending;
+    private int taskCount;
 
+    /**
+     * Create a scheduler with a resolution of 1 ms. The wheel turns every 512 ms; tasks with
+     * longer delays stay in their bucket until the turn they are due in.
+     */
+    public Scheduler()
+    {
+        this(1, 512);
+    }
+
+    /**
+     * Create a scheduler
+     * @param tickMillis The resolution in milliseconds; tasks run on the first update() after the
+     *                   end of the tick they are due in
+     * @param wheelSize  The number of buckets, rounded up to a power of two. Choose it so that
+     *                   tickMillis * wheelSize covers the usual delays.
+     */
+    public Scheduler(int tickMillis, int wheelSize)
+    {
+        if (tickMillis <= 0 || wheelSize <= 0) throw new IllegalArgumentException("Tick and wheel size must be positive");
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) size <<= 1;
+        wheel = new Task[size];
+        for (int i = 0; i < size; i++)
+        {
+            Task sentinel = new Task();
+            sentinel.prev = sentinel.next = sentinel;
+            wheel[i] = sentinel;
+        }
+        mask = size - 1;
+        tickNanos = tickMillis * 1000000L;
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Add a task
+     * @param name   The name of the task, for logging
+     * @param delay  The time until the task runs, in milliseconds
+     * @param task   The task
+     * @param repeat Whether to run the task every {@code delay} ms until it is cancelled. Repeats
+     *               are spaced from the time the task was due, not from when update() ran it, so
+     *               they don't drift; if update() falls more than a period behind, the missed
+     *               repeats are skipped.
+     * @return A handle to cancel the task or run it early
+     */
     public TaskCallback add(String name, long delay, Runnable task, boolean repeat)
     {
-        Task t = new Task();
-        t.name = name;
-        t.start = System.currentTimeMillis();
-        t.delay = delay;
-        t.task = task;
-        t.repeat = repeat;
-        tasks.add(t);
-        return new TaskCallback(t);
+        long ticks = Math.max(1, (delay * 1000000L + tickNanos - 1) / tickNanos);
+        long now = currentTick();
+        lock.lock();
+        try
+        {
+            Task t = free;
+            if (t != null) free = t.next;
+            else t = new Task();
+            t.name = name;
+            t.id = taskCount++;
+            t.delay = ticks;
+            t.deadline = now + ticks;
+            t.repeat = repeat;
+            t.task = task;
+            link(t);
+            return new TaskCallback(t);
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     public TaskCallback add(long delay, Runnable task, boolean repeat)
     {
-        return add("Task-" + tasks.size(), delay, task, repeat);
+        return add(null, delay, task, repeat);
     }
 
     public TaskCallback add(String name, long delay, Runnable task)
@@ -69,27 +217,138 @@ public class Scheduler
         return add(delay, task, false);
     }
 
+    /**
+     * Run the tasks that are due
+     */
     public void update()
     {
-        for (int i = 0; i < tasks.size(); i++)
+        long now = currentTick();
+        Task expired = null;
+        lock.lock();
+        try
         {
-            Task t = tasks.get(i);
-            log.d("Running task " + t.name);
-            if (System.currentTimeMillis() >= t.start + t.delay)
+            if (now <= lastTick || pending == 0)
+            {
+                lastTick = Math.max(lastTick, now);
+                return;
+            }
+            // Every bucket is visited at most once, however long it has been since the last update
+            long first = Math.max(lastTick + 1, now - mask);
+            Task tail = null;
+            for (long tick = first; tick <= now; tick++)
             {
+                Task sentinel = wheel[(int)(tick & mask)];
+                for (Task t = sentinel.next; t != sentinel; )
+                {
+                    Task next = t.next;
+                    if (t.deadline <= now)
+                    {
+                        unlink(t);
+                        t.state = RUNNING;
+                        t.nextExpired = null;
+                        if (tail == null) expired = t;
+                        else tail.nextExpired = t;
+                        tail = t;
+                    }
+                    t = next;
+                }
+            }
+            lastTick = now;
+        }
+        finally
+        {
+            lock.unlock();
+        }
 
+        while (expired != null)
+        {
+            Task t = expired;
+            expired = t.nextExpired;
+            t.nextExpired = null;
+            boolean failed = false;
+            try
+            {
                 t.task.run();
-                if (t.repeat)
+            }
+            catch (RuntimeException e)
+            {
+                log.e("Task %s failed; cancelling it", t);
+                log.e(e);
+                failed = true;
+            }
+            lock.lock();
+            try
+            {
+                if (t.repeat && t.state == RUNNING && !failed)
                 {
-                    t.start = System.currentTimeMillis();
-                    log.d("Repeating task in " + t.delay + "ms");
+                    t.deadline += t.delay;
+                    if (t.deadline <= now) t.deadline += ((now - t.deadline) / t.delay + 1) * t.delay;
+                    link(t);
                 }
                 else
                 {
-                    tasks.remove(t);
-                    i--;
+                    recycle(t);
                 }
             }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return The number of tasks that are waiting to run
+     */
+    public int getPendingCount()
+    {
+        lock.lock();
+        try
+        {
+            return pending;
         }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private long currentTick()
+    {
+        return (System.nanoTime() - startTime) / tickNanos;
+    }
+
+    // The following require the lock
+
+    private void link(Task t)
+    {
+        // A task added during update() for a tick that has already been visited goes in the next
+        // bucket that will be visited
+        Task sentinel = wheel[(int)(Math.max(t.deadline, lastTick + 1) & mask)];
+        t.prev = sentinel.prev;
+        t.next = sentinel;
+        sentinel.prev.next = t;
+        sentinel.prev = t;
+        t.state = SCHEDULED;
+        pending++;
+    }
+
+    private void unlink(Task t)
+    {
+        t.prev.next = t.next;
+        t.next.prev = t.prev;
+        t.prev = null;
+        t.next = null;
+        pending--;
+    }
+
+    private void recycle(Task t)
+    {
+        t.state = FREE;
+        t.stamp++;
+        t.task = null;
+        t.name = null;
+        t.next = free;
+        free = t;
     }
 }
@@ -0,0 +1,248 @@
+package org.firstinspires.ftc.teamcode.common.util;
+
+import org.firstinspires.ftc.teamcode.common.util.concurrent.MpmcRing;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.OverflowPolicy;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A flight recorder for timing the robot's threads. Spans ({@link #begin(String)} /
+ * {@link #end()}), instants and counters from any thread go into a preallocated ring that keeps the
+ * newest events, and {@link #dump(File)} writes them in the Chrome Trace Event Format, which can be
+ * opened in {@code chrome://tracing} or <a href="https://ui.perfetto.dev">Perfetto</a>.
+ * <pre><code>
+ *     Trace.begin("Reset encoders");
+ *     ...
+ *     Trace.end();
+ *
+ *     try (Trace.Scope s = Trace.scope("Open camera"))
+ *     {
+ *         ...
+ *     }
+ * </code></pre>
+ * Every call does nothing until {@link #enable(int)} is called. Recording does not allocate as
+ * long as event names are constants or already exist. Spans must begin and end on the same thread.
+ */
+public class Trace
+{
+    private static final char BEGIN = 'B';
+    private static final char END = 'E';
+    private static final char INSTANT = 'i';
+    private static final char COUNTER = 'C';
+
+    private static final class Event
+    {
+        char phase;
+        long time;
+        long thread;
+        String name;
+        double value;
+    }
+
+    /**
+     * Ends a span when closed; see {@link #scope(String)}
+     */
+    public static final class Scope implements AutoCloseable
+    {
+        private Scope() { }
+
+        @Override
+        public void close()
+        {
+            end();
+        }
+    }
+
+    private static final Scope SCOPE = new Scope();
+    private static volatile MpmcRing<Event> ring;
+    private static volatile long origin;
+    private static final Map<Long, String> threadNames = new ConcurrentHashMap<>();
+    private static final ThreadLocal<String> knownName = new ThreadLocal<>();
+
+    private Trace() { }
+
+    /**
+     * Start recording, discarding any events from a previous recording
+     * @param capacity The number of events to keep
+     */
+    public static synchronized void enable(int capacity)
+    {
+        threadNames.clear();
+        origin = System.nanoTime();
+        ring = new MpmcRing<>(capacity, OverflowPolicy.DROP_OLDEST, Event::new);
+    }
+
+    /**
+     * Stop recording and discard all events
+     */
+    public static synchronized void disable()
+    {
+        ring = null;
+    }
+
+    public static boolean isEnabled()
+    {
+        return ring != null;
+    }
+
+    /**
+     * Begin a span on the current thread
+     * @param name The name of the span
+     */
+    public static void begin(String name)
+    {
+        record(BEGIN, name, 0);
+    }
+
+    /**
+     * End the innermost span on the current thread
+     */
+    public static void end()
+    {
+        record(END, null, 0);
+    }
+
+    /**
+     * Begin a span that is ended by closing the returned scope, for use with try-with-resources
+     * @param name The name of the span
+     * @return A shared scope object
+     */
+    public static Scope scope(String name)
+    {
+        begin(name);
+        return SCOPE;
+    }
+
+    /**
+     * Mark a point in time on the current thread
+     * @param name The name of the event
+     */
+    public static void instant(String name)
+    {
+        record(INSTANT, name, 0);
+    }
+
+    /**
+     * Record the value of a counter, which is drawn as a graph
+     * @param name  The name of the counter
+     * @param value The new value
+     */
+    public static void counter(String name, double value)
+    {
+        record(COUNTER, name, value);
+    }
+
+    private static void record(char phase, String name, double value)
+    {
+        MpmcRing<Event> ring = Trace.ring;
+        if (ring == null) return;
+        long time = System.nanoTime();
+        Thread t = Thread.currentThread();
+        String threadName = t.getName();
+        if (knownName.get() != threadName) // Pool threads are renamed while running named tasks
+        {
+            knownName.set(threadName);
+            threadNames.put(t.getId(), threadName);
+        }
+        long pos = ring.claim();
+        if (pos < 0) return;
+        Event e = ring.get(pos);
+        e.phase = phase;
+        e.time = time;
+        e.thread = t.getId();
+        e.name = name;
+        e.value = value;
+        ring.publish(pos);
+    }
+
+    /**
+     * Write the recorded events to a file and clear them. Recording continues.
+     * @param file The file to write
+     * @throws IOException if the file can't be written
+     */
+    public static synchronized void dump(File file) throws IOException
+    {
+        MpmcRing<Event> ring = Trace.ring;
+        if (ring == null) return;
+        file.getParentFile().mkdirs();
+        try (Writer out = new BufferedWriter(new FileWriter(file)))
+        {
+            out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+            boolean first = true;
+            for (Map.Entry<Long, String> thread : threadNames.entrySet())
+            {
+                if (!first) out.write(",\n");
+                first = false;
+                out.write("{\"ph\":\"M\",\"pid\":1,\"tid\":" + thread.getKey()
+                        + ",\"name\":\"thread_name\",\"args\":{\"name\":");
+                writeString(out, thread.getValue());
+                out.write("}}");
+            }
+            for (long pos = ring.poll(); pos >= 0; pos = ring.poll())
+            {
+                Event e = ring.get(pos);
+                if (!first) out.write(",\n");
+                first = false;
+                // Locale.US: JSON needs a '.' as the decimal separator, whatever the device's locale
+                out.write("{\"ph\":\"" + e.phase + "\",\"pid\":1,\"tid\":" + e.thread
+                        + ",\"ts\":" + String.format(Locale.US, "%.3f", (e.time - origin) / 1000.0));
+                if (e.name != null)
+                {
+                    out.write(",\"name\":");
+                    writeString(out, e.name);
+                }
+                if (e.phase == INSTANT) out.write(",\"s\":\"t\"");
+                else if (e.phase == COUNTER)
+                {
+                    double v = Double.isNaN(e.value) || Double.isInfinite(e.value) ? 0 : e.value; // Not valid JSON
+                    out.write(",\"args\":{\"value\":" + v + "}");
+                }
+                out.write("}");
+                e.name = null;
+                ring.release(pos);
+            }
+            out.write("\n]}\n");
+        }
+        Utils.scanFile(file);
+    }
+
+    private static void writeString(Writer out, String s) throws IOException
+    {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') out.write('\\');
+            if (c < 0x20) out.write(String.format("\\u%04x", (int)c));
+            else out.write(c);
+        }
+        out.write('"');
+    }
+
+    /**
+     * Write the recorded events to {@code logs/[session]_trace.json} in the storage directory (see
+     * {@link Logger#getSession()}) and stop recording
+     */
+    public static void stop()
+    {
+        if (!isEnabled()) return;
+        String session = Logger.getSession();
+        File file = new File(Config.storageDir + "logs/" + (session == null ? Utils.getTimestamp() : session) + "_trace.json");
+        try
+        {
+            dump(file);
+        }
+        catch (IOException e)
+        {
+            new Logger("Trace").e(e);
+        }
+        disable();
+    }
+}
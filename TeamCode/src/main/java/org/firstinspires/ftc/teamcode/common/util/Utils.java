@@ -12,7 +12,10 @@ import com.qualcomm.robotcore.hardware.HardwareMap;
 
 import org.firstinspires.ftc.robotcore.internal.system.AppUtil;
 import org.firstinspires.ftc.teamcode.common.Robot;
+import org.firstinspires.ftc.teamcode.common.actuators.MonitoredServo;
 import org.firstinspires.ftc.teamcode.common.motor_control.AccelMotor;
+import org.firstinspires.ftc.teamcode.common.motor_control.CachedMotor;
+import org.firstinspires.ftc.teamcode.common.sensors.CachedDigitalChannel;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
@@ -35,6 +38,10 @@ public class Utils
     
     public static String lookupConfigName(HardwareDevice device, HardwareMap hardwareMap)
     {
+        // Wrapped devices aren't in the hardware map; look up the device they wrap
+        if (device instanceof CachedMotor) device = ((CachedMotor)device).getMotor();
+        else if (device instanceof CachedDigitalChannel) device = ((CachedDigitalChannel)device).getChannel();
+        else if (device instanceof MonitoredServo) device = ((MonitoredServo)device).getServo();
         Set<String> names = hardwareMap.getNamesOf(device);
         if (names.size() == 0) return "Unknown " + device.getDeviceName();
         else return names.toArray(new String[0])[0];
@@ -1,31 +1,50 @@
 package org.firstinspires.ftc.teamcode.common.util;
 
 import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PeriodicTask;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedDouble;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.util.Arrays;
-import java.util.Queue;
-import java.util.Scanner;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Utility to get CPU usage statistics via /system/bin/vmstat
+ * Utility to get CPU usage statistics from /proc (see {@link ProcSampler}). Also logs the CPU usage
+ * of the robot's long-running threads and of its main periodic tasks to the
+ * {@link GlobalDataLogger}.
  */
 public class VMStats
 {
-    private volatile String lastMessage = null;
-    private Future<?> thread;
+    private PeriodicTask task;
     private Logger log = new Logger("VMStat");
-    private Process process;
+    private ProcSampler sampler;
     private volatile int[] lastStats = new int[16];
-    private long lastCheck;
+
+    private final PublishedDouble cpuUser = new PublishedDouble();
+    private final PublishedDouble cpuSystem = new PublishedDouble();
+    private final PublishedDouble cpuProcess = new PublishedDouble();
+    private final PublishedDouble memFree = new PublishedDouble();
+    private final List<PublishedDouble> threadCpu = new ArrayList<>();
+    private final List<PublishedDouble> taskCpu = new ArrayList<>();
+    private Map<PeriodicTask, Double> lastTaskCpu = new HashMap<>();
+    private long lastUpdate;
+
+    /**
+     * Threads whose CPU usage is logged by default. "Periodic" covers all of the
+     * {@link GlobalThreadPool}'s carrier threads for periodic tasks.
+     */
+    public static final String[] THREADS = {"Periodic", "Logger", "GDL writer"};
+
+    /**
+     * Periodic tasks whose CPU usage is logged by default. They share carrier threads with other
+     * tasks, so this is the CPU time measured by the tasks themselves (see
+     * {@link PeriodicTask#getCpuTime()}).
+     */
+    public static final String[] TASKS = {"IMU", "SpeedController"};
 
     public static final int RUNNING       =  0;
     public static final int BLOCKED       =  1;
@@ -46,67 +65,119 @@ public class VMStats
 
     public VMStats(int delay)
     {
-        ProcessBuilder builder = new ProcessBuilder("/system/bin/vmstat", "-n", "" + delay);
         try
         {
-            process = builder.start();
-        } catch (IOException e)
+            sampler = new ProcSampler();
+        }
+        catch (IOException e)
         {
             log.e("VMStat failed to start");
             log.e(e);
             return;
         }
+        for (String name : THREADS)
+        {
+            sampler.watchThread(name);
+            PublishedDouble cpu = new PublishedDouble();
+            threadCpu.add(cpu);
+            GlobalDataLogger.instance().addChannel("CPU (" + name + ")", cpu).setPeriod(delay * 1000);
+        }
+        for (String name : TASKS)
+        {
+            PublishedDouble cpu = new PublishedDouble();
+            taskCpu.add(cpu);
+            GlobalDataLogger.instance().addChannel("CPU (" + name + " task)", cpu).setPeriod(delay * 1000);
+        }
 
-        thread = GlobalThreadPool.instance().start(() ->
+        task = GlobalThreadPool.instance().scheduleAtFixedRate(Lane.IO, "VMStats", delay * 1000, () ->
         {
-            Scanner scan = new Scanner(process.getInputStream());
-            while (scan.hasNextLine())
+            try
+            {
+                update();
+            }
+            catch (IOException e)
             {
-                lastMessage = scan.nextLine();
-                try
-                {
-                    Thread.sleep(delay * 1000);
-                }
-                catch (InterruptedException e)
-                {
-                    scan.close();
-                    return;
-                }
+                log.e("Failed to read /proc");
+                throw new UncheckedIOException(e); // Cancels the task
             }
         });
-        GlobalDataLogger.instance().addChannel("CPU (user)", () -> "" + getStats()[CPU_USER]);
-        GlobalDataLogger.instance().addChannel("CPU (system)", () -> "" + getStats()[CPU_SYS]);
-        GlobalDataLogger.instance().addChannel("Memory Free", () -> "" + getStats()[FREE_MEM]);
+        task.setOnCancel(() ->
+        {
+            try
+            {
+                sampler.close();
+            }
+            catch (IOException ignored) { }
+        });
+        GlobalDataLogger.instance().addChannel("CPU (user)", cpuUser).setPeriod(delay * 1000);
+        GlobalDataLogger.instance().addChannel("CPU (system)", cpuSystem).setPeriod(delay * 1000);
+        GlobalDataLogger.instance().addChannel("CPU (process)", cpuProcess).setPeriod(delay * 1000);
+        GlobalDataLogger.instance().addChannel("Memory Free", memFree).setPeriod(delay * 1000);
+    }
+
+    private void update() throws IOException
+    {
+        sampler.sample();
+        int[] stats = new int[16];
+        stats[RUNNING] = sampler.getProcsRunning();
+        stats[BLOCKED] = sampler.getProcsBlocked();
+        stats[FREE_MEM] = (int)sampler.getMemFree();
+        stats[BUFF_MEM] = (int)sampler.getBuffers();
+        stats[CACHE_MEM] = (int)sampler.getCached();
+        stats[INTERRUPTS] = (int)sampler.getInterruptRate();
+        stats[CTXT_SWITCHES] = (int)sampler.getContextSwitchRate();
+        stats[CPU_USER] = (int)Math.round(sampler.getCpuUser());
+        stats[CPU_SYS] = (int)Math.round(sampler.getCpuSystem());
+        stats[CPU_IDLE] = (int)Math.round(sampler.getCpuIdle());
+        stats[CPU_WAIT] = (int)Math.round(sampler.getCpuIowait());
+        lastStats = stats;
+
+        cpuUser.set(sampler.getCpuUser());
+        cpuSystem.set(sampler.getCpuSystem());
+        cpuProcess.set(sampler.getProcessCpu());
+        memFree.set(sampler.getMemFree());
+        for (int i = 0; i < threadCpu.size(); i++) threadCpu.get(i).set(sampler.getThreadCpu(i));
+        updateTasks();
     }
 
-    public synchronized int[] getStats()
+    private void updateTasks()
     {
-        // Avoid having to read multiple times from several sequential calls (i.e. for getting several statistics at once)
-        if (System.currentTimeMillis() - lastCheck > 200)
+        long now = System.nanoTime();
+        double[] used = new double[TASKS.length];
+        Map<PeriodicTask, Double> cpu = new HashMap<>();
+        for (PeriodicTask task : GlobalThreadPool.instance().getPeriodicTasks())
         {
-            lastCheck = System.currentTimeMillis();
-            String stats = lastMessage;
-            if (stats == null) return lastStats;
-            String[] split = stats.split("\\s+");
-            if (split.length < 16)
-            {
-                log.w("Bad vmstat output. Offending line:");
-                log.w(lastMessage);
-                return lastStats;
-            }
-            // log.d("Stats: %s", Arrays.toString(split));
-            lastStats = new int[split.length-1];
-            for (int i = 1; i < split.length; i++)
+            double time = task.getCpuTime();
+            if (time < 0) continue;
+            for (int i = 0; i < TASKS.length; i++)
             {
-                lastStats[i-1] = Integer.parseInt(split[i]);
+                if (!TASKS[i].equals(task.getName())) continue;
+                Double last = lastTaskCpu.get(task);
+                used[i] += time - (last == null ? 0 : last); // A new task started since the last update
+                cpu.put(task, time);
             }
         }
+        if (lastUpdate != 0)
+        {
+            double elapsed = (now - lastUpdate) / 1e6;
+            for (int i = 0; i < TASKS.length; i++) taskCpu.get(i).set(100 * used[i] / elapsed);
+        }
+        lastTaskCpu = cpu;
+        lastUpdate = now;
+    }
+
+    /**
+     * Get the latest statistics in the same layout as vmstat's output. Swap and block I/O
+     * statistics are not collected and are always 0. Memory is in kB, interrupts and context
+     * switches are per second, and CPU times are percentages.
+     */
+    public int[] getStats()
+    {
         return lastStats;
     }
 
     public void close()
     {
-        process.destroy();
-        thread.cancel(true);
+        if (task != null) task.cancel();
     }
 }
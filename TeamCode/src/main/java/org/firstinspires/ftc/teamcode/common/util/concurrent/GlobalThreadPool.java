@@ -3,26 +3,37 @@ package org.firstinspires.ftc.teamcode.common.util.concurrent;
 import org.firstinspires.ftc.teamcode.autonomous.BaseAutonomous;
 import org.firstinspires.ftc.teamcode.common.util.Logger;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * The threads for everything that runs in the background during an OpMode. Work is split into
+ * {@link Lane}s, each with its own threads, priority and bounded queue, so that logging or vision
+ * saturating the CPU does not delay the control loops.
+ */
 public class GlobalThreadPool
 {
-    private ExecutorService pool;
-    private List<Future<?>> tasks;
+    private final Map<Lane, ThreadPoolExecutor> executors = new EnumMap<>(Lane.class);
+    private final Map<Lane, PeriodicScheduler> schedulers = new EnumMap<>(Lane.class);
+    private final TaskScope root = new TaskScope(this, "", null);
     private int taskLimit;
     private Logger log;
-    
+
     private static GlobalThreadPool instance;
-    
-    private GlobalThreadPool(int nthreads, BaseAutonomous autonomous)
+
+    private GlobalThreadPool(BaseAutonomous autonomous)
     {
-        this(nthreads);
+        this();
         Thread toInterrupt = new Thread(() ->
         {
             try
@@ -35,84 +46,243 @@ public class GlobalThreadPool
             catch (InterruptedException e) {}
             finally
             {
-                pool.shutdownNow(); // Interrupt everything
+                stopAll(); // Interrupt everything
             }
         });
         toInterrupt.setDaemon(true);
         toInterrupt.start();
         autonomous.addThreadToInterrupt(toInterrupt);
     }
-    
-    private GlobalThreadPool(int nthreads)
+
+    private GlobalThreadPool()
     {
-        pool = Executors.newFixedThreadPool(nthreads);
-        tasks = new Vector<>();
-        taskLimit = nthreads;
         log = new Logger("GlobalThreadPool");
+        for (Lane lane : Lane.values())
+        {
+            executors.put(lane, createExecutor(lane));
+            schedulers.put(lane, new PeriodicScheduler(lane));
+            taskLimit += lane.threads;
+        }
     }
-    
-    public static GlobalThreadPool initialize(int nthreads, BaseAutonomous auton)
+
+    public static GlobalThreadPool initialize(BaseAutonomous auton)
     {
-        instance = new GlobalThreadPool(nthreads, auton);
+        instance = new GlobalThreadPool(auton);
         return instance;
     }
-    
-    public static GlobalThreadPool initialize(int nthreads)
+
+    public static GlobalThreadPool initialize()
     {
-        instance = new GlobalThreadPool(nthreads);
+        instance = new GlobalThreadPool();
         return instance;
     }
-    
+
     public static GlobalThreadPool instance()
     {
         return instance;
     }
-    
-    
-    public synchronized Future<?> start(Runnable r)
+
+    private ThreadPoolExecutor createExecutor(Lane lane)
     {
-        log.i("Attempting to start task %s (%d / %d)",
-                r.getClass().getName(), getTaskCount()+1, taskLimit);
-        try
-        {
-            Future<?> task = pool.submit(r);
-            tasks.add(task);
-            log.i("Successfully started task %s", r.getClass().getName());
-            return task;
-        }
-        catch (RejectedExecutionException e)
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(lane.threads, lane.threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(lane.queueSize),
+                r -> new Thread(() ->
+                {
+                    lane.applyPriority();
+                    r.run();
+                }, lane + " " + count.getAndIncrement()),
+                createRejectionHandler(lane));
+    }
+
+    private RejectedExecutionHandler createRejectionHandler(Lane lane)
+    {
+        switch (lane.policy)
         {
-            log.w("FAILED to start task %s", r.getClass().getName());
-            return null;
+            case DROP_OLDEST:
+                return (r, executor) ->
+                {
+                    if (executor.isShutdown()) throw new RejectedExecutionException("The " + lane + " lane is shut down");
+                    Runnable oldest = executor.getQueue().poll();
+                    if (oldest instanceof Future) ((Future<?>)oldest).cancel(false);
+                    log.w("The %s lane is full; dropped the oldest queued task", lane);
+                    executor.execute(r);
+                };
+            case BLOCK:
+                return (r, executor) ->
+                {
+                    if (executor.isShutdown()) throw new RejectedExecutionException("The " + lane + " lane is shut down");
+                    try
+                    {
+                        executor.getQueue().put(r);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting for the " + lane + " lane");
+                    }
+                };
+            default:
+                return (r, executor) ->
+                {
+                    throw new RejectedExecutionException("The " + lane + " lane is "
+                            + (executor.isShutdown() ? "shut down" : "full"));
+                };
         }
     }
-    
-    public synchronized <V> Future<V> start(Callable<V> c)
+
+    boolean execute(TaskHandle<?> task)
     {
-        log.i("Attempting to start task %s (%d / %d)",
-                c.getClass().getName(), getTaskCount()+1, taskLimit);
+        log.i("Attempting to start task %s on the %s lane (%d / %d)",
+                task.getPath(), task.getLane(), getTaskCount()+1, taskLimit);
         try
         {
-            Future<V> task = pool.submit(c);
-            tasks.add(task);
-            log.i("Successfully started task %s", c.getClass().getName());
-            return task;
+            executors.get(task.getLane()).execute(task);
+            log.i("Successfully started task %s", task.getPath());
+            return true;
         }
         catch (RejectedExecutionException e)
         {
-            log.w("FAILED to start task %s", c.getClass().getName());
-            return null;
+            log.w("FAILED to start task %s: %s", task.getPath(), e.getMessage());
+            return false;
         }
     }
-    
-    public synchronized int getTaskCount()
+
+    PeriodicTask schedule(Lane lane, String name, int periodMillis, boolean coalesce, Runnable task)
+    {
+        if (periodMillis <= 0) throw new IllegalArgumentException("Period must be positive");
+        log.i("Scheduling %s every %d ms on the %s lane%s", name, periodMillis, lane,
+                coalesce ? " (coalesced)" : "");
+        return schedulers.get(lane).schedule(name, task, periodMillis * 1000000L, coalesce);
+    }
+
+    /**
+     * @return The scope that contains every scope and every task started directly on the pool
+     */
+    public TaskScope getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * Create a scope for a component's tasks, so they can be cancelled together
+     * @param name The name of the component
+     * @return The new scope
+     */
+    public TaskScope newScope(String name)
+    {
+        return root.child(name);
+    }
+
+    /**
+     * Start a long-running task on a lane's threads, in the root scope
+     * @param lane The lane to run the task on
+     * @param name The name of the task, which its thread carries while it runs
+     * @param r    The task
+     * @return The task's handle, or null if the lane rejected it
+     */
+    public TaskHandle<?> start(Lane lane, String name, Runnable r)
+    {
+        return root.start(lane, name, r);
+    }
+
+    /**
+     * Start a task that computes a result on a lane's threads, in the root scope
+     * @param lane The lane to run the task on
+     * @param name The name of the task, which its thread carries while it runs
+     * @param c    The task
+     * @return The task's handle, or null if the lane rejected it
+     */
+    public <V> TaskHandle<V> start(Lane lane, String name, Callable<V> c)
+    {
+        return root.start(lane, name, c);
+    }
+
+    /**
+     * Run a task periodically on one of a lane's carrier threads instead of giving it a thread of
+     * its own. The first run is as soon as possible. Runs are spaced by the period measured from
+     * one deadline to the next, not from the end of the previous run, so the time the task takes
+     * does not add to the period; see {@link PeriodicTask} for what happens if a run is late. The
+     * task must not block for long, since that delays the other tasks on its carrier.
+     * @param lane         The lane whose carriers run the task
+     * @param name         The name of the task, used in logs and traces
+     * @param periodMillis The period, in milliseconds
+     * @param coalesce     Whether to run this task together with the other coalesced tasks in the
+     *                     lane that have the same period, which saves a wakeup per period for each
+     *                     task. Coalesced tasks run one after another on the same carrier, in the
+     *                     order they were scheduled.
+     * @param task         The task
+     * @return A handle to read the task's statistics or cancel it
+     */
+    public PeriodicTask scheduleAtFixedRate(Lane lane, String name, int periodMillis, boolean coalesce, Runnable task)
     {
-        tasks.removeIf(Future::isDone);
-        return tasks.size();
+        return root.scheduleAtFixedRate(lane, name, periodMillis, coalesce, task);
     }
-    
+
+    /**
+     * Run a task periodically on its own deadline; see
+     * {@link #scheduleAtFixedRate(Lane, String, int, boolean, Runnable)}
+     */
+    public PeriodicTask scheduleAtFixedRate(Lane lane, String name, int periodMillis, Runnable task)
+    {
+        return scheduleAtFixedRate(lane, name, periodMillis, false, task);
+    }
+
+    /**
+     * @return The periodic tasks that are still scheduled
+     */
+    public List<PeriodicTask> getPeriodicTasks()
+    {
+        List<PeriodicTask> all = new ArrayList<>();
+        for (PeriodicScheduler s : schedulers.values()) all.addAll(s.getTasks());
+        return all;
+    }
+
+    /**
+     * @return The number of tasks waiting for a thread in a lane
+     */
+    public int getQueueLength(Lane lane)
+    {
+        return executors.get(lane).getQueue().size();
+    }
+
+    /**
+     * @return The number of one-off tasks that are queued or running
+     */
+    public int getTaskCount()
+    {
+        return root.getTaskCount();
+    }
+
+    /**
+     * Get a line for every live task: the periodic tasks with their statistics, and the queued,
+     * running and failed one-off tasks with their state, run time, CPU time and exception
+     * @return The lines
+     */
+    public List<String> dump()
+    {
+        List<String> lines = new ArrayList<>();
+        root.dump(lines);
+        return lines;
+    }
+
+    /**
+     * Log the live task table; see {@link #dump()}
+     */
+    public void logTasks()
+    {
+        for (Lane lane : Lane.values())
+        {
+            log.i("%s lane: %d queued", lane, getQueueLength(lane));
+        }
+        for (String line : dump()) log.i("%s", line);
+    }
+
     public synchronized void stopAll()
     {
-        pool.shutdownNow();
+        logTasks();
+        root.cancel();
+        for (PeriodicScheduler s : schedulers.values()) s.shutdown();
+        for (ThreadPoolExecutor e : executors.values()) e.shutdownNow();
     }
 }
@@ -0,0 +1,131 @@
+package org.firstinspires.ftc.teamcode.common.util.concurrent;
+
+import android.os.Process;
+
+/**
+ * The executors of the {@link GlobalThreadPool}. Each lane has its own threads, running at their
+ * own priority, and its own bounded queue, so background work can't delay the control loops. On
+ * the robot, priorities are Linux nice values set with {@link Process#setThreadPriority(int)}; on a
+ * desktop JVM, {@link Thread#setPriority(int)} is used instead.
+ */
+public enum Lane
+{
+    /**
+     * Loops that drive the robot: the drivetrain, odometry, IMU polling and motor ramps
+     */
+    CONTROL("control", 4, 2, 8, OverflowPolicy.DROP_NEWEST,
+            Process.THREAD_PRIORITY_URGENT_DISPLAY, Thread.MAX_PRIORITY),
+    /**
+     * One long-running thread per Expansion Hub that sends every command for its hub (see
+     * {@link org.firstinspires.ftc.teamcode.common.util.HubExecutor HubExecutor}), so both hubs
+     * are serviced at the same time
+     */
+    HUB("hub", 2, 1, 2, OverflowPolicy.DROP_NEWEST,
+            Process.THREAD_PRIORITY_URGENT_DISPLAY, Thread.MAX_PRIORITY),
+    /**
+     * Sensors that are polled for other code to read later, such as range sensors. A new reading
+     * replaces a queued one.
+     */
+    SENSOR("sensor", 2, 1, 8, OverflowPolicy.DROP_OLDEST,
+            Process.THREAD_PRIORITY_DISPLAY, Thread.NORM_PRIORITY + 2),
+    /**
+     * Delivering events to listeners when an {@link org.firstinspires.ftc.teamcode.common.events.EventBus
+     * EventBus} dispatches asynchronously, so driver input is handled promptly without running
+     * listeners on the OpMode thread
+     */
+    EVENT("event", 1, 1, 2, OverflowPolicy.DROP_NEWEST,
+            Process.THREAD_PRIORITY_DISPLAY, Thread.NORM_PRIORITY + 2),
+    /**
+     * Logging, telemetry and statistics. Callers wait for space in the queue rather than losing
+     * data.
+     */
+    IO("io", 4, 1, 32, OverflowPolicy.BLOCK,
+            Process.THREAD_PRIORITY_DEFAULT + 2 * Process.THREAD_PRIORITY_LESS_FAVORABLE, Thread.NORM_PRIORITY - 1),
+    /**
+     * The {@link org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger GlobalDataLogger}'s
+     * sampler and writer. The sampler may wait for the writer to make room, which would hold up
+     * every other periodic task on an {@link #IO} carrier.
+     */
+    LOG("log", 1, 1, 2, OverflowPolicy.DROP_NEWEST,
+            Process.THREAD_PRIORITY_DEFAULT + 2 * Process.THREAD_PRIORITY_LESS_FAVORABLE, Thread.NORM_PRIORITY - 1),
+    /**
+     * Image processing, which can use as much CPU as it is given. Stale frames are dropped.
+     */
+    VISION("vision", 2, 1, 2, OverflowPolicy.DROP_OLDEST,
+            Process.THREAD_PRIORITY_DEFAULT + 4 * Process.THREAD_PRIORITY_LESS_FAVORABLE, Thread.NORM_PRIORITY - 2);
+
+    final String name;
+    final int threads;
+    final int carriers;
+    final int queueSize;
+    final OverflowPolicy policy;
+    final int nice;
+    final int priority;
+
+    Lane(String name, int threads, int carriers, int queueSize, OverflowPolicy policy, int nice, int priority)
+    {
+        this.name = name;
+        this.threads = threads;
+        this.carriers = carriers;
+        this.queueSize = queueSize;
+        this.policy = policy;
+        this.nice = nice;
+        this.priority = priority;
+    }
+
+    /**
+     * Set the priority of the current thread to this lane's priority
+     */
+    public void applyPriority()
+    {
+        Thread.currentThread().setPriority(priority);
+        try
+        {
+            Process.setThreadPriority(nice); // Overrides the Java priority on Android
+        }
+        catch (RuntimeException | LinkageError e)
+        {
+            // Not on Android, or not allowed to raise the priority; keep the Java priority
+        }
+    }
+
+    /**
+     * @return The number of threads for one-off and long-running tasks
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * @return The number of threads that run periodic tasks
+     */
+    public int getCarriers()
+    {
+        return carriers;
+    }
+
+    /**
+     * @return The number of tasks that can wait for a thread
+     */
+    public int getQueueSize()
+    {
+        return queueSize;
+    }
+
+    /**
+     * @return What happens to a task when the queue is full: {@link OverflowPolicy#DROP_NEWEST}
+     *         rejects it, {@link OverflowPolicy#DROP_OLDEST} cancels the oldest queued task to make
+     *         room, and {@link OverflowPolicy#BLOCK} makes the caller wait
+     */
+    public OverflowPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,216 @@
+package org.firstinspires.ftc.teamcode.common.util.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A preallocated, lock-free bounded ring of reusable slot objects for any number of producer and
+ * consumer threads (after Dmitry Vyukov's bounded MPMC queue). Slots are mutable objects that are
+ * filled in place, so adding an entry does not allocate.
+ * <p>
+ * Producer usage:
+ * <pre><code>
+ *     long pos = ring.claim();
+ *     if (pos >= 0)
+ *     {
+ *         MySlot slot = ring.get(pos);
+ *         slot.value = ...;
+ *         ring.publish(pos);
+ *     }
+ * </code></pre>
+ * Consumer usage:
+ * <pre><code>
+ *     long pos = ring.poll();
+ *     if (pos >= 0)
+ *     {
+ *         handle(ring.get(pos));
+ *         ring.release(pos);
+ *     }
+ * </code></pre>
+ * A claimed slot must always be published, and a polled slot must always be released, or the ring
+ * stops at that slot.
+ * </p>
+ * @param <T> The slot type
+ */
+public final class MpmcRing<T>
+{
+    /**
+     * Creates the slot objects when the ring is constructed
+     */
+    public interface SlotFactory<T>
+    {
+        T create();
+    }
+
+    private final Object[] slots;
+    private final AtomicLongArray sequence;
+    private final int mask;
+    private final OverflowPolicy policy;
+
+    private final AtomicLong head = new AtomicLong(); // Next position to consume
+    private final AtomicLong tail = new AtomicLong(); // Next position to produce
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Create a ring
+     * @param capacity The number of slots. Rounded up to a power of two.
+     * @param policy   What to do when a producer finds the ring full
+     * @param factory  Creates each slot
+     */
+    public MpmcRing(int capacity, OverflowPolicy policy, SlotFactory<T> factory)
+    {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.mask = size - 1;
+        this.policy = policy;
+        this.slots = new Object[size];
+        this.sequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+        {
+            slots[i] = factory.create();
+            sequence.set(i, i);
+        }
+    }
+
+    public int capacity()
+    {
+        return mask + 1;
+    }
+
+    public OverflowPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * Get the slot at a position returned by {@link #claim()} or {@link #poll()}
+     */
+    @SuppressWarnings("unchecked")
+    public T get(long pos)
+    {
+        return (T)slots[(int)(pos & mask)];
+    }
+
+    ///////////////////////////////////
+    // Producer side
+
+    /**
+     * Claim the next slot for writing
+     * @return The position to write into, or -1 if the entry should be dropped (because of
+     *         {@link OverflowPolicy#DROP_NEWEST} or because the thread was interrupted while
+     *         blocking)
+     */
+    public long claim()
+    {
+        long pos = tail.get();
+        while (true)
+        {
+            long diff = sequence.get((int)(pos & mask)) - pos;
+            if (diff == 0)
+            {
+                if (tail.compareAndSet(pos, pos + 1)) return pos;
+                pos = tail.get();
+            }
+            else if (diff < 0)
+            {
+                // Full
+                switch (policy)
+                {
+                    case DROP_NEWEST:
+                        dropped.incrementAndGet();
+                        return -1;
+                    case DROP_OLDEST:
+                    {
+                        long old = poll();
+                        if (old >= 0)
+                        {
+                            release(old);
+                            dropped.incrementAndGet();
+                        }
+                        break;
+                    }
+                    default:
+                        LockSupport.parkNanos(50000);
+                        if (Thread.currentThread().isInterrupted())
+                        {
+                            dropped.incrementAndGet();
+                            return -1;
+                        }
+                        break;
+                }
+                pos = tail.get();
+            }
+            else
+            {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Make a claimed slot visible to consumers
+     * @param pos The position returned by {@link #claim()}
+     */
+    public void publish(long pos)
+    {
+        sequence.lazySet((int)(pos & mask), pos + 1);
+    }
+
+    ///////////////////////////////////
+    // Consumer side
+
+    /**
+     * Take the oldest published slot
+     * @return The position to read, or -1 if the ring is empty
+     */
+    public long poll()
+    {
+        long pos = head.get();
+        while (true)
+        {
+            long diff = sequence.get((int)(pos & mask)) - (pos + 1);
+            if (diff == 0)
+            {
+                if (head.compareAndSet(pos, pos + 1)) return pos;
+                pos = head.get();
+            }
+            else if (diff < 0)
+            {
+                return -1; // Empty (or the next slot is claimed but not yet published)
+            }
+            else
+            {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * Return a polled slot to the producers
+     * @param pos The position returned by {@link #poll()}
+     */
+    public void release(long pos)
+    {
+        sequence.lazySet((int)(pos & mask), pos + mask + 1);
+    }
+
+    ///////////////////////////////////
+    // Statistics (any thread)
+
+    /**
+     * @return The approximate number of entries waiting to be consumed
+     */
+    public int size()
+    {
+        long h = head.get();
+        return (int)Math.max(0, Math.min(tail.get() - h, capacity()));
+    }
+
+    /**
+     * @return The number of entries dropped since the ring was created
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+}
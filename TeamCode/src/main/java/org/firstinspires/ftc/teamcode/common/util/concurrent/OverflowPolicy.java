@@ -0,0 +1,20 @@
+package org.firstinspires.ftc.teamcode.common.util.concurrent;
+
+/**
+ * What a bounded buffer should do when a producer tries to add to it while it is full.
+ */
+public enum OverflowPolicy
+{
+    /**
+     * Discard the oldest entry in the buffer to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Discard the new entry and leave the buffer untouched.
+     */
+    DROP_NEWEST,
+    /**
+     * Wait until the consumer makes room. This couples the producer to the consumer's speed.
+     */
+    BLOCK
+}
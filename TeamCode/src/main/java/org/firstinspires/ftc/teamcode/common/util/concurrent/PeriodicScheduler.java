@@ -0,0 +1,259 @@
+package org.firstinspires.ftc.teamcode.common.util.concurrent;
+
+import org.firstinspires.ftc.teamcode.common.util.Logger;
+import org.firstinspires.ftc.teamcode.common.util.Trace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the {@link PeriodicTask}s of one {@link Lane} on a few carrier threads. Waiting tasks are kept in a queue ordered by
+ * deadline; an idle carrier parks until the earliest deadline, runs that task and puts it back with
+ * its next deadline. Coalesced tasks with the same period share one queue entry and run back to
+ * back on one wakeup. Carriers are started when the first task is scheduled.
+ */
+final class PeriodicScheduler
+{
+    /**
+     * Tasks that run together. A task that isn't coalesced has a group of its own.
+     */
+    static final class Group
+    {
+        final long period;
+        final boolean coalesce;
+        PeriodicTask[] tasks = new PeriodicTask[0]; // Copied on write, so carriers can run a snapshot
+        long deadline;
+        boolean queued;
+
+        Group(long period, boolean coalesce)
+        {
+            this.period = period;
+            this.coalesce = coalesce;
+        }
+    }
+
+    private final PriorityQueue<Group> queue = new PriorityQueue<>(16,
+            (a, b) -> Long.signum(a.deadline - b.deadline));
+    private final List<Group> coalesced = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Lane lane;
+    private final Thread[] carriers;
+    private final List<PeriodicTask> tasks = new ArrayList<>();
+    private boolean started;
+    private boolean shutdown;
+    private Logger log = new Logger("PeriodicScheduler");
+
+    PeriodicScheduler(Lane lane)
+    {
+        this.lane = lane;
+        this.carriers = new Thread[lane.carriers];
+    }
+
+    PeriodicTask schedule(String name, Runnable body, long periodNanos, boolean coalesce)
+    {
+        PeriodicTask task = new PeriodicTask(name, body, periodNanos, coalesce, this);
+        lock.lock();
+        try
+        {
+            if (shutdown) throw new IllegalStateException("Scheduler has been shut down");
+            Group group = null;
+            if (coalesce)
+            {
+                for (Group g : coalesced)
+                {
+                    if (g.period == periodNanos) group = g;
+                }
+            }
+            if (group == null)
+            {
+                group = new Group(periodNanos, coalesce);
+                group.deadline = System.nanoTime();
+                if (coalesce) coalesced.add(group);
+            }
+            PeriodicTask[] grown = Arrays.copyOf(group.tasks, group.tasks.length + 1);
+            grown[grown.length - 1] = task;
+            group.tasks = grown;
+            task.group = group;
+            tasks.add(task);
+            if (group.tasks.length == 1 && !group.queued) enqueue(group);
+            startCarriers();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return task;
+    }
+
+    void remove(PeriodicTask task)
+    {
+        lock.lock();
+        try
+        {
+            Group group = task.group;
+            tasks.remove(task);
+            PeriodicTask[] left = new PeriodicTask[group.tasks.length];
+            int n = 0;
+            for (PeriodicTask t : group.tasks)
+            {
+                if (t != task) left[n++] = t;
+            }
+            group.tasks = Arrays.copyOf(left, n);
+            if (n == 0)
+            {
+                coalesced.remove(group);
+                if (group.queued) queue.remove(group);
+                group.queued = false;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    void failed(PeriodicTask task, Throwable t)
+    {
+        log.e("Periodic task %s failed and was cancelled", task.name);
+        log.e(t);
+    }
+
+    /**
+     * @return A copy of the list of scheduled tasks
+     */
+    List<PeriodicTask> getTasks()
+    {
+        lock.lock();
+        try
+        {
+            return new ArrayList<>(tasks);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cancel every task and stop the carriers
+     */
+    void shutdown()
+    {
+        List<PeriodicTask> cancelled;
+        lock.lock();
+        try
+        {
+            shutdown = true;
+            cancelled = new ArrayList<>(tasks);
+            for (Thread t : carriers)
+            {
+                if (t != null) t.interrupt();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        for (PeriodicTask t : cancelled) t.cancel();
+    }
+
+    // Must hold the lock
+    private void enqueue(Group group)
+    {
+        group.queued = true;
+        queue.add(group);
+        changed.signal();
+    }
+
+    // Must hold the lock
+    private void startCarriers()
+    {
+        if (started) return;
+        started = true;
+        for (int i = 0; i < carriers.length; i++)
+        {
+            Thread t = new Thread(this::carrierLoop, "Periodic " + lane + " " + i);
+            t.setDaemon(true);
+            carriers[i] = t;
+            t.start();
+        }
+    }
+
+    private void carrierLoop()
+    {
+        lane.applyPriority();
+        try
+        {
+            while (true)
+            {
+                Group group;
+                PeriodicTask[] run;
+                lock.lockInterruptibly();
+                try
+                {
+                    while (true)
+                    {
+                        if (shutdown) return;
+                        group = queue.peek();
+                        if (group == null)
+                        {
+                            changed.await();
+                            continue;
+                        }
+                        long wait = group.deadline - System.nanoTime();
+                        if (wait <= 0) break;
+                        changed.awaitNanos(wait);
+                    }
+                    queue.poll();
+                    group.queued = false;
+                    run = group.tasks;
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+
+                for (PeriodicTask task : run)
+                {
+                    boolean trace = Trace.isEnabled();
+                    if (trace) Trace.begin(task.name);
+                    task.run(group.deadline);
+                    if (trace) Trace.end();
+                }
+                reschedule(group);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // Shut down
+        }
+    }
+
+    private void reschedule(Group group)
+    {
+        lock.lock();
+        try
+        {
+            long now = System.nanoTime();
+            long next = group.deadline + group.period;
+            if (now - next >= 0)
+            {
+                // Late: drop the deadlines that have passed instead of running them back to back
+                long missed = (now - group.deadline) / group.period;
+                next = group.deadline + (missed + 1) * group.period;
+                for (PeriodicTask task : group.tasks) task.missed(missed);
+            }
+            group.deadline = next;
+            if (group.tasks.length > 0 && !shutdown) enqueue(group);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+}
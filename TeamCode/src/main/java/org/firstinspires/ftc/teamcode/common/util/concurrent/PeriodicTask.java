@@ -0,0 +1,216 @@
+package org.firstinspires.ftc.teamcode.common.util.concurrent;
+
+/**
+ * A task that runs at a fixed rate on one of the {@link GlobalThreadPool}'s carrier threads; see
+ * {@link GlobalThreadPool#scheduleAtFixedRate(Lane, String, int, boolean, Runnable)}.
+ * <p>
+ * Deadlines are spaced exactly one period apart, so the time the task takes does not make it drift.
+ * If a run ends after its next deadline, the run is counted as an overrun and every deadline that
+ * has already passed is skipped instead of being run back to back. A task that throws is cancelled.
+ * </p>
+ */
+public final class PeriodicTask
+{
+    final String name;
+    final Runnable body;
+    final long period;
+    final boolean coalesce;
+    final PeriodicScheduler scheduler;
+    PeriodicScheduler.Group group;
+
+    private volatile boolean cancelled;
+    private boolean running;
+    private Runnable onCancel;
+    private volatile Throwable failure;
+    private volatile long runs;
+    private volatile long overruns;
+    private volatile long skips;
+    private volatile long runTime;
+    private volatile long maxRunTime;
+    private volatile long maxLateness;
+    private volatile long cpuTime = -1;
+
+    PeriodicTask(String name, Runnable body, long periodNanos, boolean coalesce, PeriodicScheduler scheduler)
+    {
+        this.name = name;
+        this.body = body;
+        this.period = periodNanos;
+        this.coalesce = coalesce;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Stop running the task. A run that is in progress is allowed to finish.
+     */
+    public void cancel()
+    {
+        Runnable cleanup;
+        synchronized (this)
+        {
+            if (cancelled) return;
+            cancelled = true;
+            cleanup = running ? null : onCancel; // Otherwise run by the carrier when the run ends
+        }
+        scheduler.remove(this);
+        if (cleanup != null) cleanup.run();
+    }
+
+    /**
+     * Set an action to run once the task is cancelled and is no longer running, such as closing
+     * resources the task uses. It runs on the thread that cancelled the task, or on the carrier
+     * if a run was in progress.
+     * @param onCancel The action
+     * @return This task
+     */
+    public PeriodicTask setOnCancel(Runnable onCancel)
+    {
+        boolean now;
+        synchronized (this)
+        {
+            this.onCancel = onCancel;
+            now = cancelled && !running;
+        }
+        if (now) onCancel.run();
+        return this;
+    }
+
+    // Only one carrier runs a task at a time, so the counters are not updated concurrently
+    void run(long deadline)
+    {
+        synchronized (this)
+        {
+            if (cancelled) return;
+            running = true;
+        }
+        long start = System.nanoTime();
+        long cpuStart = ThreadCpu.currentThreadNanos();
+        try
+        {
+            body.run();
+        }
+        catch (Throwable t)
+        {
+            failure = t;
+            scheduler.failed(this, t);
+            cancel();
+        }
+        long time = System.nanoTime() - start;
+        if (cpuStart >= 0) cpuTime = Math.max(cpuTime, 0) + ThreadCpu.currentThreadNanos() - cpuStart;
+        runs++;
+        runTime += time;
+        if (time > maxRunTime) maxRunTime = time;
+        if (start - deadline > maxLateness) maxLateness = start - deadline;
+
+        Runnable cleanup;
+        synchronized (this)
+        {
+            running = false;
+            cleanup = cancelled ? onCancel : null;
+        }
+        if (cleanup != null) cleanup.run();
+    }
+
+    void missed(long deadlines)
+    {
+        overruns++;
+        skips += deadlines;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return The period in milliseconds
+     */
+    public double getPeriod()
+    {
+        return period / 1e6;
+    }
+
+    public boolean isCoalesced()
+    {
+        return coalesce;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * @return The exception that cancelled the task, or null
+     */
+    public Throwable getFailure()
+    {
+        return failure;
+    }
+
+    public long getRuns()
+    {
+        return runs;
+    }
+
+    /**
+     * @return The number of runs that ended after the next deadline had passed
+     */
+    public long getOverruns()
+    {
+        return overruns;
+    }
+
+    /**
+     * @return The number of deadlines that were dropped because they had passed by the end of a run
+     */
+    public long getSkips()
+    {
+        return skips;
+    }
+
+    /**
+     * @return The average time each run took, in milliseconds
+     */
+    public double getMeanRunTime()
+    {
+        long runs = this.runs;
+        return runs == 0 ? 0 : runTime / 1e6 / runs;
+    }
+
+    /**
+     * @return The longest run, in milliseconds
+     */
+    public double getMaxRunTime()
+    {
+        return maxRunTime / 1e6;
+    }
+
+    /**
+     * @return The longest time between a deadline and the start of the run, in milliseconds
+     */
+    public double getMaxLateness()
+    {
+        return maxLateness / 1e6;
+    }
+
+    /**
+     * @return The CPU time all runs have used, in milliseconds, or -1 if it is unknown (i.e. not on
+     *         Android)
+     */
+    public double getCpuTime()
+    {
+        long cpu = cpuTime;
+        return cpu < 0 ? -1 : cpu / 1e6;
+    }
+
+    @Override
+    public String toString()
+    {
+        double cpu = getCpuTime();
+        return String.format("%s: every %.1f ms%s, %d runs, %d overruns, %d skips, mean %.2f ms, max %.2f ms, max late %.2f ms%s%s",
+                name, getPeriod(), coalesce ? " (coalesced)" : "", runs, overruns, skips,
+                getMeanRunTime(), getMaxRunTime(), getMaxLateness(),
+                cpu >= 0 ? String.format(", cpu %.0f ms", cpu) : "",
+                cancelled ? (failure != null ? ", failed" : ", cancelled") : "");
+    }
+}
@@ -0,0 +1,57 @@
+package org.firstinspires.ftc.teamcode.common.util.concurrent;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * A lock-free slot holding the latest value computed by a control loop. The loop calls
+ * {@link #set(double)} with values it already has, and other threads (i.e. the
+ * {@link org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger GlobalDataLogger}) read it
+ * without blocking and without touching any hardware.
+ * <p>
+ * Values should only be published by one thread. Readers always see a complete value, but the
+ * value and its timestamp are updated separately and may briefly disagree.
+ * </p>
+ */
+public final class PublishedDouble implements DoubleSupplier
+{
+    private volatile double value;
+    private volatile long time;
+
+    public PublishedDouble()
+    {
+        this(Double.NaN);
+    }
+
+    /**
+     * @param initial The value to report until the first {@link #set(double)}
+     */
+    public PublishedDouble(double initial)
+    {
+        value = initial;
+    }
+
+    /**
+     * Publish a new value
+     * @param value The value
+     */
+    public void set(double value)
+    {
+        this.value = value;
+        time = System.nanoTime();
+    }
+
+    @Override
+    public double getAsDouble()
+    {
+        return value;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} of the last {@link #set(double)}, or 0 if no value has
+     *         been published yet
+     */
+    public long getTime()
+    {
+        return time;
+    }
+}
@@ -0,0 +1,57 @@
+package org.firstinspires.ftc.teamcode.common.util.concurrent;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A lock-free slot holding the latest value computed by a control loop. The loop calls
+ * {@link #set(long)} with values it already has, and other threads (i.e. the
+ * {@link org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger GlobalDataLogger}) read it
+ * without blocking and without touching any hardware.
+ * <p>
+ * Values should only be published by one thread. Readers always see a complete value, but the
+ * value and its timestamp are updated separately and may briefly disagree.
+ * </p>
+ */
+public final class PublishedLong implements LongSupplier
+{
+    private volatile long value;
+    private volatile long time;
+
+    public PublishedLong()
+    {
+        this(0);
+    }
+
+    /**
+     * @param initial The value to report until the first {@link #set(long)}
+     */
+    public PublishedLong(long initial)
+    {
+        value = initial;
+    }
+
+    /**
+     * Publish a new value
+     * @param value The value
+     */
+    public void set(long value)
+    {
+        this.value = value;
+        time = System.nanoTime();
+    }
+
+    @Override
+    public long getAsLong()
+    {
+        return value;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} of the last {@link #set(long)}, or 0 if no value has
+     *         been published yet
+     */
+    public long getTime()
+    {
+        return time;
+    }
+}
@@ -0,0 +1,204 @@
+package org.firstinspires.ftc.teamcode.common.util.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A preallocated, lock-free ring of fixed-size sample slots for exactly one producer thread and
+ * exactly one consumer thread. Each slot holds {@code stride} primitive values (stored as raw
+ * {@code long} bits) and {@code stride} object references.
+ * <p>
+ * Producer usage:
+ * <pre><code>
+ *     int slot = ring.claim();
+ *     if (slot >= 0)
+ *     {
+ *         ring.data()[ring.offset(slot) + i] = ...;
+ *         ring.publish();
+ *     }
+ * </code></pre>
+ * Consumer usage:
+ * <pre><code>
+ *     int slot = ring.peek();
+ *     if (slot >= 0)
+ *     {
+ *         ring.copy(slot, myData, myRefs);
+ *         if (ring.release()) handle(myData, myRefs);
+ *     }
+ * </code></pre>
+ * With {@link OverflowPolicy#DROP_OLDEST}, the producer may overwrite the slot the consumer is
+ * reading. In that case {@link #release()} returns false and the copied data must be discarded.
+ * </p>
+ */
+public final class SampleRing
+{
+    private final long[] data;
+    private final Object[] refs;
+    private final int stride;
+    private final int mask;
+    private final OverflowPolicy policy;
+
+    private final AtomicLong head = new AtomicLong(); // Next slot to consume
+    private final AtomicLong tail = new AtomicLong(); // Next slot to produce
+    private final AtomicLong dropped = new AtomicLong();
+
+    private long claimed = -1;
+    private long reading = -1;
+
+    /**
+     * Create a ring
+     * @param capacity The number of slots. Rounded up to a power of two.
+     * @param stride   The number of values in each slot
+     * @param policy   What to do when the producer runs into the consumer
+     */
+    public SampleRing(int capacity, int stride, OverflowPolicy policy)
+    {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.mask = size - 1;
+        this.stride = stride;
+        this.policy = policy;
+        this.data = new long[size * stride];
+        this.refs = new Object[size * stride];
+    }
+
+    public int capacity()
+    {
+        return mask + 1;
+    }
+
+    public int stride()
+    {
+        return stride;
+    }
+
+    public OverflowPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    public long[] data()
+    {
+        return data;
+    }
+
+    public Object[] refs()
+    {
+        return refs;
+    }
+
+    /**
+     * Get the index of the first value in a slot in {@link #data()} and {@link #refs()}
+     * @param slot The slot returned by {@link #claim()} or {@link #peek()}
+     * @return The offset of the slot
+     */
+    public int offset(int slot)
+    {
+        return slot * stride;
+    }
+
+    ///////////////////////////////////
+    // Producer side
+
+    /**
+     * Claim the next slot for writing. Producer thread only.
+     * @return The slot to write into, or -1 if the sample should be dropped (because of
+     *         {@link OverflowPolicy#DROP_NEWEST} or because the thread was interrupted while
+     *         blocking)
+     */
+    public int claim()
+    {
+        long t = tail.get();
+        while (t - head.get() > mask)
+        {
+            switch (policy)
+            {
+                case DROP_NEWEST:
+                    dropped.incrementAndGet();
+                    return -1;
+                case DROP_OLDEST:
+                {
+                    long h = head.get();
+                    if (t - h > mask && head.compareAndSet(h, h + 1)) dropped.incrementAndGet();
+                    break;
+                }
+                default:
+                    LockSupport.parkNanos(50000);
+                    if (Thread.currentThread().isInterrupted()) return -1;
+                    break;
+            }
+        }
+        claimed = t;
+        return (int)(t & mask);
+    }
+
+    /**
+     * Make the claimed slot visible to the consumer. Producer thread only.
+     */
+    public void publish()
+    {
+        if (claimed < 0) throw new IllegalStateException("No slot claimed");
+        tail.lazySet(claimed + 1);
+        claimed = -1;
+    }
+
+    ///////////////////////////////////
+    // Consumer side
+
+    /**
+     * Get the oldest published slot without removing it. Consumer thread only.
+     * @return The slot to read, or -1 if the ring is empty
+     */
+    public int peek()
+    {
+        long h = head.get();
+        if (h >= tail.get()) return -1;
+        reading = h;
+        return (int)(h & mask);
+    }
+
+    /**
+     * Copy the first {@code count} values of a slot into the given arrays
+     * @param slot  The slot returned by {@link #peek()}
+     * @param data  Where to put the primitive values
+     * @param refs  Where to put the references (may be null to skip them)
+     * @param count How many values to copy
+     */
+    public void copy(int slot, long[] data, Object[] refs, int count)
+    {
+        System.arraycopy(this.data, slot * stride, data, 0, count);
+        if (refs != null) System.arraycopy(this.refs, slot * stride, refs, 0, count);
+    }
+
+    /**
+     * Remove the slot returned by the last {@link #peek()}. Consumer thread only.
+     * @return false if the producer overwrote the slot while it was being read; any data copied
+     *         from it is then invalid.
+     */
+    public boolean release()
+    {
+        if (reading < 0) throw new IllegalStateException("No slot being read");
+        boolean ok = head.compareAndSet(reading, reading + 1);
+        reading = -1;
+        return ok;
+    }
+
+    ///////////////////////////////////
+    // Statistics (any thread)
+
+    /**
+     * @return The number of published slots waiting to be consumed
+     */
+    public int size()
+    {
+        long h = head.get();
+        return (int)Math.max(0, Math.min(tail.get() - h, capacity()));
+    }
+
+    /**
+     * @return The number of samples dropped since the ring was created
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+}
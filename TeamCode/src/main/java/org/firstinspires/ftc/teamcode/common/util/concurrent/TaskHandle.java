@@ -0,0 +1,164 @@
+package org.firstinspires.ftc.teamcode.common.util.concurrent;
+
+import org.firstinspires.ftc.teamcode.common.util.Logger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A task started on a {@link GlobalThreadPool} lane. Besides being a {@link java.util.concurrent.Future},
+ * a handle knows the task's name, state, when it started, how much CPU time it has used and the
+ * exception it threw, if any. The pool thread carries the task's name while the task runs, so it
+ * can be told apart in /proc (see {@link org.firstinspires.ftc.teamcode.common.util.ProcSampler
+ * ProcSampler}) and in stack dumps; the kernel only keeps the first 15 bytes of the name.
+ */
+public final class TaskHandle<V> extends FutureTask<V>
+{
+    public enum State
+    {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    private final String name;
+    private final Lane lane;
+    private final TaskScope scope;
+
+    private volatile Thread thread;
+    private volatile int tid = -1;
+    private volatile long startTime;
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile long cpuStart = -1;
+    private volatile long cpuTime = -1;
+    private volatile Throwable exception;
+
+    TaskHandle(String name, Lane lane, TaskScope scope, Callable<V> task)
+    {
+        super(task);
+        this.name = name;
+        this.lane = lane;
+        this.scope = scope;
+    }
+
+    @Override
+    public void run()
+    {
+        if (isDone()) return; // Cancelled while queued
+        Thread t = Thread.currentThread();
+        String old = t.getName();
+        t.setName(name);
+        tid = ThreadCpu.myTid();
+        cpuStart = ThreadCpu.threadMillis(tid);
+        startTime = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+        thread = t;
+        try
+        {
+            super.run();
+        }
+        finally
+        {
+            long cpu = ThreadCpu.threadMillis(tid);
+            if (cpu >= 0 && cpuStart >= 0) cpuTime = cpu - cpuStart;
+            endNanos = System.nanoTime();
+            thread = null;
+            t.setName(old);
+        }
+    }
+
+    @Override
+    protected void setException(Throwable t)
+    {
+        exception = t;
+        Logger log = new Logger("GlobalThreadPool");
+        log.e("Task %s failed", getPath());
+        log.e(t);
+        super.setException(t);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return The name of the task prefixed by the names of its scopes, i.e. "Drivetrain/SpeedController"
+     */
+    public String getPath()
+    {
+        return scope.getPath() + name;
+    }
+
+    public Lane getLane()
+    {
+        return lane;
+    }
+
+    public TaskScope getScope()
+    {
+        return scope;
+    }
+
+    public State getState()
+    {
+        if (exception != null) return State.FAILED;
+        if (isCancelled()) return State.CANCELLED;
+        if (isDone()) return State.DONE;
+        return startNanos == 0 ? State.QUEUED : State.RUNNING;
+    }
+
+    /**
+     * @return When the task started running, as in {@link System#currentTimeMillis()}, or 0 if it
+     *         is still queued
+     */
+    public long getStartTime()
+    {
+        return startTime;
+    }
+
+    /**
+     * @return How long the task has been running, or ran for, in milliseconds
+     */
+    public double getRunTime()
+    {
+        long start = startNanos;
+        if (start == 0) return 0;
+        long end = thread != null || endNanos == 0 ? System.nanoTime() : endNanos;
+        return (end - start) / 1e6;
+    }
+
+    /**
+     * @return The CPU time the task has used in milliseconds, with a resolution of 10 ms, or -1 if
+     *         it is unknown (i.e. not on Android)
+     */
+    public long getCpuTime()
+    {
+        long cpu = cpuTime;
+        if (cpu >= 0 || thread == null || cpuStart < 0) return cpu;
+        long now = ThreadCpu.threadMillis(tid);
+        return now < 0 ? -1 : now - cpuStart;
+    }
+
+    /**
+     * @return The exception the task threw, or null
+     */
+    public Throwable getException()
+    {
+        return exception;
+    }
+
+    @Override
+    public String toString()
+    {
+        State state = getState();
+        StringBuilder s = new StringBuilder(String.format("%s [%s] %s", getPath(), lane, state));
+        if (state != State.QUEUED)
+        {
+            s.append(String.format(", %.1f s", getRunTime() / 1000));
+            long cpu = getCpuTime();
+            if (cpu >= 0) s.append(String.format(", cpu %d ms", cpu));
+        }
+        if (exception != null) s.append(", ").append(exception);
+        return s.toString();
+    }
+}
@@ -0,0 +1,175 @@
+package org.firstinspires.ftc.teamcode.common.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+/**
+ * A group of tasks that are cancelled together, i.e. everything a component started. Scopes form
+ * a tree below the {@link GlobalThreadPool#getRoot() pool's root scope}; cancelling a scope cancels
+ * the tasks of all of its children too.
+ * <pre><code>
+ *     scope = GlobalThreadPool.instance().newScope("Drivetrain");
+ *     scope.scheduleAtFixedRate(Lane.CONTROL, "SpeedController", 10, controller);
+ *     ...
+ *     scope.cancel();
+ * </code></pre>
+ * A scope can be used again after it is cancelled.
+ */
+public final class TaskScope
+{
+    private final GlobalThreadPool pool;
+    private final String name;
+    private final TaskScope parent;
+    private final List<TaskScope> children = new ArrayList<>();
+    private final List<TaskHandle<?>> tasks = new ArrayList<>();
+    private final List<PeriodicTask> periodic = new ArrayList<>();
+
+    TaskScope(GlobalThreadPool pool, String name, TaskScope parent)
+    {
+        this.pool = pool;
+        this.name = name;
+        this.parent = parent;
+    }
+
+    /**
+     * Create a scope inside this one
+     * @param name The name of the scope
+     * @return The new scope
+     */
+    public synchronized TaskScope child(String name)
+    {
+        TaskScope child = new TaskScope(pool, name, this);
+        children.add(child);
+        return child;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return The names of this scope and its parents, each followed by "/", or "" for the root
+     */
+    public String getPath()
+    {
+        if (parent == null) return "";
+        return parent.getPath() + name + "/";
+    }
+
+    /**
+     * Start a task on a lane's threads
+     * @param lane The lane to run the task on
+     * @param name The name of the task
+     * @param r    The task
+     * @return The task's handle, or null if the lane rejected it
+     */
+    public TaskHandle<?> start(Lane lane, String name, Runnable r)
+    {
+        return start(lane, name, Executors.callable(r));
+    }
+
+    /**
+     * Start a task that computes a result on a lane's threads
+     * @param lane The lane to run the task on
+     * @param name The name of the task
+     * @param c    The task
+     * @return The task's handle, or null if the lane rejected it
+     */
+    public <V> TaskHandle<V> start(Lane lane, String name, Callable<V> c)
+    {
+        TaskHandle<V> task = new TaskHandle<>(name, lane, this, c);
+        synchronized (this)
+        {
+            tasks.removeIf(t -> t.isDone() && t.getState() != TaskHandle.State.FAILED);
+            tasks.add(task);
+        }
+        if (!pool.execute(task))
+        {
+            synchronized (this)
+            {
+                tasks.remove(task);
+            }
+            return null;
+        }
+        return task;
+    }
+
+    /**
+     * Run a task periodically; see
+     * {@link GlobalThreadPool#scheduleAtFixedRate(Lane, String, int, boolean, Runnable)}
+     */
+    public PeriodicTask scheduleAtFixedRate(Lane lane, String name, int periodMillis, boolean coalesce, Runnable task)
+    {
+        PeriodicTask t = pool.schedule(lane, getPath() + name, periodMillis, coalesce, task);
+        synchronized (this)
+        {
+            periodic.removeIf(PeriodicTask::isCancelled);
+            periodic.add(t);
+        }
+        return t;
+    }
+
+    /**
+     * Run a task periodically on its own deadline; see
+     * {@link GlobalThreadPool#scheduleAtFixedRate(Lane, String, int, boolean, Runnable)}
+     */
+    public PeriodicTask scheduleAtFixedRate(Lane lane, String name, int periodMillis, Runnable task)
+    {
+        return scheduleAtFixedRate(lane, name, periodMillis, false, task);
+    }
+
+    /**
+     * Cancel every task in this scope and its children. Running tasks are interrupted; periodic
+     * tasks finish their current run.
+     */
+    public void cancel()
+    {
+        List<TaskScope> children;
+        List<TaskHandle<?>> tasks;
+        List<PeriodicTask> periodic;
+        synchronized (this)
+        {
+            children = new ArrayList<>(this.children);
+            tasks = new ArrayList<>(this.tasks);
+            periodic = new ArrayList<>(this.periodic);
+            this.periodic.clear();
+        }
+        for (PeriodicTask t : periodic) t.cancel();
+        for (TaskHandle<?> t : tasks) t.cancel(true);
+        for (TaskScope c : children) c.cancel();
+    }
+
+    /**
+     * @return The number of tasks in this scope and its children that are queued or running
+     */
+    public synchronized int getTaskCount()
+    {
+        int count = 0;
+        for (TaskHandle<?> t : tasks)
+        {
+            if (!t.isDone()) count++;
+        }
+        for (TaskScope c : children) count += c.getTaskCount();
+        return count;
+    }
+
+    /**
+     * Add a line for every task in this scope and its children to a list: the queued, running and
+     * failed one-off tasks, and the periodic tasks
+     */
+    synchronized void dump(List<String> lines)
+    {
+        for (PeriodicTask t : periodic)
+        {
+            if (!t.isCancelled() || t.getFailure() != null) lines.add(t.toString());
+        }
+        for (TaskHandle<?> t : tasks)
+        {
+            if (!t.isDone() || t.getState() == TaskHandle.State.FAILED) lines.add(t.toString());
+        }
+        for (TaskScope c : children) c.dump(lines);
+    }
+}
@@ -0,0 +1,85 @@
+package org.firstinspires.ftc.teamcode.common.util.concurrent;
+
+import android.os.Debug;
+import android.os.Process;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads how much CPU time threads have used. Uses Android APIs on the robot; elsewhere, every
+ * method returns -1.
+ */
+final class ThreadCpu
+{
+    private static final boolean ANDROID = isAndroid();
+    private static final int USER_HZ = 100; // Unit of the times in /proc on every Linux ABI
+
+    private ThreadCpu() { }
+
+    private static boolean isAndroid()
+    {
+        try
+        {
+            Process.myTid();
+            return true;
+        }
+        catch (RuntimeException | LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * @return The kernel thread id of the current thread, or -1
+     */
+    static int myTid()
+    {
+        return ANDROID ? Process.myTid() : -1;
+    }
+
+    /**
+     * @return The CPU time used by the current thread in nanoseconds, or -1
+     */
+    static long currentThreadNanos()
+    {
+        return ANDROID ? Debug.threadCpuTimeNanos() : -1;
+    }
+
+    /**
+     * Read the CPU time used by any thread in this process from {@code /proc}. The resolution is
+     * 10 ms.
+     * @param tid The thread id from {@link #myTid()}
+     * @return The user and system time in milliseconds, or -1 if the thread has exited
+     */
+    static long threadMillis(int tid)
+    {
+        if (tid < 0) return -1;
+        byte[] buf = new byte[512];
+        int length = 0;
+        try (FileInputStream in = new FileInputStream("/proc/self/task/" + tid + "/stat"))
+        {
+            for (int n; length < buf.length && (n = in.read(buf, length, buf.length - length)) > 0; ) length += n;
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+        // Skip "tid (comm)"; the name may contain spaces and parentheses
+        int pos = length - 1;
+        while (pos > 0 && buf[pos] != ')') pos--;
+        // Fields after the name start at 3 (state); utime and stime are 14 and 15
+        long[] times = new long[2];
+        int field = 2;
+        for (pos++; pos < length && field <= 15; pos++)
+        {
+            if (buf[pos] == ' ')
+            {
+                field++;
+                continue;
+            }
+            if (field >= 14) times[field - 14] = times[field - 14] * 10 + (buf[pos] - '0');
+        }
+        return (times[0] + times[1]) * 1000 / USER_HZ;
+    }
+}
@@ -0,0 +1,276 @@
+package org.firstinspires.ftc.teamcode.common.util.metrics;
+
+import com.qualcomm.hardware.lynx.LynxModule;
+import com.qualcomm.robotcore.hardware.HardwareDevice;
+
+import org.firstinspires.ftc.robotcore.external.Telemetry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Measures the commands that reach each Expansion Hub, to find what is flooding the bus. Each kind
+ * of command gets a {@link Probe} with its own latency {@link Timer}, named
+ * {@code "<hub> <command>"}, e.g. "Left hub HubCache bulk read". Each hub also has:
+ * <ul>
+ *     <li>{@code "<hub> in flight"}: the number of calls in progress, including ones that are
+ *         waiting for the hub's I/O thread or the USB transport</li>
+ *     <li>{@code "<hub> congestion"}: the average number of calls in flight over about the last
+ *         second. Near 0 the hub is idle, at 1 it is always busy, and above 1 callers are waiting
+ *         for each other.</li>
+ * </ul>
+ * These are ordinary {@link Metrics}, so they are exported to the data logger with the rest.
+ * <pre><code>
+ *     Probe read = BusMonitor.probe(channel, "Switch read");
+ *     ...
+ *     boolean state = read.callBoolean(channel::getState);
+ * </code></pre>
+ * Probes sit where the commands are actually sent: the bulk reads, the write buffer's flushes, the
+ * commands queued on a {@link org.firstinspires.ftc.teamcode.common.util.HubExecutor HubExecutor}
+ * (from when they are queued) and the calls that go straight to the hub. Reads served from a
+ * snapshot and writes that only go into the write buffer are not measured, since they never reach
+ * the bus.
+ */
+public final class BusMonitor
+{
+    private static final double TAU = 1e9; // Congestion time constant, ns
+
+    private static final class Hub
+    {
+        final String name;
+        volatile String connectionInfo;
+        final List<Probe> probes = new ArrayList<>(); // Guarded by BusMonitor.class
+
+        // Guarded by this
+        private int inFlight;
+        private long lastChange = System.nanoTime();
+        private double congestion;
+
+        Hub(String name, String connectionInfo)
+        {
+            this.name = name;
+            this.connectionInfo = connectionInfo;
+            Metrics.gauge(name + " in flight", this::getInFlight);
+            Metrics.gauge(name + " congestion", this::getCongestion);
+        }
+
+        synchronized void change(int delta)
+        {
+            decay(System.nanoTime());
+            inFlight += delta;
+        }
+
+        // Must hold the lock
+        private void decay(long now)
+        {
+            double dt = now - lastChange;
+            lastChange = now;
+            congestion += (1 - Math.exp(-dt / TAU)) * (inFlight - congestion);
+        }
+
+        synchronized double getInFlight()
+        {
+            return inFlight;
+        }
+
+        synchronized double getCongestion()
+        {
+            decay(System.nanoTime());
+            return congestion;
+        }
+
+        boolean owns(String info)
+        {
+            String hub = connectionInfo;
+            return hub != null && (info.equals(hub) || info.startsWith(hub + ";"));
+        }
+    }
+
+    /**
+     * Measures one kind of call to one hub
+     */
+    public static final class Probe
+    {
+        private final Hub hub;
+        private final Timer latency;
+        private final String command;
+
+        private Probe(Hub hub, String command)
+        {
+            this.hub = hub;
+            this.command = command;
+            this.latency = Metrics.timer(hub.name + " " + command);
+        }
+
+        /**
+         * Call right before the hardware call
+         * @return The start time, to pass to {@link #end(long)}
+         */
+        public long start()
+        {
+            hub.change(1);
+            return System.nanoTime();
+        }
+
+        /**
+         * Call right after the hardware call, even if it threw
+         * @param start What {@link #start()} returned
+         */
+        public void end(long start)
+        {
+            latency.recordSince(start);
+            hub.change(-1);
+        }
+
+        /**
+         * Make a call and measure it
+         */
+        public void run(Runnable call)
+        {
+            long start = start();
+            try
+            {
+                call.run();
+            }
+            finally
+            {
+                end(start);
+            }
+        }
+
+        /**
+         * Make a call and measure it
+         * @return What the call returned
+         */
+        public <V> V call(Supplier<V> call)
+        {
+            long start = start();
+            try
+            {
+                return call.get();
+            }
+            finally
+            {
+                end(start);
+            }
+        }
+
+        /**
+         * Like {@link #call(Supplier)}, without boxing the result
+         */
+        public int callInt(IntSupplier call)
+        {
+            long start = start();
+            try
+            {
+                return call.getAsInt();
+            }
+            finally
+            {
+                end(start);
+            }
+        }
+
+        /**
+         * Like {@link #call(Supplier)}, without boxing the result
+         */
+        public boolean callBoolean(BooleanSupplier call)
+        {
+            long start = start();
+            try
+            {
+                return call.getAsBoolean();
+            }
+            finally
+            {
+                end(start);
+            }
+        }
+
+        /**
+         * Like {@link #call(Supplier)}, without boxing the result
+         */
+        public double callDouble(DoubleSupplier call)
+        {
+            long start = start();
+            try
+            {
+                return call.getAsDouble();
+            }
+            finally
+            {
+                end(start);
+            }
+        }
+    }
+
+    private static final List<Hub> hubs = new ArrayList<>();
+    private static final Hub other = new Hub("Other hub", null);
+
+    private BusMonitor() { }
+
+    /**
+     * Register a hub. Registering a hub with the same name again, e.g. in the next OpMode, takes
+     * over its metrics and the probes that already exist for it.
+     * @param name A name for the hub, e.g. "Left hub"
+     */
+    public static synchronized void addHub(LynxModule module, String name)
+    {
+        for (Hub hub : hubs)
+        {
+            if (hub.name.equals(name))
+            {
+                hub.connectionInfo = module.getConnectionInfo();
+                return;
+            }
+        }
+        hubs.add(new Hub(name, module.getConnectionInfo()));
+    }
+
+    /**
+     * Get the probe for a kind of call to a device. Create probes once, not on every call.
+     * @param device  The device, to find which hub it is on
+     * @param command The kind of call, starting with the class making it, e.g. "PIDMotor mode write"
+     */
+    public static synchronized Probe probe(HardwareDevice device, String command)
+    {
+        Hub hub = other;
+        String info = device.getConnectionInfo();
+        for (Hub h : hubs)
+        {
+            if (h.owns(info)) hub = h;
+        }
+        for (Probe p : hub.probes)
+        {
+            if (p.command.equals(command)) return p;
+        }
+        Probe p = new Probe(hub, command);
+        hub.probes.add(p);
+        return p;
+    }
+
+    /**
+     * Add a line per hub with its congestion, the calls in flight and the calls with the slowest
+     * p99 latency in the last metrics snapshot
+     */
+    public static synchronized void addTelemetry(Telemetry telemetry)
+    {
+        for (Hub hub : hubs)
+        {
+            Probe slowest = null;
+            for (Probe p : hub.probes)
+            {
+                if (slowest == null || p.latency.get99thPercentile() > slowest.latency.get99thPercentile())
+                    slowest = p;
+            }
+            telemetry.addData(hub.name, "congestion %.2f, %d in flight, slowest %s (p99 %.1f ms)",
+                    hub.getCongestion(), (int)hub.getInFlight(),
+                    slowest == null ? "none" : slowest.command,
+                    slowest == null ? 0.0 : slowest.latency.get99thPercentile());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.firstinspires.ftc.teamcode.common.util.metrics;
+
+import org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedLong;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count of events. Backed by a {@link LongAdder}, so any number of threads can count at once
+ * without contending on one memory location.
+ */
+public final class Counter implements Metric
+{
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final PublishedLong published = new PublishedLong();
+
+    Counter(String name)
+    {
+        this.name = name;
+    }
+
+    public void increment()
+    {
+        count.increment();
+    }
+
+    public void add(long n)
+    {
+        count.add(n);
+    }
+
+    /**
+     * @return The current count. Reads every stripe, so prefer not to call this in a loop.
+     */
+    public long get()
+    {
+        return count.sum();
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public void snapshot()
+    {
+        published.set(count.sum());
+    }
+
+    @Override
+    public void export(GlobalDataLogger logger, int periodMillis)
+    {
+        logger.addChannel(name, published).setPeriod(periodMillis);
+    }
+
+    @Override
+    public String summary()
+    {
+        return Long.toString(published.getAsLong());
+    }
+}
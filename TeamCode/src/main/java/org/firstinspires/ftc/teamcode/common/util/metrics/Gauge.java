@@ -0,0 +1,60 @@
+package org.firstinspires.ftc.teamcode.common.util.metrics;
+
+import org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedDouble;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * A value read from a callback whenever the registry takes a snapshot. The callback runs on the
+ * metrics thread, so it must be thread-safe and should not touch hardware.
+ */
+public final class Gauge implements Metric
+{
+    private final String name;
+    private volatile DoubleSupplier source;
+    private final PublishedDouble published = new PublishedDouble();
+
+    Gauge(String name, DoubleSupplier source)
+    {
+        this.name = name;
+        this.source = source;
+    }
+
+    void setSource(DoubleSupplier source)
+    {
+        this.source = source;
+    }
+
+    /**
+     * @return The value as of the last snapshot
+     */
+    public double get()
+    {
+        return published.getAsDouble();
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public void snapshot()
+    {
+        published.set(source.getAsDouble());
+    }
+
+    @Override
+    public void export(GlobalDataLogger logger, int periodMillis)
+    {
+        logger.addChannel(name, published).setPeriod(periodMillis);
+    }
+
+    @Override
+    public String summary()
+    {
+        return String.format("%.3f", published.getAsDouble());
+    }
+}
@@ -0,0 +1,84 @@
+package org.firstinspires.ftc.teamcode.common.util.metrics;
+
+/**
+ * Measures a loop that should run once every fixed period: how long apart iterations start
+ * ({@code "<name> period"}), how long each iteration runs ({@code "<name> time"}), and how many
+ * iterations started late ({@code "<name> overruns"}). An iteration is late if it starts more than
+ * {@link #OVERRUN_FACTOR} periods after the previous one.
+ * <pre><code>
+ *     LoopTimer timer = Metrics.loop("IMU", 10);
+ *     GlobalThreadPool.instance().scheduleAtFixedRate(Lane.CONTROL, "IMU", 10, () ->
+ *     {
+ *         timer.start();
+ *         update();
+ *         timer.end();
+ *     });
+ * </code></pre>
+ * A loop timer should only be used by one thread at a time.
+ */
+public final class LoopTimer
+{
+    public static final double OVERRUN_FACTOR = 1.5;
+
+    private final Timer period;
+    private final Timer time;
+    private final Counter overruns;
+    private final long limit;
+    private long lastStart;
+    private long start;
+
+    LoopTimer(Timer period, Timer time, Counter overruns, int periodMillis)
+    {
+        this.period = period;
+        this.time = time;
+        this.overruns = overruns;
+        this.limit = (long)(periodMillis * 1e6 * OVERRUN_FACTOR);
+    }
+
+    /**
+     * Call at the start of every iteration
+     */
+    public void start()
+    {
+        start = System.nanoTime();
+        if (lastStart != 0)
+        {
+            long elapsed = start - lastStart;
+            period.record(elapsed);
+            if (elapsed > limit) overruns.increment();
+        }
+        lastStart = start;
+    }
+
+    /**
+     * Call at the end of every iteration
+     */
+    public void end()
+    {
+        time.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Forget the last start time, i.e. when the loop pauses, so the pause is not counted as an
+     * overrun
+     */
+    public void reset()
+    {
+        lastStart = 0;
+    }
+
+    public Timer getPeriod()
+    {
+        return period;
+    }
+
+    public Timer getTime()
+    {
+        return time;
+    }
+
+    public Counter getOverruns()
+    {
+        return overruns;
+    }
+}
@@ -0,0 +1,27 @@
+package org.firstinspires.ftc.teamcode.common.util.metrics;
+
+import org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger;
+
+/**
+ * Something kept in the {@link Metrics} registry
+ */
+interface Metric
+{
+    String getName();
+
+    /**
+     * Copy the live value into the published value(s). Only called by the registry, with the
+     * registry locked.
+     */
+    void snapshot();
+
+    /**
+     * Add channels for the published value(s)
+     */
+    void export(GlobalDataLogger logger, int periodMillis);
+
+    /**
+     * @return The published value(s) formatted for telemetry
+     */
+    String summary();
+}
@@ -0,0 +1,145 @@
+package org.firstinspires.ftc.teamcode.common.util.metrics;
+
+import org.firstinspires.ftc.robotcore.external.Telemetry;
+import org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.Lane;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PeriodicTask;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of named counters, gauges and timers for watching control loop health. Metrics are
+ * created on first use and shared by name, so a component can look its metrics up again every
+ * time it is constructed. Recording a value never takes the registry lock.
+ * <p>
+ * The registry publishes a snapshot of every metric periodically after
+ * {@link #exportTo(GlobalDataLogger, int)}, which also adds data logger channels for them, or
+ * whenever {@link #addTelemetry(Telemetry)} is called if nothing is being exported.
+ * </p>
+ */
+public final class Metrics
+{
+    private static final Map<String, Metric> byName = new HashMap<>();
+    private static final List<Metric> metrics = new ArrayList<>();
+    private static final Map<String, LoopTimer> loops = new HashMap<>();
+
+    private static GlobalDataLogger exporter;
+    private static int exportPeriod;
+    private static int exported; // Number of metrics with channels in the exporter
+    private static PeriodicTask exportTask;
+    private static Object exportToken; // Identifies the current export task
+
+    private Metrics() { }
+
+    public static synchronized Counter counter(String name)
+    {
+        Metric m = byName.get(name);
+        if (m == null) m = register(new Counter(name));
+        if (!(m instanceof Counter)) throw new IllegalArgumentException(name + " is not a counter");
+        return (Counter)m;
+    }
+
+    public static synchronized Timer timer(String name)
+    {
+        Metric m = byName.get(name);
+        if (m == null) m = register(new Timer(name));
+        if (!(m instanceof Timer)) throw new IllegalArgumentException(name + " is not a timer");
+        return (Timer)m;
+    }
+
+    /**
+     * Register a gauge. Replaces the callback of an existing gauge with the same name, so a new
+     * instance of a component can take over its gauge.
+     * @param name   The name of the gauge
+     * @param source Supplies the value; called on the metrics thread
+     * @return The gauge
+     */
+    public static synchronized Gauge gauge(String name, DoubleSupplier source)
+    {
+        Metric m = byName.get(name);
+        if (m == null) m = register(new Gauge(name, source));
+        if (!(m instanceof Gauge)) throw new IllegalArgumentException(name + " is not a gauge");
+        Gauge g = (Gauge)m;
+        g.setSource(source);
+        return g;
+    }
+
+    /**
+     * Get the timers and overrun counter of a fixed-rate loop
+     * @param name         The name of the loop
+     * @param periodMillis How often the loop is meant to run, in milliseconds
+     * @return The loop timer
+     */
+    public static synchronized LoopTimer loop(String name, int periodMillis)
+    {
+        LoopTimer t = loops.get(name);
+        if (t == null)
+        {
+            t = new LoopTimer(timer(name + " period"), timer(name + " time"),
+                    counter(name + " overruns"), periodMillis);
+            loops.put(name, t);
+        }
+        return t;
+    }
+
+    private static Metric register(Metric m)
+    {
+        byName.put(m.getName(), m);
+        metrics.add(m);
+        return m;
+    }
+
+    /**
+     * Publish a snapshot of every metric. Timers are reset by each snapshot.
+     */
+    public static synchronized void snapshot()
+    {
+        for (Metric m : metrics) m.snapshot();
+        if (exporter != null)
+        {
+            // Add channels for metrics registered since the last export
+            for (; exported < metrics.size(); exported++) metrics.get(exported).export(exporter, exportPeriod);
+        }
+    }
+
+    /**
+     * Log every metric to a data logger, taking a snapshot once per period as a periodic task.
+     * Replaces any previous exporter.
+     * @param logger       The data logger
+     * @param periodMillis The time between snapshots, in milliseconds
+     */
+    public static synchronized void exportTo(GlobalDataLogger logger, int periodMillis)
+    {
+        if (exportTask != null) exportTask.cancel();
+        exporter = logger;
+        exportPeriod = periodMillis;
+        exported = 0;
+        Object token = new Object();
+        exportToken = token;
+        exportTask = GlobalThreadPool.instance().scheduleAtFixedRate(Lane.IO, "Metrics", periodMillis, true,
+                Metrics::snapshot);
+        exportTask.setOnCancel(() ->
+        {
+            synchronized (Metrics.class)
+            {
+                if (exportToken == token) exporter = null;
+            }
+        });
+    }
+
+    /**
+     * Add a line for every metric to the telemetry: the value of counters and gauges, and the
+     * p50 / p99 / max of timers. Takes a snapshot first if nothing is being exported.
+     * @param telemetry The telemetry to add data to
+     */
+    public static synchronized void addTelemetry(Telemetry telemetry)
+    {
+        if (exporter == null) snapshot();
+        for (Metric m : metrics) telemetry.addData(m.getName(), m.summary());
+    }
+}
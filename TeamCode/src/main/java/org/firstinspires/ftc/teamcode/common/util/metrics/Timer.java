@@ -0,0 +1,132 @@
+package org.firstinspires.ftc.teamcode.common.util.metrics;
+
+import org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger;
+import org.firstinspires.ftc.teamcode.common.util.LatencyHistogram;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedDouble;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.PublishedLong;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A distribution of durations. Every recording thread gets its own {@link LatencyHistogram}
+ * stripe, so threads never wait for each other; each snapshot merges and clears the stripes and
+ * publishes the p50, p99 and maximum of the durations recorded since the previous snapshot.
+ */
+public final class Timer implements Metric
+{
+    private static final class Stripe
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+    }
+
+    private final String name;
+    private final List<Stripe> stripes = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Stripe> local = new ThreadLocal<Stripe>()
+    {
+        @Override
+        protected Stripe initialValue()
+        {
+            Stripe s = new Stripe();
+            stripes.add(s);
+            return s;
+        }
+    };
+    private final LatencyHistogram merged = new LatencyHistogram(); // Only used by snapshot()
+
+    private final PublishedDouble p50 = new PublishedDouble();
+    private final PublishedDouble p99 = new PublishedDouble();
+    private final PublishedDouble max = new PublishedDouble();
+    private final PublishedLong count = new PublishedLong();
+
+    Timer(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Record one duration
+     * @param nanos The duration, in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        Stripe s = local.get();
+        synchronized (s) // Only contended while a snapshot is being taken
+        {
+            s.histogram.record(nanos);
+        }
+    }
+
+    /**
+     * Record the time since a start time
+     * @param start A start time from {@link System#nanoTime()}
+     */
+    public void recordSince(long start)
+    {
+        record(System.nanoTime() - start);
+    }
+
+    /**
+     * @return The median duration in milliseconds over the last snapshot interval
+     */
+    public double getMedian()
+    {
+        return p50.getAsDouble();
+    }
+
+    /**
+     * @return The 99th percentile duration in milliseconds over the last snapshot interval
+     */
+    public double get99thPercentile()
+    {
+        return p99.getAsDouble();
+    }
+
+    /**
+     * @return The longest duration in milliseconds over the last snapshot interval
+     */
+    public double getMax()
+    {
+        return max.getAsDouble();
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public void snapshot()
+    {
+        merged.reset();
+        for (Stripe s : stripes)
+        {
+            synchronized (s)
+            {
+                merged.add(s.histogram);
+                s.histogram.reset();
+            }
+        }
+        if (merged.getCount() == 0) return; // Keep the last values
+        p50.set(merged.getPercentile(50) / 1e6);
+        p99.set(merged.getPercentile(99) / 1e6);
+        max.set(merged.getMax() / 1e6);
+        count.set(count.getAsLong() + merged.getCount());
+    }
+
+    @Override
+    public void export(GlobalDataLogger logger, int periodMillis)
+    {
+        logger.addChannel(name + " p50 (ms)", p50).setPeriod(periodMillis);
+        logger.addChannel(name + " p99 (ms)", p99).setPeriod(periodMillis);
+        logger.addChannel(name + " max (ms)", max).setPeriod(periodMillis);
+    }
+
+    @Override
+    public String summary()
+    {
+        return String.format("%.2f / %.2f / %.2f ms (n=%d)", p50.getAsDouble(), p99.getAsDouble(),
+                max.getAsDouble(), count.getAsLong());
+    }
+}
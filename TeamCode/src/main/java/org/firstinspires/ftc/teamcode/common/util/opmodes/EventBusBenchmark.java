@@ -0,0 +1,219 @@
+package org.firstinspires.ftc.teamcode.common.util.opmodes;
+
+import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+
+import org.firstinspires.ftc.teamcode.common.events.Event;
+import org.firstinspires.ftc.teamcode.common.events.EventBus;
+import org.firstinspires.ftc.teamcode.common.events.EventPool;
+import org.firstinspires.ftc.teamcode.common.events.handler.EventHandler;
+import org.firstinspires.ftc.teamcode.common.events.listener.EventListener;
+import org.firstinspires.ftc.teamcode.common.util.Logger;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures one {@link EventBus#loop()} in the worst case for a TeleOp: every one of the 19 inputs on
+ * both gamepads changes on every loop, and there are 20 listeners. The same load is also run
+ * through a copy of the old dispatch, which made new lists and events on every loop and compared
+ * every event with every listener, for comparison. Needs no hardware.
+ */
+@TeleOp(name="EventBus Benchmark", group="util")
+public class EventBusBenchmark extends LinearOpMode
+{
+    private static final int GAMEPADS = 2;
+    private static final int INPUTS = 19;
+    private static final int BUTTONS = 11;
+    private static final int LISTENERS = 20;
+    private static final int WARMUP = 20000;
+    private static final int LOOPS = 100000;
+
+    private Logger log = new Logger("EventBus Benchmark");
+
+    private static class InputEvent extends Event
+    {
+        int gamepad, input;
+        double value;
+
+        InputEvent(String name)
+        {
+            super(name);
+        }
+    }
+
+    private static class ButtonInput extends InputEvent
+    {
+        ButtonInput()
+        {
+            super("ButtonInput");
+        }
+    }
+
+    private static class AxisInput extends InputEvent
+    {
+        AxisInput()
+        {
+            super("AxisInput");
+        }
+    }
+
+    /**
+     * Produces a change on every input, from pools
+     */
+    private static class PooledHandler implements EventHandler<InputEvent>
+    {
+        private final EventPool<ButtonInput> buttons = new EventPool<>(GAMEPADS * BUTTONS, ButtonInput::new);
+        private final EventPool<AxisInput> axes = new EventPool<>(GAMEPADS * (INPUTS - BUTTONS), AxisInput::new);
+        private int loop;
+
+        @Override
+        public List<InputEvent> processEvents()
+        {
+            List<InputEvent> events = new ArrayList<>();
+            processEvents(events);
+            return events;
+        }
+
+        @Override
+        public void processEvents(List<? super InputEvent> events)
+        {
+            loop++;
+            for (int gamepad = 1; gamepad <= GAMEPADS; gamepad++)
+            {
+                for (int input = 0; input < INPUTS; input++)
+                {
+                    InputEvent ev = input < BUTTONS ? buttons.obtain() : axes.obtain();
+                    ev.gamepad = gamepad;
+                    ev.input = input;
+                    ev.value = loop & 1;
+                    events.add(ev);
+                }
+            }
+        }
+    }
+
+    /**
+     * Produces a change on every input, as new objects in a new list like the old handlers
+     */
+    private static class AllocatingHandler implements EventHandler<InputEvent>
+    {
+        private int loop;
+
+        @Override
+        public List<InputEvent> processEvents()
+        {
+            loop++;
+            List<InputEvent> events = new ArrayList<>();
+            for (int gamepad = 1; gamepad <= GAMEPADS; gamepad++)
+            {
+                for (int input = 0; input < INPUTS; input++)
+                {
+                    InputEvent ev = input < BUTTONS ? new ButtonInput() : new AxisInput();
+                    ev.gamepad = gamepad;
+                    ev.input = input;
+                    ev.value = loop & 1;
+                    events.add(ev);
+                }
+            }
+            return events;
+        }
+    }
+
+    private static class CountingListener implements EventListener<InputEvent>
+    {
+        private final Class<?> type;
+        double sum;
+
+        CountingListener(Class<?> type)
+        {
+            this.type = type;
+        }
+
+        @Override
+        public void processEvent(InputEvent event)
+        {
+            sum += event.value;
+        }
+
+        @Override
+        public Class<?> getEventType()
+        {
+            return type;
+        }
+    }
+
+    @Override
+    public void runOpMode() throws InterruptedException
+    {
+        telemetry.addData("Status", "Press start to run");
+        telemetry.update();
+        waitForStart();
+
+        List<CountingListener> listeners = new ArrayList<>();
+        for (int i = 0; i < LISTENERS; i++)
+        {
+            listeners.add(new CountingListener(i % 2 == 0 ? ButtonInput.class : AxisInput.class));
+        }
+
+        EventBus bus = new EventBus();
+        bus.addEventHandler(new PooledHandler());
+        for (CountingListener l : listeners) bus.subscribe(l);
+
+        AllocatingHandler oldHandler = new AllocatingHandler();
+
+        report("Old dispatch", runOld(oldHandler, listeners));
+        if (!opModeIsActive()) return;
+        report("Dispatch table", runSync(bus));
+        if (!opModeIsActive()) return;
+
+        GlobalThreadPool.initialize();
+        bus.startAsync(256);
+        report("Async loop()", runSync(bus));
+        bus.stopAsync();
+        log.i("Dropped %d events in async mode", bus.getDroppedEvents());
+        GlobalThreadPool.instance().stopAll();
+
+        telemetry.addData("Status", "Done");
+        telemetry.update();
+        while (opModeIsActive()) Thread.sleep(50);
+    }
+
+    private void report(String name, double nanos)
+    {
+        String result = String.format("%.2f us per loop, %.1f ns per event", nanos / 1e3,
+                nanos / (GAMEPADS * INPUTS));
+        log.i("%s: %s", name, result);
+        telemetry.log().add("%s: %s", name, result);
+    }
+
+    private static double runSync(EventBus bus)
+    {
+        for (int i = 0; i < WARMUP; i++) bus.loop();
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOPS; i++) bus.loop();
+        return (System.nanoTime() - start) / (double)LOOPS;
+    }
+
+    private static double runOld(AllocatingHandler handler, List<CountingListener> listeners)
+    {
+        for (int i = 0; i < WARMUP; i++) oldLoop(handler, listeners);
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOPS; i++) oldLoop(handler, listeners);
+        return (System.nanoTime() - start) / (double)LOOPS;
+    }
+
+    private static void oldLoop(AllocatingHandler handler, List<CountingListener> listeners)
+    {
+        List<Event> events = new ArrayList<>();
+        events.addAll(handler.processEvents());
+        for (Event ev : events)
+        {
+            for (CountingListener l : listeners)
+            {
+                if (ev.getClass() == l.getEventType()) l.processEvent((InputEvent)ev);
+            }
+        }
+    }
+}
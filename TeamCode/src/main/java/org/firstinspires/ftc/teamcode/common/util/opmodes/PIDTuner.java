@@ -218,7 +218,8 @@ public class PIDTuner extends OpMode
                     array[6] = 0; // controller.getInternalController().getIntegral();
                     array[7] = 0; // controller.getInternalController().getDerivative();
                     array[8] = controller.getOutput();
-            });
+            }, 200, true);
+            dataLogger.startClip();
         }
         try
         {
@@ -0,0 +1,96 @@
+package org.firstinspires.ftc.teamcode.common.util.opmodes;
+
+import com.qualcomm.robotcore.eventloop.opmode.LinearOpMode;
+import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
+
+import org.firstinspires.ftc.teamcode.common.util.Logger;
+import org.firstinspires.ftc.teamcode.common.util.Scheduler;
+
+import java.util.Random;
+
+/**
+ * Measures how long {@link Scheduler#update()} takes as the number of waiting tasks grows. Each
+ * round keeps a few repeating 10 ms tasks running, like the ones a TeleOp uses, plus N one-shot
+ * timers that are re-armed at random, like per-button debounce timers that keep being pushed back
+ * before they fire. The update time should stay about the same from 10 to thousands of timers.
+ * Needs no hardware.
+ */
+@TeleOp(name="Scheduler Benchmark", group="util")
+public class SchedulerBenchmark extends LinearOpMode
+{
+    private static final int[] SIZES = {10, 100, 1000, 5000, 20000};
+    private static final long ROUND_TIME = 2000; // ms
+    private static final long LOOP_TIME = 5; // ms, about one OpMode loop
+
+    private Logger log = new Logger("Scheduler Benchmark");
+
+    @Override
+    public void runOpMode() throws InterruptedException
+    {
+        telemetry.addData("Status", "Press start to run");
+        telemetry.update();
+        waitForStart();
+
+        runRound(1000); // Warm up the JIT
+        for (int n : SIZES)
+        {
+            if (!opModeIsActive()) break;
+            telemetry.addData("Status", "Running with %d timers", n);
+            telemetry.update();
+            String result = runRound(n);
+            log.i("%d timers: %s", n, result);
+            telemetry.log().add("%d timers: %s", n, result);
+        }
+        telemetry.addData("Status", "Done");
+        telemetry.update();
+        while (opModeIsActive()) Thread.sleep(50);
+    }
+
+    private String runRound(int n) throws InterruptedException
+    {
+        Scheduler scheduler = new Scheduler();
+        Random random = new Random(n);
+        int[] fired = new int[1];
+        Runnable work = () -> fired[0]++;
+        for (int i = 0; i < 8; i++) scheduler.add(10, work, true);
+
+        Scheduler.TaskCallback[] timers = new Scheduler.TaskCallback[n];
+        for (int i = 0; i < n; i++) timers[i] = scheduler.add(debounceDelay(random), work);
+
+        long updates = 0, updateTime = 0, maxUpdate = 0;
+        long rearms = 0, rearmTime = 0;
+        long end = System.nanoTime() + ROUND_TIME * 1000000;
+        while (System.nanoTime() < end && opModeIsActive())
+        {
+            // Push back a few timers, as button bounces would
+            long start = System.nanoTime();
+            for (int i = 0; i < 4; i++)
+            {
+                int j = random.nextInt(n);
+                timers[j].cancel();
+                timers[j] = scheduler.add(debounceDelay(random), work);
+            }
+            rearmTime += System.nanoTime() - start;
+            rearms += 4;
+
+            start = System.nanoTime();
+            scheduler.update();
+            long time = System.nanoTime() - start;
+            updateTime += time;
+            maxUpdate = Math.max(maxUpdate, time);
+            updates++;
+            Thread.sleep(LOOP_TIME);
+        }
+        return String.format("update mean %.1f us, max %.1f us; re-arm %.2f us; %d runs, %d pending",
+                updateTime / 1e3 / updates, maxUpdate / 1e3, rearmTime / 1e3 / rearms,
+                fired[0], scheduler.getPendingCount());
+    }
+
+    /**
+     * Mostly long delays, so most timers are still waiting at the end of the round
+     */
+    private static long debounceDelay(Random random)
+    {
+        return 500 + random.nextInt(60000);
+    }
+}
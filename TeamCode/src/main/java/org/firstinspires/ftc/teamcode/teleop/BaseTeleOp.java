@@ -7,12 +7,15 @@ import org.firstinspires.ftc.teamcode.common.Robot;
 import org.firstinspires.ftc.teamcode.common.motor_control.AccelMotor;
 import org.firstinspires.ftc.teamcode.common.util.Config;
 import org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger;
+import org.firstinspires.ftc.teamcode.common.util.LogRetention;
 import org.firstinspires.ftc.teamcode.common.util.Logger;
 import org.firstinspires.ftc.teamcode.common.util.Profiler;
 import org.firstinspires.ftc.teamcode.common.util.Scheduler;
+import org.firstinspires.ftc.teamcode.common.util.Trace;
 import org.firstinspires.ftc.teamcode.common.util.Utils;
 import org.firstinspires.ftc.teamcode.common.util.VMStats;
 import org.firstinspires.ftc.teamcode.common.util.concurrent.GlobalThreadPool;
+import org.firstinspires.ftc.teamcode.common.util.concurrent.OverflowPolicy;
 import org.firstinspires.ftc.teamcode.teleop.util.ButtonHelper;
 
 import java.io.IOException;
@@ -29,23 +32,31 @@ public abstract class BaseTeleOp extends OpMode
     private double prev_tick_time;
     
     private static final boolean LOGGING_ENABLED = true;
+    private static final int TRACE_CAPACITY = 32768;
     
     @Override
     public void init()
     {
         try { Logger.init(); } catch (IOException e) { throw new RuntimeException(e); }
+        Logger.startAsync(4096, OverflowPolicy.DROP_OLDEST);
+        Trace.enable(TRACE_CAPACITY);
+        Trace.begin("OpMode init");
         log = new Logger(getClass().getCanonicalName());
-        GlobalThreadPool.initialize(16);
+        GlobalThreadPool.initialize();
         try
         {
-            GlobalDataLogger.initialize(Config.storageDir + "teleop_" + getClass().getSimpleName() + ".log.gz");
+            GlobalDataLogger.initialize(Config.storageDir + "logs/" + Logger.getSession() + "_teleop_"
+                    + getClass().getSimpleName() + ".gdl");
             if (LOGGING_ENABLED) GlobalDataLogger.instance().start(5);
         } catch (IOException e)
         {
             log.e("Failed to initialize logger");
         }
+        Trace.begin("Robot.initialize");
         robot = Robot.initialize(hardwareMap, new Config(Config.configFile));
+        Trace.end();
         prev_tick_time = (double)(System.nanoTime() / 1000000000);
+        Trace.end(); // OpMode init
         
         /*
         ((AccelMotor)robot.drivetrain.leftFront.getMotor()).setMaxAcceleration(Double.POSITIVE_INFINITY);
@@ -60,6 +71,7 @@ public abstract class BaseTeleOp extends OpMode
     @Override
     public void start()
     {
+        Trace.instant("Start");
         prev_tick_time = (double)System.nanoTime() / 1000000000;
     }
     
@@ -77,9 +89,15 @@ public abstract class BaseTeleOp extends OpMode
     @Override
     public void stop()
     {
+        Trace.begin("Shutdown");
         robot.uninitialize();
-        GlobalDataLogger.instance().stop();
+        GlobalDataLogger dataLogger = GlobalDataLogger.instance();
+        dataLogger.stop();
         GlobalThreadPool.instance().stopAll();
+        Trace.end();
+        Trace.stop();
+        dataLogger.awaitClose(1000); // Before its file is compressed
         Logger.close();
+        LogRetention.finishSession(Logger.getSession(), getClass().getSimpleName());
     }
 }
@@ -7,8 +7,10 @@ import com.qualcomm.robotcore.eventloop.opmode.TeleOp;
 import com.qualcomm.robotcore.hardware.DcMotor;
 import com.qualcomm.robotcore.util.Range;
 
+import org.firstinspires.ftc.teamcode.common.util.GlobalDataLogger;
 import org.firstinspires.ftc.teamcode.common.util.Profiler;
 import org.firstinspires.ftc.teamcode.common.util.Utils;
+import org.firstinspires.ftc.teamcode.common.util.metrics.BusMonitor;
 import org.firstinspires.ftc.teamcode.teleop.util.ButtonHelper;
 
 @TeleOp(name="Mecanum Drive")
@@ -38,7 +40,7 @@ public class MecanumDrive extends BaseTeleOp
     private long lastTelemetry;
     
     private Profiler profiler;
-    private static final boolean PROFILE = false;
+    private static final boolean PROFILE = true;
     
     @Override
     public void init()
@@ -54,9 +56,10 @@ public class MecanumDrive extends BaseTeleOp
         robot.imu.initialize();
         robot.drivetrain.enableAsyncLoop();
         
-        profiler = new Profiler();
+        profiler = new Profiler().exportTo(GlobalDataLogger.instance(), 1000);
         
-        // Bulk caching is broken internally for digital channels
+        // Bulk caching is broken internally for digital channels; robot.hubCache does the bulk
+        // reads instead
         // robot.leftHub.setBulkCachingMode(LynxModule.BulkCachingMode.AUTO);
         // robot.rightHub.setBulkCachingMode(LynxModule.BulkCachingMode.AUTO);
     }
@@ -311,9 +314,14 @@ public class MecanumDrive extends BaseTeleOp
             // telemetry.addData("Claw Pos", robot.claw.getExtension().getPosition());
             telemetry.addData("Back Limit", robot.backSwitch.pressed());
             telemetry.addData("Claw Pos", robot.newarm.motorArm.getCurrentPosition());
+            BusMonitor.addTelemetry(telemetry);
         }
         if (PROFILE) profiler.end();
         
+        if (PROFILE) profiler.start("writes");
+        robot.writeBuffer.flush(); // Send this loop's writes together
+        if (PROFILE) profiler.end();
+        
         if (PROFILE) profiler.finish();
     
         updateCount++;
@@ -330,7 +338,9 @@ public class MecanumDrive extends BaseTeleOp
         robot.slide.slidemotor.setPower(0.25);
         robot.slide.slidemotor.setRunMode(DcMotor.RunMode.RUN_TO_POSITION);
         robot.slide.slidemotor.setPower(0);
-    
+        robot.writeBuffer.flush();
+        
+        if (PROFILE) profiler.report();
         super.stop();
     }
 }
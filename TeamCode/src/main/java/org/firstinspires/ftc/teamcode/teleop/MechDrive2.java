@@ -4,6 +4,7 @@ package org.firstinspires.ftc.teamcode.teleop;
 import org.firstinspires.ftc.teamcode.common.events.Event;
 import org.firstinspires.ftc.teamcode.common.events.EventBus;
 import org.firstinspires.ftc.teamcode.common.events.handler.GamepadEventHandler;
+import org.firstinspires.ftc.teamcode.common.events.handler.TimeEventHandler;
 import org.firstinspires.ftc.teamcode.common.util.Profiler;
 import org.firstinspires.ftc.teamcode.teleop.util.ButtonHelper;
 
@@ -56,7 +57,10 @@ public class MechDrive2 extends BaseTeleOp
         profiler = new Profiler();
         
         eventBus = new EventBus();
-        eventBus.addEventHandler(new GamepadEventHandler(gamepad1, gamepad2, null));
+        eventBus.addEventHandler(new GamepadEventHandler(gamepad1, gamepad2, null)
+                .setPooled(true)
+                .setAxisFilter(0.05, 0.01));
+        eventBus.addEventHandler(new TimeEventHandler()); // For automation: intake pulses, LED patterns
     }
     
     @Override
@@ -0,0 +1,88 @@
+package org.firstinspires.ftc.teamcode.common.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class DataLogReaderTest
+{
+    private static final int CHANNELS = 2;
+    private static final long STEP = 1000000; // ns between records
+
+    /**
+     * Write a log with one change-only clip in which both channels change in every record
+     * @param records The number of complete records
+     * @param extra   The number of bytes of one more record to write after them
+     */
+    private static File writeChangeOnlyLog(int records, int extra) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write("LOGp".getBytes(Charset.forName("UTF-8")));
+        out.writeInt(CHANNELS);
+        for (int i = 0; i < CHANNELS; i++)
+        {
+            out.writeInt(0);
+            out.write(("channel " + i).getBytes(Charset.forName("UTF-8")));
+            out.write(0);
+        }
+        out.writeLong(DataLogger.CHANGE_CLIP_MARKER);
+        int recordSize = 8 + DataLogIndex.maskSize(CHANNELS) + 8 * CHANNELS;
+        for (int r = 0; r <= records; r++)
+        {
+            out.writeLong(r * STEP);
+            out.write(0x03); // Both channels changed
+            out.writeDouble(r);
+            out.writeDouble(-r);
+        }
+        byte[] data = bytes.toByteArray();
+        int length = data.length - recordSize + extra;
+
+        File file = File.createTempFile("datalog", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + ".idx").deleteOnExit();
+        try (FileOutputStream f = new FileOutputStream(file))
+        {
+            f.write(Arrays.copyOf(data, length));
+        }
+        return file;
+    }
+
+    @Test
+    public void changeOnlyLogCutOffInCheckpointRecord() throws IOException
+    {
+        int records = 2 * DataLogIndex.CHECKPOINT_INTERVAL;
+        // The next record, which would get a checkpoint, has its time and mask but not its values
+        File file = writeChangeOnlyLog(records, 8 + DataLogIndex.maskSize(CHANNELS) + 3);
+        try (DataLogReader reader = new DataLogReader(file))
+        {
+            assertEquals(records, reader.getRecordCount(0));
+            // Later than the cut-off record, so the search would start from its checkpoint
+            assertEquals(records, reader.findRecord(0, records * STEP + 1));
+            assertEquals(records - 1, reader.findRecord(0, (records - 1) * STEP));
+            assertEquals(records - 1, reader.getValue(0, records - 1, 0), 0);
+            assertEquals(-(records - 1), reader.getValue(0, records - 1, 1), 0);
+        }
+    }
+
+    @Test
+    public void changeOnlyLogCutOffAtCheckpointBoundary() throws IOException
+    {
+        int records = 2 * DataLogIndex.CHECKPOINT_INTERVAL;
+        File file = writeChangeOnlyLog(records, 0);
+        try (DataLogReader reader = new DataLogReader(file))
+        {
+            assertEquals(records, reader.getRecordCount(0));
+            assertEquals(records, reader.findRecord(0, records * STEP + 1));
+            assertEquals(DataLogIndex.CHECKPOINT_INTERVAL, reader.findRecord(0, DataLogIndex.CHECKPOINT_INTERVAL * STEP));
+        }
+    }
+}